@@ -45,6 +45,51 @@ public abstract class Cursor<RECORD extends Record>
      */
     public abstract void goTo(RECORD key) throws IOException, InterruptedException;
 
+    /**
+     * Position the Cursor as for {@link #goTo(Record)}, in the expectation that the key is at or just after
+     * the Cursor's current position. An Index implementation can override this method to search forward from the
+     * current position instead of searching the entire Index. The result must be the same as that of goTo, even
+     * if the key turns out to precede the current position. The default implementation calls goTo.
+     * @param key The key to search for.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void goToForward(RECORD key) throws IOException, InterruptedException
+    {
+        goTo(key);
+    }
+
+    /**
+     * Locate the first of a set of candidate z-values that is present in the Index. For the smallest i such that
+     * a {@link com.geophile.z.Record} with z-value zs[i] exists, i &lt; count - 1, this method returns the first
+     * such record. If there is no such i, then this method returns the record that {@link #next()} would return
+     * following {@link #goTo(Record)} with a key of zs[count - 1] (which may be null, or a record whose
+     * z-value is larger than zs[count - 1]). In either case, the Cursor is then positioned as if by goTo and next.
+     * The default implementation does this with one goTo and next per candidate. An Index implementation can
+     * override this method to locate the candidates in a single search.
+     * @param key Used to position the Cursor. Its z-value is modified by this method.
+     * @param zs Candidate z-values, in ascending order, which are expected to be at or after the Cursor's current
+     *           position.
+     * @param count The number of candidates, which must be positive.
+     * @return The record located, as described above.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public RECORD goToFirstPresent(RECORD key, long[] zs, int count) throws IOException, InterruptedException
+    {
+        assert count > 0 : count;
+        RECORD record = null;
+        for (int i = 0; i < count; i++) {
+            key.z(zs[i]);
+            goToForward(key);
+            record = next();
+            if (record != null && record.z() == zs[i]) {
+                break;
+            }
+        }
+        return record;
+    }
+
     /**
      * Delete the record returned by the immediately preceding call to next.
      * The return value is true if a record was deleted. If the record returned was null,
@@ -83,7 +128,8 @@ public abstract class Cursor<RECORD extends Record>
         if (stableRecords) {
             current = record;
         } else {
-            record.copyTo(current);
+            record.copyTo(flyweight);
+            current = flyweight;
         }
     }
 
@@ -101,12 +147,15 @@ public abstract class Cursor<RECORD extends Record>
     protected Cursor(Index<RECORD> index)
     {
         stableRecords = index.stableRecords();
-        current = stableRecords ? null : index.newRecord();
+        flyweight = stableRecords ? null : index.newRecord();
     }
 
     // Object state
 
     private final boolean stableRecords;
+    // Records from an index without stable records are copied here, so that the Cursor remains usable
+    // after close() and goTo().
+    private final RECORD flyweight;
     private RECORD current;
     private State state = State.NEVER_USED;
 
@@ -0,0 +1,169 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of {@link com.geophile.z.SpatialObject} decompositions, for applications that use the same
+ * query objects repeatedly, (see {@link SpatialJoin#newSpatialJoin(SpatialJoin.Duplicates, SpatialJoin.Filter,
+ * DecompositionCache)}). Decompositions are keyed by {@link Space}, spatial object, and the maximum number of
+ * z-values. Spatial objects are compared using equals and hashCode, and so must not be modified while cached.
+ * When the cache is full, the least recently used decomposition is evicted.
+ * A DecompositionCache may be shared by threads.
+ */
+
+public class DecompositionCache
+{
+    // Object interface
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("DecompositionCache(%s/%s, hits: %s, misses: %s)", cache.size(), capacity, hits, misses);
+    }
+
+    // DecompositionCache interface
+
+    /**
+     * Returns the decomposition of spatialObject in space, into at most maxZ z-values. The decomposition is
+     * computed by {@link Space#decompose(SpatialObject, long[])} if it is not cached.
+     * @param space The {@link Space} in which spatialObject is decomposed.
+     * @param spatialObject The {@link com.geophile.z.SpatialObject} to be decomposed.
+     * @param maxZ The maximum number of z-values.
+     * @return The z-values of the decomposition, without trailing {@link Space#Z_NULL}s. The array is shared
+     * by all callers, and must not be modified.
+     */
+    public long[] decompose(Space space, SpatialObject spatialObject, int maxZ)
+    {
+        Key key = new Key(space, spatialObject, maxZ);
+        long[] zs;
+        synchronized (this) {
+            zs = cache.get(key);
+            if (zs == null) {
+                misses++;
+            } else {
+                hits++;
+            }
+        }
+        if (zs == null) {
+            // Decompose outside the lock. Concurrent misses on the same key compute the same z-values.
+            zs = new long[maxZ];
+            space.decompose(spatialObject, zs);
+            int zCount = 0;
+            while (zCount < maxZ && zs[zCount] != Space.Z_NULL) {
+                zCount++;
+            }
+            zs = Arrays.copyOf(zs, zCount);
+            synchronized (this) {
+                cache.put(key, zs);
+            }
+        }
+        return zs;
+    }
+
+    /**
+     * Returns the number of decompositions found in the cache.
+     * @return The number of decompositions found in the cache.
+     */
+    public synchronized long hits()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the number of decompositions computed because they were not in the cache.
+     * @return The number of decompositions computed because they were not in the cache.
+     */
+    public synchronized long misses()
+    {
+        return misses;
+    }
+
+    /**
+     * Returns the number of cached decompositions.
+     * @return The number of cached decompositions.
+     */
+    public synchronized int size()
+    {
+        return cache.size();
+    }
+
+    /**
+     * Removes all cached decompositions. The hit and miss counts are not reset.
+     */
+    public synchronized void clear()
+    {
+        cache.clear();
+    }
+
+    /**
+     * Creates a DecompositionCache.
+     * @param capacity The maximum number of decompositions to be cached.
+     */
+    public DecompositionCache(final int capacity)
+    {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(Integer.toString(capacity));
+        }
+        this.capacity = capacity;
+        this.cache =
+            new LinkedHashMap<Key, long[]>(16, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, long[]> eldest)
+                {
+                    return size() > capacity;
+                }
+            };
+    }
+
+    // Object state
+
+    private final int capacity;
+    private final LinkedHashMap<Key, long[]> cache;
+    private long hits;
+    private long misses;
+
+    // Inner classes
+
+    private static class Key
+    {
+        @Override
+        public int hashCode()
+        {
+            return spatialObject.hashCode() * 31 + maxZ;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            boolean eq = false;
+            if (obj instanceof Key) {
+                Key that = (Key) obj;
+                eq =
+                    this.maxZ == that.maxZ &&
+                    this.space.equals(that.space) &&
+                    this.spatialObject.equals(that.spatialObject);
+            }
+            return eq;
+        }
+
+        Key(Space space, SpatialObject spatialObject, int maxZ)
+        {
+            this.space = space;
+            this.spatialObject = spatialObject;
+            this.maxZ = maxZ;
+        }
+
+        private final Space space;
+        private final SpatialObject spatialObject;
+        private final int maxZ;
+    }
+}
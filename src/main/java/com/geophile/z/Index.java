@@ -6,6 +6,8 @@
 
 package com.geophile.z;
 
+import com.geophile.z.space.ZLengths;
+
 import java.io.IOException;
 
 /**
@@ -81,4 +83,16 @@ public abstract class Index<RECORD extends Record>
      * @return true iff records retrieved from this index are stable.
      */
     public abstract boolean stableRecords();
+
+    /**
+     * Returns the lengths of the z-values of this Index's records, which are maintained by the
+     * {@link com.geophile.z.SpatialIndex}es containing this Index, and used to speed up spatial joins.
+     * @return The lengths of the z-values of this Index's records.
+     */
+    public final ZLengths zLengths()
+    {
+        return zLengths;
+    }
+
+    private final ZLengths zLengths = new ZLengths(this);
 }
@@ -7,7 +7,12 @@
 package com.geophile.z;
 
 import com.geophile.z.space.ApplicationSpace;
+import com.geophile.z.space.HilbertSpace;
 import com.geophile.z.space.SpaceImpl;
+import com.geophile.z.space.SpaceImpl2D;
+import com.geophile.z.space.SpaceImpl3D;
+
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * A Space represents the space in which {@link com.geophile.z.SpatialObject}s reside. The space can be
@@ -57,6 +62,33 @@ public abstract class Space
      */
     public abstract void decompose(SpatialObject spatialObject, long[] zs);
 
+    /**
+     * Decompose a batch of spatial objects into a single array of z-values. The z-values of spatialObjects[i]
+     * are stored in zs[offsets[i]:offsets[i + 1]], with no Z_NULL values between or after them.
+     * Decomposition state is reused throughout the batch.
+     * @param spatialObjects The SpatialObjects to be decomposed.
+     * @param zs The array containing the z-values resulting from the decomposition. Its length must be at least
+     *           the sum of spatialObjects[i].maxZ().
+     * @param offsets On return, contains the position in zs of each object's z-values. The length of offsets
+     *                must be greater than the length of spatialObjects.
+     * @return The number of z-values stored in zs.
+     */
+    public abstract int decompose(SpatialObject[] spatialObjects, long[] zs, int[] offsets);
+
+    /**
+     * Decompose a batch of spatial objects into a single array of z-values, as
+     * {@link #decompose(SpatialObject[], long[], int[])}. If pool is not null, then the batch is divided
+     * among the pool's threads.
+     * @param spatialObjects The SpatialObjects to be decomposed.
+     * @param zs The array containing the z-values resulting from the decomposition. Its length must be at least
+     *           the sum of spatialObjects[i].maxZ().
+     * @param offsets On return, contains the position in zs of each object's z-values. The length of offsets
+     *                must be greater than the length of spatialObjects.
+     * @param pool Used to decompose the batch in parallel. May be null.
+     * @return The number of z-values stored in zs.
+     */
+    public abstract int decompose(SpatialObject[] spatialObjects, long[] zs, int[] offsets, ForkJoinPool pool);
+
     /**
      * Returns the lower bound of the given z-value;
      * @return The lower bound of the given z-value;
@@ -105,7 +137,28 @@ public abstract class Space
      */
     public static Space newSpace(double[] lo, double[] hi, int[] gridBits, int[] interleave)
     {
-        return new SpaceImpl(lo, hi, gridBits, interleave);
+        // 2 and 3-dimensional spaces with the default interleaving have faster shuffling implementations.
+        boolean specialize = interleave == null && sameBits(gridBits);
+        return
+            specialize && gridBits.length == 2 ? new SpaceImpl2D(lo, hi, gridBits) :
+            specialize && gridBits.length == 3 ? new SpaceImpl3D(lo, hi, gridBits) :
+            new SpaceImpl(lo, hi, gridBits, interleave);
+    }
+
+    /**
+     * Creates a Space whose cells are ordered along a Hilbert curve, instead of by interleaving the bits of
+     * coordinates. Cells that are close in the Space tend to be closer in a Hilbert ordering than in an interleaved
+     * ordering, so spatial objects are covered by fewer runs of z-values, and spatial joins
+     * require fewer random accesses. Each dimension must have the same number of bits of resolution.
+     * The sum of the gridBits must not exceed 57.
+     * @param lo Low coordinates of the space.
+     * @param hi High coordinates of the space.
+     * @param gridBits Specifies the number of bits of resolution along each dimension.
+     * @return A new Space
+     */
+    public static Space newHilbertSpace(double[] lo, double[] hi, int[] gridBits)
+    {
+        return new HilbertSpace(lo, hi, gridBits);
     }
 
     /**
@@ -120,6 +173,17 @@ public abstract class Space
         this.applicationSpace = new ApplicationSpace(lo, hi);
     }
 
+    // For use by this class
+
+    private static boolean sameBits(int[] gridBits)
+    {
+        boolean same = true;
+        for (int d = 1; same && d < gridBits.length; d++) {
+            same = gridBits[d] == gridBits[0];
+        }
+        return same;
+    }
+
     // Class state
 
     public static final long Z_NULL = -1;
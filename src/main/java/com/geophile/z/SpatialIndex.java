@@ -57,6 +57,17 @@ public abstract class SpatialIndex<RECORD extends Record>
     public abstract void add(SpatialObject spatialObject, Record.Factory<RECORD> recordFactory, int maxZ)
         throws IOException, InterruptedException;
 
+    /**
+     * Adds a record for each of the given z-values, which must be the decomposition of a
+     * {@link com.geophile.z.SpatialObject} in this index's space, e.g. as obtained from a
+     * {@link com.geophile.z.DecompositionCache}. This avoids decomposing a spatial object whose decomposition is
+     * already known. After creating each record, Geophile will set the record's z-value by calling Record.z(long).
+     * @param zs The z-values of the decomposition. A Z_NULL ends the z-values.
+     * @param recordFactory Creates the records to be added.
+     */
+    public abstract void add(long[] zs, Record.Factory<RECORD> recordFactory)
+        throws IOException, InterruptedException;
+
     /**
      * Removes from this index the record associated with the given {@link com.geophile.z.SpatialObject}.
      * A number of records may be located during the removal. The given {@link com.geophile.z.Record.Filter}
@@ -10,6 +10,7 @@ import com.geophile.z.spatialjoin.SpatialJoinImpl;
 
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * <p>Provides the API for specifying a spatial join.
@@ -49,7 +50,29 @@ public abstract class SpatialJoin
                                InputObserver leftObserver,
                                InputObserver rightObserver)
     {
-        return new SpatialJoinImpl(duplicates, filter, leftObserver, rightObserver);
+        return new SpatialJoinImpl(duplicates, filter, leftObserver, rightObserver, null);
+    }
+
+    /**
+     * Creates and configures a new SpatialJoin object, whose spatial object queries,
+     * ({@link #iterator(SpatialObject, SpatialIndex)}), obtain query decompositions from a
+     * {@link com.geophile.z.DecompositionCache}. This avoids decomposing a query object repeatedly,
+     * for applications that issue the same queries often.
+     *
+     * @param duplicates         Indicates whether the spatial join will suppress duplicates.
+     * @param filter             Used to eliminate false positives from the spatial join output.
+     * @param decompositionCache Caches the decompositions of query objects. May be shared by SpatialJoin objects.
+     * @param <LEFT>             Type of object passed to the left filter argument.
+     * @param <RIGHT>            TYpe of object passed to the right filter argument.
+     * @return A configured SpatialJoin object. All spatial joins computed using it will use the configuration
+     * specified by the above arguments.
+     */
+    public static <LEFT, RIGHT>
+    SpatialJoin newSpatialJoin(Duplicates duplicates,
+                               Filter<LEFT, RIGHT> filter,
+                               DecompositionCache decompositionCache)
+    {
+        return new SpatialJoinImpl(duplicates, filter, null, null, decompositionCache);
     }
 
     /**
@@ -66,7 +89,7 @@ public abstract class SpatialJoin
     SpatialJoin newSpatialJoin(Duplicates duplicates,
                                Filter<LEFT, RIGHT> filter)
     {
-        return new SpatialJoinImpl(duplicates, filter, null, null);
+        return new SpatialJoinImpl(duplicates, filter, null, null, null);
     }
 
     /**
@@ -78,7 +101,7 @@ public abstract class SpatialJoin
      */
     public static SpatialJoin newSpatialJoin(Duplicates duplicates)
     {
-        return new SpatialJoinImpl(duplicates, null, null, null);
+        return new SpatialJoinImpl(duplicates, null, null, null, null);
     }
 
     /**
@@ -98,6 +121,48 @@ public abstract class SpatialJoin
                                                        SpatialIndex<RIGHT_RECORD> rightSpatialIndex)
         throws IOException, InterruptedException;
 
+    /**
+     * Computes a spatial join, passing each pair of records, (the pairs that
+     * {@link #iterator(SpatialIndex, SpatialIndex)} would return), to the consumer as soon as it is found.
+     * No {@link com.geophile.z.Pair}s are created, and no output is buffered, unless duplicates are excluded,
+     * which requires a record of the pairs already returned.
+     *
+     * @param <LEFT_RECORD>     Type of {@link com.geophile.z.Record} in leftSpatialIndex.
+     * @param <RIGHT_RECORD>    Type of {@link com.geophile.z.Record} in rightSpatialIndex.
+     * @param leftSpatialIndex  One spatial join input.
+     * @param rightSpatialIndex The other spatial join input.
+     * @param consumer          Receives the spatial join output.
+     */
+    public abstract <LEFT_RECORD extends Record, RIGHT_RECORD extends Record>
+    void forEach(SpatialIndex<LEFT_RECORD> leftSpatialIndex,
+                 SpatialIndex<RIGHT_RECORD> rightSpatialIndex,
+                 PairConsumer<? super LEFT_RECORD, ? super RIGHT_RECORD> consumer)
+        throws IOException, InterruptedException;
+
+    /**
+     * Returns an {@link java.util.Iterator} that will provide access to spatial join results, as
+     * {@link #iterator(SpatialIndex, SpatialIndex)}, computing the spatial join in parallel.
+     * The z-space is divided into ranges with similar numbers of records, (estimated by probing both inputs), and
+     * the spatial join of each range is computed by one of the pool's threads. The results are returned in range
+     * order while later ranges are still being joined. Each range buffers a bounded number of results, and a thread
+     * whose buffer is full waits for the {@link java.util.Iterator} to catch up. An {@link java.util.Iterator}
+     * abandoned before it is exhausted must be closed, to stop the threads.
+     * The indexes must not be modified during the spatial join, must support concurrent cursors,
+     * and InputObservers, if any, must be thread-safe.
+     *
+     * @param <LEFT_RECORD>     Type of {@link com.geophile.z.Record} in leftSpatialIndex.
+     * @param <RIGHT_RECORD>    Type of {@link com.geophile.z.Record} in rightSpatialIndex.
+     * @param leftSpatialIndex  One spatial join input.
+     * @param rightSpatialIndex The other spatial join input.
+     * @param pool              Provides the threads computing the spatial join.
+     * @return A {@link SpatialJoin.CloseableIterator} providing access to spatial join results.
+     */
+    public abstract <LEFT_RECORD extends Record, RIGHT_RECORD extends Record>
+    CloseableIterator<Pair<LEFT_RECORD, RIGHT_RECORD>> iterator(SpatialIndex<LEFT_RECORD> leftSpatialIndex,
+                                                                SpatialIndex<RIGHT_RECORD> rightSpatialIndex,
+                                                                ForkJoinPool pool)
+        throws IOException, InterruptedException;
+
     /**
      * Returns an {@link java.util.Iterator} that will provide access to spatial join results.
      * The objects accessed through the {@link java.util.Iterator} are {@link com.geophile.z.SpatialObject}s
@@ -199,4 +264,36 @@ public abstract class SpatialJoin
          */
         boolean overlap(LEFT left, RIGHT right);
     }
+
+    /**
+     * Receives spatial join output from {@link #forEach(SpatialIndex, SpatialIndex, SpatialJoin.PairConsumer)}.
+     *
+     * @param <LEFT>  Type of {@link com.geophile.z.Record} from the left spatial join input.
+     * @param <RIGHT> Type of {@link com.geophile.z.Record} from the right spatial join input.
+     */
+    public interface PairConsumer<LEFT, RIGHT>
+    {
+        /**
+         * Called for each pair of records returned by the spatial join.
+         *
+         * @param left  Record from the left side of the spatial join.
+         * @param right Record from the right side of the spatial join.
+         */
+        void accept(LEFT left, RIGHT right);
+    }
+
+    /**
+     * An {@link java.util.Iterator} providing access to the results of a spatial join computed in parallel, (see
+     * {@link #iterator(SpatialIndex, SpatialIndex, java.util.concurrent.ForkJoinPool)}).
+     *
+     * @param <T> Type of the spatial join results.
+     */
+    public interface CloseableIterator<T> extends Iterator<T>, AutoCloseable
+    {
+        /**
+         * Stops the computation of the spatial join. After this call, hasNext returns false.
+         */
+        @Override
+        void close();
+    }
 }
@@ -0,0 +1,416 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.index.btree;
+
+import com.geophile.z.Cursor;
+import com.geophile.z.DuplicateRecordException;
+import com.geophile.z.Index;
+import com.geophile.z.Record;
+import com.geophile.z.index.RecordWithSpatialObject;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BTree implements the {@link com.geophile.z.Index} interface as an in-memory B+tree. A leaf stores the
+ * z-values of its records in a long[], alongside an array of the records themselves, so that searching a leaf
+ * doesn't touch the records. Leaves are linked, so that a cursor moves from one leaf to the next without
+ * going back to the root. Adding and removing a record takes O(log n) time.
+ *
+ * Leaves that become empty are removed from the tree, but underfull nodes are not merged with their siblings.
+ *
+ * A BTree is not safe for simultaneous use by multiple threads. A cursor's behavior is undefined if the BTree
+ * is modified, other than by that cursor's {@link com.geophile.z.Cursor#deleteCurrent()}, while the cursor is
+ * in use.
+ */
+
+public abstract class BTree<RECORD extends Record> extends Index<RECORD>
+{
+    // Object interface
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+
+    // Index interface
+
+    @Override
+    public void add(RECORD record)
+    {
+        RECORD copy = newRecord();
+        record.copyTo(copy);
+        long z = copy.z();
+        // Records with the same z-value are kept in the order in which they were added, so descend to the
+        // rightmost leaf that z could go into, and add the record after any others with the same z-value.
+        Node node = root;
+        while (node instanceof Interior) {
+            Interior interior = (Interior) node;
+            node = interior.children[interior.childAfter(z)];
+        }
+        Leaf leaf = (Leaf) node;
+        int position = leaf.positionAfter(z);
+        checkForDuplicate(leaf, position, copy);
+        leaf.insert(position, z, copy);
+        if (leaf.n == leafCapacity) {
+            split(leaf);
+        }
+    }
+
+    @Override
+    public boolean remove(long z, Record.Filter<RECORD> filter)
+    {
+        Leaf leaf = leaf(z);
+        int position = leaf.positionOf(z);
+        while (leaf != null) {
+            if (position == leaf.n) {
+                leaf = leaf.next;
+                position = 0;
+            } else if (leaf.zs[position] != z) {
+                leaf = null;
+            } else if (filter.select((RECORD) leaf.records[position])) {
+                delete(leaf, position);
+                return true;
+            } else {
+                position++;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Cursor<RECORD> cursor()
+    {
+        return new BTreeCursor<>(this);
+    }
+
+    @Override
+    public abstract RECORD newRecord();
+
+    @Override
+    public boolean blindUpdates()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean stableRecords()
+    {
+        return true;
+    }
+
+    // BTree interface
+
+    public BTree()
+    {
+        this(DEFAULT_LEAF_CAPACITY, DEFAULT_INTERIOR_CAPACITY);
+    }
+
+    // For use by this package
+
+    BTree(int leafCapacity, int interiorCapacity)
+    {
+        assert leafCapacity >= 2 : leafCapacity;
+        assert interiorCapacity >= 3 : interiorCapacity;
+        this.leafCapacity = leafCapacity;
+        this.interiorCapacity = interiorCapacity;
+        this.root = new Leaf(leafCapacity);
+    }
+
+    // Returns the leaf that contains the first record whose z-value is >= z, or the leaf preceding that record.
+    Leaf leaf(long z)
+    {
+        Node node = root;
+        while (node instanceof Interior) {
+            Interior interior = (Interior) node;
+            node = interior.children[interior.childAt(z)];
+        }
+        return (Leaf) node;
+    }
+
+    void delete(Leaf leaf, int position)
+    {
+        leaf.delete(position);
+        if (leaf.n == 0 && leaf != root) {
+            unlink(leaf);
+        }
+    }
+
+    // For use by this class
+
+    // Records with the same z-value as record precede the given position, possibly in preceding leaves.
+    private void checkForDuplicate(Leaf leaf, int position, RECORD record)
+    {
+        long z = record.z();
+        while (leaf != null) {
+            if (position == 0) {
+                leaf = leaf.previous;
+                position = leaf == null ? 0 : leaf.n;
+            } else if (leaf.zs[--position] != z) {
+                leaf = null;
+            } else if (leaf.records[position].equals(record)) {
+                throw new DuplicateRecordException(record);
+            }
+        }
+    }
+
+    private void split(Leaf leaf)
+    {
+        Leaf right = new Leaf(leafCapacity);
+        int keep = leaf.n / 2;
+        int move = leaf.n - keep;
+        System.arraycopy(leaf.zs, keep, right.zs, 0, move);
+        System.arraycopy(leaf.records, keep, right.records, 0, move);
+        for (int i = keep; i < leaf.n; i++) {
+            leaf.records[i] = null;
+        }
+        leaf.n = keep;
+        right.n = move;
+        right.next = leaf.next;
+        if (right.next != null) {
+            right.next.previous = right;
+        }
+        right.previous = leaf;
+        leaf.next = right;
+        addToParent(leaf, right.zs[0], right);
+    }
+
+    private void split(Interior interior)
+    {
+        Interior right = new Interior(interiorCapacity);
+        int keep = interior.n / 2;
+        int move = interior.n - keep;
+        // The separator between the children that stay and the children that move goes up to the parent.
+        long separator = interior.separators[keep - 1];
+        System.arraycopy(interior.children, keep, right.children, 0, move);
+        System.arraycopy(interior.separators, keep, right.separators, 0, move - 1);
+        for (int i = keep; i < interior.n; i++) {
+            interior.children[i] = null;
+        }
+        interior.n = keep;
+        right.n = move;
+        for (int i = 0; i < move; i++) {
+            right.children[i].parent = right;
+        }
+        addToParent(interior, separator, right);
+    }
+
+    private void addToParent(Node left, long separator, Node right)
+    {
+        Interior parent = left.parent;
+        if (parent == null) {
+            parent = new Interior(interiorCapacity);
+            parent.children[0] = left;
+            parent.n = 1;
+            left.parent = parent;
+            root = parent;
+        }
+        parent.insertAfter(left, separator, right);
+        right.parent = parent;
+        if (parent.n == interiorCapacity) {
+            split(parent);
+        }
+    }
+
+    private void unlink(Leaf leaf)
+    {
+        // leaf.next is left alone, so that a cursor positioned in the leaf can still move forward.
+        if (leaf.previous != null) {
+            leaf.previous.next = leaf.next;
+        }
+        if (leaf.next != null) {
+            leaf.next.previous = leaf.previous;
+        }
+        Node node = leaf;
+        Interior parent = node.parent;
+        parent.remove(node);
+        while (parent.n == 0 && parent != root) {
+            node = parent;
+            parent = node.parent;
+            parent.remove(node);
+        }
+        if (parent == root) {
+            if (parent.n == 0) {
+                root = new Leaf(leafCapacity);
+            } else if (parent.n == 1) {
+                root = parent.children[0];
+                root.parent = null;
+            }
+        }
+    }
+
+    // Class state
+
+    private static final AtomicInteger idGenerator = new AtomicInteger(0);
+    // A leaf's z-values occupy 4 cache lines, assuming 64-byte lines.
+    private static final int DEFAULT_LEAF_CAPACITY = 32;
+    private static final int DEFAULT_INTERIOR_CAPACITY = 64;
+
+    // Object state
+
+    private final String name = String.format("BTree(%s)", idGenerator.getAndIncrement());
+    private final int leafCapacity;
+    private final int interiorCapacity;
+    private Node root;
+
+    // Inner classes
+
+    static abstract class Node
+    {
+        Interior parent;
+        int n;
+    }
+
+    static final class Leaf extends Node
+    {
+        // Position of the first z-value >= z, or n if there is none.
+        int positionOf(long z)
+        {
+            int lo = 0;
+            int hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (zs[mid] < z) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        // Position of the first z-value > z, or n if there is none.
+        int positionAfter(long z)
+        {
+            int lo = 0;
+            int hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (zs[mid] <= z) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        void insert(int position, long z, Record record)
+        {
+            System.arraycopy(zs, position, zs, position + 1, n - position);
+            System.arraycopy(records, position, records, position + 1, n - position);
+            zs[position] = z;
+            records[position] = record;
+            n++;
+        }
+
+        void delete(int position)
+        {
+            System.arraycopy(zs, position + 1, zs, position, n - position - 1);
+            System.arraycopy(records, position + 1, records, position, n - position - 1);
+            records[--n] = null;
+        }
+
+        Leaf(int capacity)
+        {
+            zs = new long[capacity];
+            records = new Object[capacity];
+        }
+
+        final long[] zs;
+        final Object[] records;
+        Leaf previous;
+        Leaf next;
+    }
+
+    static final class Interior extends Node
+    {
+        // Child containing the first z-value >= z. All z-values in children[i] are >= separators[i - 1]
+        // and <= separators[i]. Because z-values can be duplicated, a z-value equal to a separator may be
+        // on either side of it.
+        int childAt(long z)
+        {
+            int lo = 0;
+            int hi = n - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (separators[mid] < z) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        // Last child that z could be added to.
+        int childAfter(long z)
+        {
+            int lo = 0;
+            int hi = n - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (separators[mid] <= z) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        void insertAfter(Node left, long separator, Node right)
+        {
+            int position = indexOf(left) + 1;
+            System.arraycopy(children, position, children, position + 1, n - position);
+            System.arraycopy(separators, position - 1, separators, position, n - position);
+            children[position] = right;
+            separators[position - 1] = separator;
+            n++;
+        }
+
+        void remove(Node child)
+        {
+            int position = indexOf(child);
+            System.arraycopy(children, position + 1, children, position, n - position - 1);
+            children[n - 1] = null;
+            // Remove the separator to the left of the child, or to the right if the child was first.
+            if (n > 1) {
+                int separator = position == 0 ? 0 : position - 1;
+                System.arraycopy(separators, separator + 1, separators, separator, n - separator - 2);
+            }
+            n--;
+        }
+
+        Interior(int capacity)
+        {
+            children = new Node[capacity];
+            separators = new long[capacity - 1];
+        }
+
+        private int indexOf(Node child)
+        {
+            int i = 0;
+            while (children[i] != child) {
+                i++;
+            }
+            return i;
+        }
+
+        final Node[] children;
+        final long[] separators;
+    }
+
+    public static class OfBaseRecord extends BTree<RecordWithSpatialObject>
+    {
+        @Override
+        public RecordWithSpatialObject newRecord()
+        {
+            return new RecordWithSpatialObject();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.index.btree;
+
+import com.geophile.z.Cursor;
+import com.geophile.z.Record;
+
+import java.io.IOException;
+
+public class BTreeCursor<RECORD extends Record> extends Cursor<RECORD>
+{
+    // Cursor interface
+
+    @Override
+    public RECORD next() throws IOException, InterruptedException
+    {
+        return neighbor();
+    }
+
+    @Override
+    public void goTo(RECORD key)
+    {
+        this.startAt = key.z();
+        this.resume = false;
+        state(State.NEVER_USED);
+    }
+
+    @Override
+    public void goToForward(RECORD key)
+    {
+        long z = key.z();
+        if (state() == State.IN_USE &&
+            position < leaf.n &&
+            z <= leaf.zs[leaf.n - 1] &&
+            (position == 0 || leaf.zs[position - 1] < z)) {
+            // The key is in the remainder of the current leaf, so there is no need to descend the tree.
+            int lo = position;
+            int hi = leaf.n - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (leaf.zs[mid] < z) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            position = lo;
+            startAt = z;
+            resume = true;
+            state(State.NEVER_USED);
+        } else {
+            goTo(key);
+        }
+    }
+
+    @Override
+    public boolean deleteCurrent() throws IOException, InterruptedException
+    {
+        boolean deleted = false;
+        if (state() == State.IN_USE) {
+            // The cursor doesn't leave a leaf until next() is called, so the last record returned is in leaf.
+            assert position > 0 : position;
+            position--;
+            tree.delete(leaf, position);
+            deleted = true;
+        }
+        return deleted;
+    }
+
+    // BTreeCursor interface
+
+    public BTreeCursor(BTree<RECORD> tree)
+    {
+        super(tree);
+        this.tree = tree;
+    }
+
+    // For use by this class
+
+    private RECORD neighbor() throws IOException, InterruptedException
+    {
+        switch (state()) {
+            case NEVER_USED:
+                startIteration();
+                break;
+            case IN_USE:
+                break;
+            case DONE:
+                assert current() == null;
+                return null;
+        }
+        // A leaf removed from the tree (because it became empty) still points to its successor.
+        while (leaf != null && position == leaf.n) {
+            leaf = leaf.next;
+            position = 0;
+        }
+        if (leaf != null) {
+            current((RECORD) leaf.records[position++]);
+            state(State.IN_USE);
+        } else {
+            close();
+        }
+        return current();
+    }
+
+    private void startIteration()
+    {
+        if (!resume) {
+            leaf = tree.leaf(startAt);
+            position = leaf.positionOf(startAt);
+        }
+        resume = false;
+    }
+
+    // Object state
+
+    private final BTree<RECORD> tree;
+    private long startAt;
+    private BTree.Leaf leaf;
+    // Position in leaf of the next record to be returned, or leaf.n if the leaf has been exhausted.
+    private int position;
+    // True if goToForward has already positioned the cursor, so that startIteration doesn't need to.
+    private boolean resume;
+}
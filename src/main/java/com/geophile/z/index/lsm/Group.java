@@ -0,0 +1,146 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.index.lsm;
+
+import com.geophile.z.Record;
+
+import java.util.Arrays;
+import java.util.List;
+
+// The entries of all levels of an LSMIndex having the same z-value, in sequence order. A tombstone deletes
+// the equal records that precede it, so the records that survive are those not followed by an equal tombstone.
+
+class Group<RECORD extends Record>
+{
+    // Collects the entries with the smallest z-value among the scans, advancing the scans past them.
+    // Returns false if the scans are exhausted.
+    public boolean collect(List<Scan<RECORD>> scans)
+    {
+        n = 0;
+        boolean found = false;
+        for (Scan<RECORD> scan : scans) {
+            if (scan.hasEntry() && (!found || scan.z() < z)) {
+                z = scan.z();
+                found = true;
+            }
+        }
+        if (found) {
+            Scan<RECORD> next;
+            while ((next = next(scans)) != null) {
+                ensureSpace();
+                sequences[n] = next.sequence();
+                tombstones[n] = next.tombstone();
+                records[n] = next.record(flyweight(n));
+                n++;
+                next.advance();
+            }
+            resolve();
+        }
+        return found;
+    }
+
+    public long z()
+    {
+        return z;
+    }
+
+    public int size()
+    {
+        return n;
+    }
+
+    public boolean live(int i)
+    {
+        return live[i];
+    }
+
+    public boolean tombstone(int i)
+    {
+        return tombstones[i];
+    }
+
+    public long sequence(int i)
+    {
+        return sequences[i];
+    }
+
+    public RECORD record(int i)
+    {
+        return (RECORD) records[i];
+    }
+
+    public Group(LSMIndex<RECORD> index)
+    {
+        this.index = index;
+    }
+
+    // For use by this class
+
+    // Returns the scan whose next entry has the group's z-value and the smallest sequence number, or null
+    // if there is none.
+    private Scan<RECORD> next(List<Scan<RECORD>> scans)
+    {
+        Scan<RECORD> next = null;
+        for (Scan<RECORD> scan : scans) {
+            if (scan.hasEntry() && scan.z() == z && (next == null || scan.sequence() < next.sequence())) {
+                next = scan;
+            }
+        }
+        return next;
+    }
+
+    // Tombstones are rare, so the quadratic search for the records they delete is acceptable.
+    private void resolve()
+    {
+        for (int i = 0; i < n; i++) {
+            live[i] = !tombstones[i];
+            if (tombstones[i]) {
+                for (int j = 0; j < i; j++) {
+                    if (live[j] && records[j].equals(records[i])) {
+                        live[j] = false;
+                    }
+                }
+            }
+        }
+    }
+
+    private RECORD flyweight(int i)
+    {
+        if (flyweights[i] == null) {
+            flyweights[i] = index.newRecord();
+        }
+        return (RECORD) flyweights[i];
+    }
+
+    private void ensureSpace()
+    {
+        if (n == sequences.length) {
+            int capacity = 2 * n;
+            sequences = Arrays.copyOf(sequences, capacity);
+            tombstones = Arrays.copyOf(tombstones, capacity);
+            live = Arrays.copyOf(live, capacity);
+            records = Arrays.copyOf(records, capacity);
+            flyweights = Arrays.copyOf(flyweights, capacity);
+        }
+    }
+
+    // Class state
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Object state
+
+    private final LSMIndex<RECORD> index;
+    private long z;
+    private int n;
+    private long[] sequences = new long[INITIAL_CAPACITY];
+    private boolean[] tombstones = new boolean[INITIAL_CAPACITY];
+    private boolean[] live = new boolean[INITIAL_CAPACITY];
+    private Object[] records = new Object[INITIAL_CAPACITY];
+    // Records deserialized from runs. These are reused from one group to the next.
+    private Object[] flyweights = new Object[INITIAL_CAPACITY];
+}
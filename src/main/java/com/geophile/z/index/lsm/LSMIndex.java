@@ -0,0 +1,498 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.index.lsm;
+
+import com.geophile.z.Cursor;
+import com.geophile.z.Index;
+import com.geophile.z.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * LSMIndex implements the {@link com.geophile.z.Index} interface as a log-structured merge tree, for workloads
+ * dominated by additions and removals. Records are added to an in-memory memtable. When the memtable reaches
+ * a given size, it is frozen and a background thread writes it to disk as a run: an immutable file of records
+ * sorted by z-value. Runs are grouped into size classes, and when a size class has too many runs, the background
+ * thread merges its oldest runs into one, of the next size class. So each record is rewritten a number of times
+ * that is logarithmic in the size of the index. If the background thread falls behind, so that too many frozen
+ * memtables are waiting to be written, additions and removals wait for it.
+ *
+ * Updates are blind: {@link #add(com.geophile.z.Record)} does not check for duplicates, and removing a record
+ * adds a tombstone, which hides the record from cursors. Compaction discards a deleted record once it is merged
+ * with the tombstone, and discards the tombstone once it is merged with the oldest run.
+ * {@link #remove(long, com.geophile.z.Record.Filter)} always returns false, as required of an index that does blind
+ * updates. A cursor merges the memtables and runs, and visits records with the same z-value in the order in which
+ * they were added.
+ *
+ * Runs are written using {@link #writeRecord(com.geophile.z.Record, java.nio.ByteBuffer)} and read using
+ * {@link #readRecord(java.nio.ByteBuffer, com.geophile.z.Record)}, which a subclass implements, typically using
+ * {@link com.geophile.z.SpatialObject#writeTo(java.nio.ByteBuffer)} and
+ * {@link com.geophile.z.SpatialObject#readFrom(java.nio.ByteBuffer)}. Records read from runs are not stable.
+ *
+ * An LSMIndex is safe for use by multiple threads. A cursor sees the records present when it was positioned by
+ * {@link com.geophile.z.Cursor#goTo(com.geophile.z.Record)}, and records added to the memtable afterward may or
+ * may not be visible to it. Run files are working storage, not a durable copy of the index: an LSMIndex cannot be
+ * reopened, and its files are deleted by {@link #close()}.
+ */
+
+public abstract class LSMIndex<RECORD extends Record> extends Index<RECORD>
+{
+    // Object interface
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+
+    // Index interface
+
+    @Override
+    public void add(RECORD record) throws IOException, InterruptedException
+    {
+        RECORD copy = newRecord();
+        record.copyTo(copy);
+        write(copy, false);
+    }
+
+    @Override
+    public boolean remove(long z, Record.Filter<RECORD> filter) throws IOException, InterruptedException
+    {
+        LSMIndexCursor<RECORD> cursor = new LSMIndexCursor<>(this);
+        RECORD key = newKeyRecord();
+        key.z(z);
+        cursor.goTo(key);
+        RECORD record;
+        while ((record = cursor.next()) != null && record.z() == z) {
+            if (filter.select(record)) {
+                cursor.deleteCurrent();
+                break;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Cursor<RECORD> cursor()
+    {
+        return new LSMIndexCursor<>(this);
+    }
+
+    @Override
+    public abstract RECORD newRecord();
+
+    @Override
+    public boolean blindUpdates()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean stableRecords()
+    {
+        return false;
+    }
+
+    // LSMIndex interface
+
+    /**
+     * Serializes the given record, not including its z-value, into the given buffer. The buffer's remaining
+     * space is the record size given when this LSMIndex was created.
+     * @param record The record to be serialized.
+     * @param buffer The buffer to contain the serialized record.
+     * @throws BufferOverflowException if the serialized record is larger than the record size.
+     */
+    protected abstract void writeRecord(RECORD record, ByteBuffer buffer) throws BufferOverflowException;
+
+    /**
+     * Deserializes a record, not including its z-value, from the given buffer, which was written by
+     * {@link #writeRecord(com.geophile.z.Record, java.nio.ByteBuffer)}.
+     * @param buffer The buffer containing the serialized record.
+     * @param record The record to be modified.
+     */
+    protected abstract void readRecord(ByteBuffer buffer, RECORD record);
+
+    /**
+     * Writes the memtable to a run, and waits for the background thread to finish all pending work.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void flush() throws IOException, InterruptedException
+    {
+        checkBackgroundFailure();
+        freeze(0);
+        try {
+            background.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        checkBackgroundFailure();
+    }
+
+    /**
+     * Stops the background thread, and deletes this LSMIndex's runs. The LSMIndex must not be used afterward.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void close() throws IOException, InterruptedException
+    {
+        background.shutdown();
+        background.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        for (Run<RECORD> run : levels.runs) {
+            run.discard();
+        }
+    }
+
+    /**
+     * Creates an LSMIndex whose runs are stored in the given directory, using a default memtable size and
+     * number of runs.
+     * @param directory Directory to contain the runs.
+     * @param recordSize The maximum size of a serialized record, in bytes.
+     */
+    public LSMIndex(File directory, int recordSize)
+    {
+        this(directory, recordSize, DEFAULT_MEMTABLE_SIZE, DEFAULT_MAX_RUNS);
+    }
+
+    /**
+     * Creates an LSMIndex whose runs are stored in the given directory.
+     * @param directory Directory to contain the runs.
+     * @param recordSize The maximum size of a serialized record, in bytes.
+     * @param memtableSize The number of records and tombstones in the memtable that cause it to be written to a run.
+     * @param maxRuns The number of runs of a size class that causes them to be merged.
+     */
+    public LSMIndex(File directory, int recordSize, int memtableSize, int maxRuns)
+    {
+        if (!directory.isDirectory()) {
+            throw new IllegalArgumentException(String.format("Not a directory: %s", directory));
+        }
+        if (recordSize <= 0) {
+            throw new IllegalArgumentException(String.format("recordSize: %s", recordSize));
+        }
+        if (memtableSize <= 0) {
+            throw new IllegalArgumentException(String.format("memtableSize: %s", memtableSize));
+        }
+        if (maxRuns <= 1) {
+            throw new IllegalArgumentException(String.format("maxRuns: %s", maxRuns));
+        }
+        this.directory = directory;
+        this.recordSize = recordSize;
+        this.memtableSize = memtableSize;
+        this.maxRuns = maxRuns;
+        this.serialized = ByteBuffer.allocate(recordSize);
+        this.levels = new Levels<>(new Memtable<RECORD>(),
+                                   Collections.<Memtable<RECORD>>emptyList(),
+                                   Collections.<Run<RECORD>>emptyList());
+    }
+
+    // For use by this package
+
+    int recordSize()
+    {
+        return recordSize;
+    }
+
+    // Returns scans of all levels, starting at the given z-value
+    List<Scan<RECORD>> scans(long z)
+    {
+        Levels<RECORD> levels = this.levels;
+        List<Scan<RECORD>> scans = new ArrayList<>();
+        scans.add(levels.memtable.scan(z));
+        for (Memtable<RECORD> memtable : levels.frozen) {
+            scans.add(memtable.scan(z));
+        }
+        for (Run<RECORD> run : levels.runs) {
+            scans.add(run.scan(z));
+        }
+        return scans;
+    }
+
+    // Returns the runs, newest first
+    List<Run<RECORD>> runs()
+    {
+        levelsLock.readLock().lock();
+        try {
+            return levels.runs;
+        } finally {
+            levelsLock.readLock().unlock();
+        }
+    }
+
+    // Deletes a record, identified by equality, previously added to this index.
+    void delete(RECORD record) throws IOException, InterruptedException
+    {
+        RECORD copy = newRecord();
+        record.copyTo(copy);
+        write(copy, true);
+    }
+
+    // For use by this class
+
+    private void write(RECORD record, boolean tombstone) throws IOException, InterruptedException
+    {
+        checkBackgroundFailure();
+        Memtable<RECORD> memtable;
+        levelsLock.readLock().lock();
+        try {
+            memtable = levels.memtable;
+            memtable.add(record.z(), sequence.getAndIncrement(), tombstone, record);
+        } finally {
+            levelsLock.readLock().unlock();
+        }
+        if (memtable.size() >= memtableSize) {
+            freeze(memtableSize);
+        }
+    }
+
+    // Replaces the memtable, if it has reached the given size, and schedules the writing of the frozen
+    // memtable to a run. Waits while MAX_FROZEN_MEMTABLES frozen memtables are waiting to be written.
+    private void freeze(int minSize) throws InterruptedException
+    {
+        // Acquired before levelsLock, which the background thread needs to finish writing a memtable.
+        frozenPermits.acquire();
+        boolean scheduled = false;
+        levelsLock.writeLock().lock();
+        try {
+            final Memtable<RECORD> memtable = levels.memtable;
+            if (memtable.size() > 0 && memtable.size() >= minSize) {
+                List<Memtable<RECORD>> frozen = new ArrayList<>();
+                frozen.add(memtable);
+                frozen.addAll(levels.frozen);
+                background.submit(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try {
+                            try {
+                                writeRun(memtable);
+                            } finally {
+                                frozenPermits.release();
+                            }
+                            compact();
+                        } catch (IOException | RuntimeException e) {
+                            backgroundFailure = e;
+                        }
+                    }
+                });
+                scheduled = true;
+                levels = new Levels<>(new Memtable<RECORD>(), frozen, levels.runs);
+            }
+        } finally {
+            levelsLock.writeLock().unlock();
+            if (!scheduled) {
+                frozenPermits.release();
+            }
+        }
+    }
+
+    // Runs in the background thread
+    private void writeRun(Memtable<RECORD> memtable) throws IOException
+    {
+        Run.Writer<RECORD> writer = Run.writer(this, newRunFile());
+        Iterator<Memtable.Entry<RECORD>> entries = memtable.iterator();
+        while (entries.hasNext()) {
+            Memtable.Entry<RECORD> entry = entries.next();
+            writer.append(entry.z, entry.sequence, entry.tombstone, serialize(entry.record));
+        }
+        Run<RECORD> run = writer.finish();
+        levelsLock.writeLock().lock();
+        try {
+            List<Memtable<RECORD>> frozen = new ArrayList<>(levels.frozen);
+            frozen.remove(memtable);
+            List<Run<RECORD>> runs = new ArrayList<>();
+            runs.add(run);
+            runs.addAll(levels.runs);
+            levels = new Levels<>(levels.memtable, frozen, runs);
+        } finally {
+            levelsLock.writeLock().unlock();
+        }
+    }
+
+    // Runs in the background thread. Merges the oldest maxRuns runs of the smallest size class having that many,
+    // until there is none.
+    private void compact() throws IOException
+    {
+        List<Run<RECORD>> runs = runs();
+        // The size classes of runs don't decrease with age, (a run smaller than a newer one is put in the newer
+        // one's class), so the runs of a size class are adjacent.
+        int[] sizeClasses = new int[runs.size()];
+        int sizeClass = 0;
+        for (int r = 0; r < runs.size(); r++) {
+            sizeClass = Math.max(sizeClass, sizeClass(runs.get(r)));
+            sizeClasses[r] = sizeClass;
+        }
+        int end = -1;
+        for (int r = maxRuns - 1; r < runs.size() && end == -1; r++) {
+            if (sizeClasses[r - maxRuns + 1] == sizeClasses[r] &&
+                (r + 1 == runs.size() || sizeClasses[r + 1] != sizeClasses[r])) {
+                end = r + 1;
+            }
+        }
+        if (end != -1) {
+            merge(runs, end - maxRuns, end);
+            compact();
+        }
+    }
+
+    // Runs in the background thread. Merges runs start through end - 1, which are adjacent, into one run. Only the
+    // background thread changes the runs, so the given runs are still the current ones when the merged run replaces
+    // the runs merged. Tombstones delete the records of older runs, so a tombstone is kept unless the runs merged
+    // include the oldest one. The records deleted by a tombstone among the runs merged are discarded either way.
+    private void merge(List<Run<RECORD>> runs, int start, int end) throws IOException
+    {
+        List<Run<RECORD>> merging = runs.subList(start, end);
+        boolean keepTombstones = end < runs.size();
+        List<Scan<RECORD>> scans = new ArrayList<>();
+        for (Run<RECORD> run : merging) {
+            scans.add(run.scan(Long.MIN_VALUE));
+        }
+        Run.Writer<RECORD> writer = Run.writer(this, newRunFile());
+        Group<RECORD> group = new Group<>(this);
+        while (group.collect(scans)) {
+            for (int i = 0; i < group.size(); i++) {
+                if (group.live(i) || (keepTombstones && group.tombstone(i))) {
+                    writer.append(group.z(), group.sequence(i), group.tombstone(i), serialize(group.record(i)));
+                }
+            }
+        }
+        Run<RECORD> merged = writer.finish();
+        levelsLock.writeLock().lock();
+        try {
+            List<Run<RECORD>> compacted = new ArrayList<>(runs.subList(0, start));
+            if (merged.count() > 0) {
+                compacted.add(merged);
+            }
+            compacted.addAll(runs.subList(end, runs.size()));
+            levels = new Levels<>(levels.memtable, levels.frozen, compacted);
+        } finally {
+            levelsLock.writeLock().unlock();
+        }
+        if (merged.count() == 0) {
+            merged.discard();
+        }
+        for (Run<RECORD> run : merging) {
+            run.discard();
+        }
+    }
+
+    // Size class 0 contains runs of up to memtableSize * maxRuns records, e.g. those written from memtables. Each
+    // successive size class contains runs up to maxRuns times larger.
+    private int sizeClass(Run<RECORD> run)
+    {
+        int sizeClass = 0;
+        long limit = (long) memtableSize * maxRuns;
+        while (run.count() >= limit) {
+            sizeClass++;
+            limit *= maxRuns;
+        }
+        return sizeClass;
+    }
+
+    private ByteBuffer serialize(RECORD record)
+    {
+        serialized.clear();
+        try {
+            writeRecord(record, serialized);
+        } catch (BufferOverflowException e) {
+            throw new IllegalArgumentException(
+                String.format("%s: %s does not fit in %s bytes", this, record, recordSize));
+        }
+        return serialized;
+    }
+
+    private File newRunFile()
+    {
+        return new File(directory, String.format("%s.%s.run", name, runIdGenerator.getAndIncrement()));
+    }
+
+    private void checkBackgroundFailure() throws IOException
+    {
+        Exception failure = backgroundFailure;
+        if (failure != null) {
+            throw new IOException(String.format("%s: background thread failed", this), failure);
+        }
+    }
+
+    // Class state
+
+    private static final AtomicInteger idGenerator = new AtomicInteger(0);
+    private static final int DEFAULT_MEMTABLE_SIZE = 100000;
+    private static final int DEFAULT_MAX_RUNS = 4;
+    private static final int MAX_FROZEN_MEMTABLES = 4;
+
+    // Object state
+
+    private final String name = String.format("LSMIndex(%s)", idGenerator.getAndIncrement());
+    private final File directory;
+    private final int recordSize;
+    private final int memtableSize;
+    private final int maxRuns;
+    private final AtomicLong sequence = new AtomicLong(0);
+    private final AtomicInteger runIdGenerator = new AtomicInteger(0);
+    // Used only by the background thread
+    private final ByteBuffer serialized;
+    // Adding to the memtable requires the read lock. Replacing levels requires the write lock, which
+    // ensures that nothing is added to a memtable after it is frozen.
+    private final ReadWriteLock levelsLock = new ReentrantReadWriteLock();
+    private volatile Levels<RECORD> levels;
+    // A permit is held for each frozen memtable waiting to be written.
+    private final Semaphore frozenPermits = new Semaphore(MAX_FROZEN_MEMTABLES);
+    private volatile Exception backgroundFailure;
+    private final ExecutorService background =
+        Executors.newSingleThreadExecutor(
+            new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, String.format("%s compaction", name));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    // Inner classes
+
+    // The memtable, frozen memtables waiting to be written, and runs, newest first.
+    private static final class Levels<RECORD extends Record>
+    {
+        Levels(Memtable<RECORD> memtable, List<Memtable<RECORD>> frozen, List<Run<RECORD>> runs)
+        {
+            this.memtable = memtable;
+            this.frozen = frozen;
+            this.runs = runs;
+        }
+
+        final Memtable<RECORD> memtable;
+        final List<Memtable<RECORD>> frozen;
+        final List<Run<RECORD>> runs;
+    }
+}
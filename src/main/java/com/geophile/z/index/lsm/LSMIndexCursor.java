@@ -0,0 +1,102 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.index.lsm;
+
+import com.geophile.z.Cursor;
+import com.geophile.z.Record;
+
+import java.io.IOException;
+import java.util.List;
+
+public class LSMIndexCursor<RECORD extends Record> extends Cursor<RECORD>
+{
+    // Cursor interface
+
+    @Override
+    public RECORD next() throws IOException, InterruptedException
+    {
+        return neighbor();
+    }
+
+    @Override
+    public void goTo(RECORD key)
+    {
+        this.startAt = key.z();
+        state(State.NEVER_USED);
+    }
+
+    @Override
+    public boolean deleteCurrent() throws IOException, InterruptedException
+    {
+        boolean deleted = false;
+        if (state() == State.IN_USE) {
+            // A tombstone is added. The group containing the record has already been collected, so the tombstone
+            // doesn't affect the cursor's position.
+            index.delete(group.record(position - 1));
+            deleted = true;
+        }
+        return deleted;
+    }
+
+    // LSMIndexCursor interface
+
+    public LSMIndexCursor(LSMIndex<RECORD> index)
+    {
+        super(index);
+        this.index = index;
+        this.group = new Group<>(index);
+    }
+
+    // For use by this class
+
+    private RECORD neighbor() throws IOException, InterruptedException
+    {
+        switch (state()) {
+            case NEVER_USED:
+                startIteration();
+                break;
+            case IN_USE:
+                break;
+            case DONE:
+                assert current() == null;
+                return null;
+        }
+        boolean more = true;
+        while (more && !(position < group.size() && group.live(position))) {
+            if (position < group.size()) {
+                position++;
+            } else {
+                more = group.collect(scans);
+                position = 0;
+            }
+        }
+        if (more) {
+            current(group.record(position++));
+            state(State.IN_USE);
+        } else {
+            close();
+        }
+        return current();
+    }
+
+    private void startIteration()
+    {
+        scans = index.scans(startAt);
+        group.collect(scans);
+        position = 0;
+    }
+
+    // Object state
+
+    private final LSMIndex<RECORD> index;
+    // Entries with the current z-value, from all levels
+    private final Group<RECORD> group;
+    private long startAt;
+    private List<Scan<RECORD>> scans;
+    // Position in group of the next entry to consider
+    private int position;
+}
@@ -0,0 +1,132 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.index.lsm;
+
+import com.geophile.z.Record;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The in-memory level of an LSMIndex. Records and tombstones are added concurrently. Once frozen, a Memtable
+// is no longer modified, and is written to a Run.
+
+class Memtable<RECORD extends Record>
+{
+    public void add(long z, long sequence, boolean tombstone, RECORD record)
+    {
+        entries.add(new Entry<>(z, sequence, tombstone, record));
+        size.incrementAndGet();
+    }
+
+    public int size()
+    {
+        return size.get();
+    }
+
+    public Iterator<Entry<RECORD>> iterator()
+    {
+        return entries.iterator();
+    }
+
+    public Scan<RECORD> scan(long z)
+    {
+        return new MemtableScan<>(entries.tailSet(Entry.<RECORD>first(z), true).iterator());
+    }
+
+    // Object state
+
+    private final ConcurrentSkipListSet<Entry<RECORD>> entries = new ConcurrentSkipListSet<>();
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    // Inner classes
+
+    static final class Entry<RECORD extends Record> implements Comparable<Entry<RECORD>>
+    {
+        @Override
+        public int compareTo(Entry<RECORD> that)
+        {
+            return
+                this.z < that.z
+                ? -1
+                : this.z > that.z
+                  ? 1
+                  : this.sequence < that.sequence
+                    ? -1
+                    : this.sequence > that.sequence
+                      ? 1
+                      : 0;
+        }
+
+        // Sorts before all entries with the given z-value
+        static <RECORD extends Record> Entry<RECORD> first(long z)
+        {
+            return new Entry<>(z, Long.MIN_VALUE, false, null);
+        }
+
+        Entry(long z, long sequence, boolean tombstone, RECORD record)
+        {
+            this.z = z;
+            this.sequence = sequence;
+            this.tombstone = tombstone;
+            this.record = record;
+        }
+
+        final long z;
+        final long sequence;
+        final boolean tombstone;
+        final RECORD record;
+    }
+
+    private static final class MemtableScan<RECORD extends Record> extends Scan<RECORD>
+    {
+        @Override
+        public boolean hasEntry()
+        {
+            return entry != null;
+        }
+
+        @Override
+        public long z()
+        {
+            return entry.z;
+        }
+
+        @Override
+        public long sequence()
+        {
+            return entry.sequence;
+        }
+
+        @Override
+        public boolean tombstone()
+        {
+            return entry.tombstone;
+        }
+
+        @Override
+        public RECORD record(RECORD flyweight)
+        {
+            return entry.record;
+        }
+
+        @Override
+        public void advance()
+        {
+            entry = iterator.hasNext() ? iterator.next() : null;
+        }
+
+        MemtableScan(Iterator<Entry<RECORD>> iterator)
+        {
+            this.iterator = iterator;
+            advance();
+        }
+
+        private final Iterator<Entry<RECORD>> iterator;
+        private Entry<RECORD> entry;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.index.lsm;
+
+import com.geophile.z.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// An immutable file of LSMIndex entries, sorted by (z-value, sequence), and accessed through memory-mapped
+// segments. Each entry has a fixed size: the z-value, the sequence number (shifted left one bit, with the low bit
+// indicating a tombstone), and a slot containing the serialized record.
+
+class Run<RECORD extends Record>
+{
+    // Object interface
+
+    @Override
+    public String toString()
+    {
+        return file.getName();
+    }
+
+    // Run interface
+
+    public int count()
+    {
+        return count;
+    }
+
+    public Scan<RECORD> scan(long z)
+    {
+        return new RunScan(firstAtOrAfter(z));
+    }
+
+    // Deletes the run's file. Mappings of the file remain valid, so cursors already scanning the run
+    // can continue.
+    public void discard() throws IOException
+    {
+        channel.close();
+        file.delete();
+    }
+
+    // For use by this package
+
+    static <RECORD extends Record> Writer<RECORD> writer(LSMIndex<RECORD> index, File file) throws IOException
+    {
+        return new Writer<>(index, file);
+    }
+
+    // For use by this class
+
+    private int firstAtOrAfter(long z)
+    {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (z(mid) < z) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private long z(int position)
+    {
+        return segments[position / entriesPerSegment].getLong(offset(position));
+    }
+
+    private long sequenceAndTombstone(int position)
+    {
+        return segments[position / entriesPerSegment].getLong(offset(position) + Long.SIZE / 8);
+    }
+
+    private int offset(int position)
+    {
+        return (position % entriesPerSegment) * entrySize;
+    }
+
+    private Run(LSMIndex<RECORD> index, File file, int count) throws IOException
+    {
+        this.index = index;
+        this.file = file;
+        this.count = count;
+        this.entrySize = entrySize(index);
+        this.entriesPerSegment = entriesPerSegment(entrySize);
+        this.channel = new RandomAccessFile(file, "r").getChannel();
+        int nSegments = (count + entriesPerSegment - 1) / entriesPerSegment;
+        this.segments = new MappedByteBuffer[nSegments];
+        for (int s = 0; s < nSegments; s++) {
+            long start = (long) s * entriesPerSegment * entrySize;
+            long size = (long) Math.min(entriesPerSegment, count - s * entriesPerSegment) * entrySize;
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        }
+    }
+
+    private static int entrySize(LSMIndex<?> index)
+    {
+        return 2 * (Long.SIZE / 8) + index.recordSize();
+    }
+
+    private static int entriesPerSegment(int entrySize)
+    {
+        return Math.max(1, SEGMENT_SIZE / entrySize);
+    }
+
+    // Class state
+
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int WRITE_BUFFER_ENTRIES = 4096;
+
+    // Object state
+
+    private final LSMIndex<RECORD> index;
+    private final File file;
+    private final int count;
+    private final int entrySize;
+    private final int entriesPerSegment;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+
+    // Inner classes
+
+    // Creates a Run from entries appended in (z-value, sequence) order.
+    static final class Writer<RECORD extends Record>
+    {
+        // The record's serialized form occupies record[0, recordSize).
+        public void append(long z, long sequence, boolean tombstone, ByteBuffer record) throws IOException
+        {
+            if (!buffer.hasRemaining()) {
+                write();
+            }
+            buffer.putLong(z);
+            buffer.putLong(sequence << 1 | (tombstone ? 1 : 0));
+            for (int i = 0; i < recordSize; i++) {
+                buffer.put(record.get(i));
+            }
+            count++;
+        }
+
+        public Run<RECORD> finish() throws IOException
+        {
+            write();
+            channel.force(false);
+            channel.close();
+            return new Run<>(index, file, count);
+        }
+
+        private void write() throws IOException
+        {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private Writer(LSMIndex<RECORD> index, File file) throws IOException
+        {
+            this.index = index;
+            this.file = file;
+            this.recordSize = index.recordSize();
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+            // Entries must not span segments, and the buffer holds a whole number of entries.
+            this.buffer = ByteBuffer.allocate(WRITE_BUFFER_ENTRIES * entrySize(index));
+        }
+
+        private final LSMIndex<RECORD> index;
+        private final File file;
+        private final int recordSize;
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private int count = 0;
+    }
+
+    private final class RunScan extends Scan<RECORD>
+    {
+        @Override
+        public boolean hasEntry()
+        {
+            return position < count;
+        }
+
+        @Override
+        public long z()
+        {
+            return Run.this.z(position);
+        }
+
+        @Override
+        public long sequence()
+        {
+            return sequenceAndTombstone(position) >>> 1;
+        }
+
+        @Override
+        public boolean tombstone()
+        {
+            return (sequenceAndTombstone(position) & 1) != 0;
+        }
+
+        @Override
+        public RECORD record(RECORD flyweight)
+        {
+            ByteBuffer view = views[position / entriesPerSegment];
+            int start = offset(position) + 2 * (Long.SIZE / 8);
+            view.limit(start + index.recordSize());
+            view.position(start);
+            index.readRecord(view, flyweight);
+            view.clear();
+            flyweight.z(z());
+            return flyweight;
+        }
+
+        @Override
+        public void advance()
+        {
+            position++;
+        }
+
+        RunScan(int position)
+        {
+            this.position = position;
+            // Each scan has its own views of the segments, so that scans in different threads don't interfere.
+            this.views = new ByteBuffer[segments.length];
+            for (int s = 0; s < segments.length; s++) {
+                views[s] = segments[s].duplicate();
+            }
+        }
+
+        private final ByteBuffer[] views;
+        private int position;
+    }
+}
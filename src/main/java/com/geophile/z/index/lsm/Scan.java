@@ -0,0 +1,28 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.index.lsm;
+
+import com.geophile.z.Record;
+
+// Visits the entries of one level of an LSMIndex, in (z-value, sequence) order.
+
+abstract class Scan<RECORD extends Record>
+{
+    // Indicates whether the scan is positioned at an entry. If false, the scan is exhausted.
+    public abstract boolean hasEntry();
+
+    public abstract long z();
+
+    public abstract long sequence();
+
+    public abstract boolean tombstone();
+
+    // Returns the entry's record, which may be deserialized into the given record.
+    public abstract RECORD record(RECORD flyweight);
+
+    public abstract void advance();
+}
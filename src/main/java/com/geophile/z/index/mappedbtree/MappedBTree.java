@@ -0,0 +1,673 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.index.mappedbtree;
+
+import com.geophile.z.Cursor;
+import com.geophile.z.DuplicateRecordException;
+import com.geophile.z.Index;
+import com.geophile.z.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MappedBTree implements the {@link com.geophile.z.Index} interface as a B+tree stored in a file, which is accessed
+ * through memory-mapped pages. This permits indexes much larger than the Java heap, and the contents of the index
+ * do not contribute to garbage collection.
+ *
+ * Each record is stored in a fixed-size slot, of the size given when the MappedBTree is created. A leaf stores the
+ * z-values of its records contiguously, followed by the slots. A subclass defines how a record is written to and read
+ * from a slot, by implementing {@link #writeRecord(com.geophile.z.Record, java.nio.ByteBuffer)} and
+ * {@link #readRecord(java.nio.ByteBuffer, com.geophile.z.Record)}, typically using
+ * {@link com.geophile.z.SpatialObject#writeTo(java.nio.ByteBuffer)} and
+ * {@link com.geophile.z.SpatialObject#readFrom(java.nio.ByteBuffer)}. The z-value is stored by the MappedBTree
+ * and does not need to be serialized.
+ *
+ * Records are not stable: a cursor deserializes each record into a record owned by the cursor.
+ *
+ * A file created by a MappedBTree can be reopened by creating a MappedBTree with the same page and record sizes.
+ * Changes are written to the file by the operating system, and {@link #flush()} forces them to disk.
+ * Leaves that become empty are not removed from the tree; their space is reused by later additions.
+ *
+ * A MappedBTree is not safe for simultaneous use by multiple threads. A cursor's behavior is undefined if the
+ * MappedBTree is modified, other than by that cursor's {@link com.geophile.z.Cursor#deleteCurrent()}, while the
+ * cursor is in use.
+ */
+
+public abstract class MappedBTree<RECORD extends Record> extends Index<RECORD>
+{
+    // Object interface
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+
+    // Index interface
+
+    @Override
+    public void add(RECORD record) throws IOException
+    {
+        long z = record.z();
+        serialize(record);
+        // Records with the same z-value are kept in the order in which they were added, so descend to the
+        // rightmost leaf that z could go into, and add the record after any others with the same z-value.
+        int page = root;
+        while (type(page) == INTERIOR) {
+            page = child(page, childAfter(page, z));
+        }
+        int position = positionAfter(page, z);
+        checkForDuplicate(page, position, record);
+        insert(page, position, z);
+        if (n(page) == leafCapacity) {
+            splitLeaf(page);
+        }
+    }
+
+    @Override
+    public boolean remove(long z, Record.Filter<RECORD> filter) throws IOException
+    {
+        int page = leaf(z);
+        int position = positionOf(page, z);
+        while (page != NO_PAGE) {
+            if (position == n(page)) {
+                page = next(page);
+                position = 0;
+            } else if (z(page, position) != z) {
+                page = NO_PAGE;
+            } else {
+                RECORD record = scratch();
+                read(page, position, record);
+                if (filter.select(record)) {
+                    delete(page, position);
+                    return true;
+                }
+                position++;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Cursor<RECORD> cursor()
+    {
+        return new MappedBTreeCursor<>(this);
+    }
+
+    @Override
+    public abstract RECORD newRecord();
+
+    @Override
+    public boolean blindUpdates()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean stableRecords()
+    {
+        return false;
+    }
+
+    // MappedBTree interface
+
+    /**
+     * Serializes the given record, not including its z-value, into the given buffer. The buffer's remaining
+     * space is the record size given when this MappedBTree was created.
+     * @param record The record to be serialized.
+     * @param buffer The buffer to contain the serialized record.
+     * @throws BufferOverflowException if the serialized record is larger than the record size.
+     */
+    protected abstract void writeRecord(RECORD record, ByteBuffer buffer) throws BufferOverflowException;
+
+    /**
+     * Deserializes a record, not including its z-value, from the given buffer, which was written by
+     * {@link #writeRecord(com.geophile.z.Record, java.nio.ByteBuffer)}.
+     * @param buffer The buffer containing the serialized record.
+     * @param record The record to be modified.
+     */
+    protected abstract void readRecord(ByteBuffer buffer, RECORD record);
+
+    /**
+     * Forces changes to this MappedBTree to be written to its file.
+     */
+    public void flush()
+    {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Flushes and closes this MappedBTree, which must not be used afterward.
+     * @throws IOException
+     */
+    public void close() throws IOException
+    {
+        flush();
+        channel.close();
+    }
+
+    /**
+     * Creates a MappedBTree in the given file, or opens the MappedBTree previously created in that file, using
+     * pages of {@link #DEFAULT_PAGE_SIZE} bytes.
+     * @param file The file containing the MappedBTree.
+     * @param recordSize The maximum size of a serialized record, in bytes.
+     * @throws IOException
+     */
+    public MappedBTree(File file, int recordSize) throws IOException
+    {
+        this(file, DEFAULT_PAGE_SIZE, recordSize);
+    }
+
+    /**
+     * Creates a MappedBTree in the given file, or opens the MappedBTree previously created in that file.
+     * @param file The file containing the MappedBTree.
+     * @param pageSize The size of a page, in bytes.
+     * @param recordSize The maximum size of a serialized record, in bytes.
+     * @throws IOException
+     */
+    public MappedBTree(File file, int pageSize, int recordSize) throws IOException
+    {
+        if (recordSize <= 0) {
+            throw new IllegalArgumentException(String.format("recordSize: %s", recordSize));
+        }
+        this.pageSize = pageSize;
+        this.recordSize = recordSize;
+        this.leafCapacity = (pageSize - NODE_HEADER_SIZE) / (Long.SIZE / 8 + recordSize);
+        this.interiorCapacity = (pageSize - NODE_HEADER_SIZE + Long.SIZE / 8) / (Long.SIZE / 8 + Integer.SIZE / 8);
+        if (leafCapacity < MIN_CAPACITY || interiorCapacity < MIN_CAPACITY) {
+            throw new IllegalArgumentException(
+                String.format("pageSize %s is too small for recordSize %s", pageSize, recordSize));
+        }
+        this.pagesPerSegment = Math.max(1, SEGMENT_SIZE / pageSize);
+        this.slotsStart = NODE_HEADER_SIZE + leafCapacity * (Long.SIZE / 8);
+        this.childrenStart = NODE_HEADER_SIZE + (interiorCapacity - 1) * (Long.SIZE / 8);
+        this.serialized = ByteBuffer.allocate(recordSize);
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            if (channel.size() == 0) {
+                pageCount = 1;
+                mapSegment();
+                ByteBuffer header = segments.get(0);
+                header.putLong(MAGIC_POSITION, MAGIC);
+                header.putInt(PAGE_SIZE_POSITION, pageSize);
+                header.putInt(RECORD_SIZE_POSITION, recordSize);
+                root(newPage(LEAF));
+            } else {
+                // Check the header before mapping the file, which would extend a file that isn't a MappedBTree.
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                int n;
+                do {
+                    n = channel.read(header, header.position());
+                } while (n > 0 && header.hasRemaining());
+                if (header.hasRemaining() || header.getLong(MAGIC_POSITION) != MAGIC) {
+                    throw new IllegalArgumentException(String.format("%s is not a MappedBTree file", file));
+                }
+                if (header.getInt(PAGE_SIZE_POSITION) != pageSize ||
+                    header.getInt(RECORD_SIZE_POSITION) != recordSize) {
+                    throw new IllegalArgumentException(
+                        String.format("%s has pageSize %s and recordSize %s",
+                                      file,
+                                      header.getInt(PAGE_SIZE_POSITION),
+                                      header.getInt(RECORD_SIZE_POSITION)));
+                }
+                root = header.getInt(ROOT_POSITION);
+                pageCount = header.getInt(PAGE_COUNT_POSITION);
+                mapSegment();
+                while (segments.size() * pagesPerSegment < pageCount) {
+                    mapSegment();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // For use by this package
+
+    // Returns the leaf that contains the first record whose z-value is >= z, or the leaf preceding that record.
+    int leaf(long z)
+    {
+        int page = root;
+        while (type(page) == INTERIOR) {
+            page = child(page, childAt(page, z));
+        }
+        return page;
+    }
+
+    // Position of the first z-value >= z in the leaf, or n if there is none.
+    int positionOf(int leaf, long z)
+    {
+        int lo = 0;
+        int hi = n(leaf);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (z(leaf, mid) < z) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    void read(int leaf, int position, RECORD record)
+    {
+        ByteBuffer slot = slots.get(leaf / pagesPerSegment);
+        int start = slotOffset(leaf, position);
+        slot.limit(start + recordSize);
+        slot.position(start);
+        readRecord(slot, record);
+        slot.clear();
+        record.z(z(leaf, position));
+    }
+
+    void delete(int leaf, int position)
+    {
+        int n = n(leaf);
+        ByteBuffer segment = segment(leaf);
+        move(segment, zOffset(leaf, position + 1), zOffset(leaf, position), (n - position - 1) * (Long.SIZE / 8));
+        move(segment, slotOffset(leaf, position + 1), slotOffset(leaf, position), (n - position - 1) * recordSize);
+        n(leaf, n - 1);
+    }
+
+    int n(int page)
+    {
+        return segment(page).getInt(base(page) + N_POSITION);
+    }
+
+    int next(int page)
+    {
+        return segment(page).getInt(base(page) + NEXT_POSITION);
+    }
+
+    long z(int leaf, int position)
+    {
+        return segment(leaf).getLong(zOffset(leaf, position));
+    }
+
+    // For use by this class
+
+    private void serialize(RECORD record)
+    {
+        serialized.clear();
+        try {
+            writeRecord(record, serialized);
+        } catch (BufferOverflowException e) {
+            throw new IllegalArgumentException(
+                String.format("%s: %s does not fit in %s bytes", this, record, recordSize));
+        }
+    }
+
+    // Records with the same z-value as record precede the given position, possibly in preceding leaves.
+    private void checkForDuplicate(int leaf, int position, RECORD record)
+    {
+        long z = record.z();
+        while (leaf != NO_PAGE) {
+            if (position == 0) {
+                leaf = previous(leaf);
+                position = leaf == NO_PAGE ? 0 : n(leaf);
+            } else if (z(leaf, --position) != z) {
+                leaf = NO_PAGE;
+            } else {
+                RECORD sameZ = scratch();
+                read(leaf, position, sameZ);
+                if (sameZ.equals(record)) {
+                    throw new DuplicateRecordException(record);
+                }
+            }
+        }
+    }
+
+    // Inserts the z-value, and the record in serialized, at the given position.
+    private void insert(int leaf, int position, long z)
+    {
+        int n = n(leaf);
+        ByteBuffer segment = segment(leaf);
+        move(segment, zOffset(leaf, position), zOffset(leaf, position + 1), (n - position) * (Long.SIZE / 8));
+        move(segment, slotOffset(leaf, position), slotOffset(leaf, position + 1), (n - position) * recordSize);
+        segment.putLong(zOffset(leaf, position), z);
+        int start = slotOffset(leaf, position);
+        for (int i = 0; i < recordSize; i++) {
+            segment.put(start + i, serialized.get(i));
+        }
+        n(leaf, n + 1);
+    }
+
+    private void splitLeaf(int leaf) throws IOException
+    {
+        int right = newPage(LEAF);
+        int n = n(leaf);
+        int keep = n / 2;
+        int move = n - keep;
+        copy(segment(leaf), zOffset(leaf, keep), segment(right), zOffset(right, 0), move * (Long.SIZE / 8));
+        copy(segment(leaf), slotOffset(leaf, keep), segment(right), slotOffset(right, 0), move * recordSize);
+        n(leaf, keep);
+        n(right, move);
+        int next = next(leaf);
+        next(right, next);
+        if (next != NO_PAGE) {
+            previous(next, right);
+        }
+        previous(right, leaf);
+        next(leaf, right);
+        addToParent(leaf, z(right, 0), right);
+    }
+
+    private void splitInterior(int interior) throws IOException
+    {
+        int right = newPage(INTERIOR);
+        int n = n(interior);
+        int keep = n / 2;
+        int move = n - keep;
+        // The separator between the children that stay and the children that move goes up to the parent.
+        long separator = separator(interior, keep - 1);
+        copy(segment(interior), separatorOffset(interior, keep),
+             segment(right), separatorOffset(right, 0),
+             (move - 1) * (Long.SIZE / 8));
+        copy(segment(interior), childOffset(interior, keep),
+             segment(right), childOffset(right, 0),
+             move * (Integer.SIZE / 8));
+        n(interior, keep);
+        n(right, move);
+        for (int i = 0; i < move; i++) {
+            parent(child(right, i), right);
+        }
+        addToParent(interior, separator, right);
+    }
+
+    private void addToParent(int left, long separator, int right) throws IOException
+    {
+        int parent = parent(left);
+        if (parent == NO_PAGE) {
+            parent = newPage(INTERIOR);
+            child(parent, 0, left);
+            n(parent, 1);
+            parent(left, parent);
+            root(parent);
+        }
+        int n = n(parent);
+        int position = 0;
+        while (child(parent, position) != left) {
+            position++;
+        }
+        position++;
+        ByteBuffer segment = segment(parent);
+        move(segment, childOffset(parent, position), childOffset(parent, position + 1),
+             (n - position) * (Integer.SIZE / 8));
+        move(segment, separatorOffset(parent, position - 1), separatorOffset(parent, position),
+             (n - position) * (Long.SIZE / 8));
+        child(parent, position, right);
+        segment.putLong(separatorOffset(parent, position - 1), separator);
+        n(parent, n + 1);
+        parent(right, parent);
+        if (n + 1 == interiorCapacity) {
+            splitInterior(parent);
+        }
+    }
+
+    // Position of the first z-value > z in the leaf, or n if there is none.
+    private int positionAfter(int leaf, long z)
+    {
+        int lo = 0;
+        int hi = n(leaf);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (z(leaf, mid) <= z) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Child containing the first z-value >= z. All z-values in child i are >= separator i - 1 and <= separator i.
+    private int childAt(int interior, long z)
+    {
+        int lo = 0;
+        int hi = n(interior) - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (separator(interior, mid) < z) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Last child that z could be added to.
+    private int childAfter(int interior, long z)
+    {
+        int lo = 0;
+        int hi = n(interior) - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (separator(interior, mid) <= z) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int newPage(int type) throws IOException
+    {
+        int page = pageCount++;
+        if (page == segments.size() * pagesPerSegment) {
+            mapSegment();
+        }
+        segments.get(0).putInt(PAGE_COUNT_POSITION, pageCount);
+        ByteBuffer segment = segment(page);
+        int base = base(page);
+        segment.putInt(base + TYPE_POSITION, type);
+        segment.putInt(base + N_POSITION, 0);
+        segment.putInt(base + PARENT_POSITION, NO_PAGE);
+        segment.putInt(base + NEXT_POSITION, NO_PAGE);
+        segment.putInt(base + PREVIOUS_POSITION, NO_PAGE);
+        return page;
+    }
+
+    private void mapSegment() throws IOException
+    {
+        long segmentSize = (long) pagesPerSegment * pageSize;
+        MappedByteBuffer segment =
+            channel.map(FileChannel.MapMode.READ_WRITE, segments.size() * segmentSize, segmentSize);
+        segments.add(segment);
+        slots.add(segment.duplicate());
+    }
+
+    private RECORD scratch()
+    {
+        if (scratch == null) {
+            scratch = newRecord();
+        }
+        return scratch;
+    }
+
+    private void root(int page)
+    {
+        root = page;
+        segments.get(0).putInt(ROOT_POSITION, page);
+    }
+
+    private ByteBuffer segment(int page)
+    {
+        return segments.get(page / pagesPerSegment);
+    }
+
+    private int base(int page)
+    {
+        return (page % pagesPerSegment) * pageSize;
+    }
+
+    private int type(int page)
+    {
+        return segment(page).getInt(base(page) + TYPE_POSITION);
+    }
+
+    private void n(int page, int n)
+    {
+        segment(page).putInt(base(page) + N_POSITION, n);
+    }
+
+    private int parent(int page)
+    {
+        return segment(page).getInt(base(page) + PARENT_POSITION);
+    }
+
+    private void parent(int page, int parent)
+    {
+        segment(page).putInt(base(page) + PARENT_POSITION, parent);
+    }
+
+    private void next(int page, int next)
+    {
+        segment(page).putInt(base(page) + NEXT_POSITION, next);
+    }
+
+    private int previous(int page)
+    {
+        return segment(page).getInt(base(page) + PREVIOUS_POSITION);
+    }
+
+    private void previous(int page, int previous)
+    {
+        segment(page).putInt(base(page) + PREVIOUS_POSITION, previous);
+    }
+
+    // Offset within the segment of a leaf's z-value
+    private int zOffset(int leaf, int position)
+    {
+        return base(leaf) + NODE_HEADER_SIZE + position * (Long.SIZE / 8);
+    }
+
+    // Offset within the segment of a leaf's record slot
+    private int slotOffset(int leaf, int position)
+    {
+        return base(leaf) + slotsStart + position * recordSize;
+    }
+
+    private long separator(int interior, int position)
+    {
+        return segment(interior).getLong(separatorOffset(interior, position));
+    }
+
+    private int separatorOffset(int interior, int position)
+    {
+        return base(interior) + NODE_HEADER_SIZE + position * (Long.SIZE / 8);
+    }
+
+    private int child(int interior, int position)
+    {
+        return segment(interior).getInt(childOffset(interior, position));
+    }
+
+    private void child(int interior, int position, int child)
+    {
+        segment(interior).putInt(childOffset(interior, position), child);
+    }
+
+    private int childOffset(int interior, int position)
+    {
+        return base(interior) + childrenStart + position * (Integer.SIZE / 8);
+    }
+
+    // Moves bytes within a page, correctly handling overlap.
+    private static void move(ByteBuffer buffer, int from, int to, int length)
+    {
+        if (to < from) {
+            int i = 0;
+            for (; i + 8 <= length; i += 8) {
+                buffer.putLong(to + i, buffer.getLong(from + i));
+            }
+            for (; i < length; i++) {
+                buffer.put(to + i, buffer.get(from + i));
+            }
+        } else if (to > from) {
+            int i = length;
+            for (; i >= 8; i -= 8) {
+                buffer.putLong(to + i - 8, buffer.getLong(from + i - 8));
+            }
+            for (; i > 0; i--) {
+                buffer.put(to + i - 1, buffer.get(from + i - 1));
+            }
+        }
+    }
+
+    // Copies bytes between different pages.
+    private static void copy(ByteBuffer fromBuffer, int from, ByteBuffer toBuffer, int to, int length)
+    {
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            toBuffer.putLong(to + i, fromBuffer.getLong(from + i));
+        }
+        for (; i < length; i++) {
+            toBuffer.put(to + i, fromBuffer.get(from + i));
+        }
+    }
+
+    // Class state
+
+    public static final int DEFAULT_PAGE_SIZE = 8192;
+    private static final AtomicInteger idGenerator = new AtomicInteger(0);
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int MIN_CAPACITY = 4;
+    // Page 0 is the file header, so 0 can be used to indicate the absence of a page.
+    static final int NO_PAGE = 0;
+    private static final int LEAF = 1;
+    private static final int INTERIOR = 2;
+    // File header
+    private static final long MAGIC = 0x67656f7068696c65L;
+    private static final int MAGIC_POSITION = 0;
+    private static final int PAGE_SIZE_POSITION = 8;
+    private static final int RECORD_SIZE_POSITION = 12;
+    private static final int ROOT_POSITION = 16;
+    private static final int PAGE_COUNT_POSITION = 20;
+    private static final int HEADER_SIZE = 24;
+    // Node header
+    private static final int TYPE_POSITION = 0;
+    private static final int N_POSITION = 4;
+    private static final int PARENT_POSITION = 8;
+    private static final int NEXT_POSITION = 12;
+    private static final int PREVIOUS_POSITION = 16;
+    private static final int NODE_HEADER_SIZE = 24;
+
+    // Object state
+
+    private final String name = String.format("MappedBTree(%s)", idGenerator.getAndIncrement());
+    private final int pageSize;
+    private final int recordSize;
+    private final int leafCapacity;
+    private final int interiorCapacity;
+    private final int pagesPerSegment;
+    private final int slotsStart;
+    private final int childrenStart;
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    // Views of segments used for record slots, whose position and limit are modified when reading a record.
+    private final List<ByteBuffer> slots = new ArrayList<>();
+    // Serialized form of the record being added
+    private final ByteBuffer serialized;
+    private RECORD scratch;
+    private int root;
+    private int pageCount;
+}
@@ -0,0 +1,98 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.index.mappedbtree;
+
+import com.geophile.z.Cursor;
+import com.geophile.z.Record;
+
+import java.io.IOException;
+
+public class MappedBTreeCursor<RECORD extends Record> extends Cursor<RECORD>
+{
+    // Cursor interface
+
+    @Override
+    public RECORD next() throws IOException, InterruptedException
+    {
+        return neighbor();
+    }
+
+    @Override
+    public void goTo(RECORD key)
+    {
+        this.startAt = key.z();
+        state(State.NEVER_USED);
+    }
+
+    @Override
+    public boolean deleteCurrent() throws IOException, InterruptedException
+    {
+        boolean deleted = false;
+        if (state() == State.IN_USE) {
+            // The cursor doesn't leave a leaf until next() is called, so the last record returned is in leaf.
+            assert position > 0 : position;
+            position--;
+            tree.delete(leaf, position);
+            deleted = true;
+        }
+        return deleted;
+    }
+
+    // MappedBTreeCursor interface
+
+    public MappedBTreeCursor(MappedBTree<RECORD> tree)
+    {
+        super(tree);
+        this.tree = tree;
+        this.record = tree.newRecord();
+    }
+
+    // For use by this class
+
+    private RECORD neighbor() throws IOException, InterruptedException
+    {
+        switch (state()) {
+            case NEVER_USED:
+                startIteration();
+                break;
+            case IN_USE:
+                break;
+            case DONE:
+                assert current() == null;
+                return null;
+        }
+        // Empty leaves remain in the tree, and are skipped.
+        while (leaf != MappedBTree.NO_PAGE && position == tree.n(leaf)) {
+            leaf = tree.next(leaf);
+            position = 0;
+        }
+        if (leaf != MappedBTree.NO_PAGE) {
+            tree.read(leaf, position++, record);
+            current(record);
+            state(State.IN_USE);
+        } else {
+            close();
+        }
+        return current();
+    }
+
+    private void startIteration()
+    {
+        leaf = tree.leaf(startAt);
+        position = tree.positionOf(leaf, startAt);
+    }
+
+    // Object state
+
+    private final MappedBTree<RECORD> tree;
+    // Flyweight into which the record at the cursor's position is deserialized
+    private final RECORD record;
+    private long startAt;
+    private int leaf;
+    // Position in leaf of the next record to be returned, or n if the leaf has been exhausted.
+    private int position;
+}
@@ -0,0 +1,192 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.index.skiplist;
+
+import com.geophile.z.Cursor;
+import com.geophile.z.DuplicateRecordException;
+import com.geophile.z.Index;
+import com.geophile.z.Record;
+import com.geophile.z.index.RecordWithSpatialObject;
+
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SkipListIndex implements the {@link com.geophile.z.Index} interface in terms of a
+ * {@link java.util.concurrent.ConcurrentSkipListSet}. A SkipListIndex is safe for use by multiple threads:
+ * records can be added and removed while {@link com.geophile.z.Cursor}s, e.g. those of a
+ * {@link com.geophile.z.SpatialJoin}, are scanning the index. A cursor sees a weakly consistent view of the
+ * index: records added or removed while the cursor is open may or may not be visible to it.
+ *
+ * Entries are keyed by (z-value, insertion sequence number), so records with the same z-value are visited
+ * in the order in which they were added.
+ */
+
+public abstract class SkipListIndex<RECORD extends Record> extends Index<RECORD>
+{
+    // Object interface
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+
+    // Index interface
+
+    @Override
+    public void add(RECORD record)
+    {
+        RECORD copy = newRecord();
+        record.copyTo(copy);
+        long z = copy.z();
+        Entry<RECORD> entry = new Entry<>(z, sequence.getAndIncrement(), copy);
+        synchronized (lock(z)) {
+            for (Entry<RECORD> sameZ : entries.subSet(Entry.<RECORD>first(z), true, Entry.<RECORD>last(z), true)) {
+                if (sameZ.record.equals(copy)) {
+                    throw new DuplicateRecordException(copy);
+                }
+            }
+            entries.add(entry);
+        }
+    }
+
+    @Override
+    public boolean remove(long z, Record.Filter<RECORD> filter)
+    {
+        boolean foundRecord = false;
+        synchronized (lock(z)) {
+            for (Entry<RECORD> sameZ : entries.subSet(Entry.<RECORD>first(z), true, Entry.<RECORD>last(z), true)) {
+                if (filter.select(sameZ.record)) {
+                    foundRecord = entries.remove(sameZ);
+                    break;
+                }
+            }
+        }
+        return foundRecord;
+    }
+
+    @Override
+    public Cursor<RECORD> cursor()
+    {
+        return new SkipListIndexCursor<>(this);
+    }
+
+    @Override
+    public abstract RECORD newRecord();
+
+    @Override
+    public boolean blindUpdates()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean stableRecords()
+    {
+        return true;
+    }
+
+    // SkipListIndex
+
+    public SkipListIndex()
+    {
+        for (int i = 0; i < LOCKS; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    // For use by this package
+
+    ConcurrentSkipListSet<Entry<RECORD>> entries()
+    {
+        return entries;
+    }
+
+    boolean remove(Entry<RECORD> entry)
+    {
+        synchronized (lock(entry.z)) {
+            return entries.remove(entry);
+        }
+    }
+
+    // For use by this class
+
+    // Adds and removes of the same z-value are serialized, so that the duplicate check in add is reliable.
+    // Cursors never lock.
+    private Object lock(long z)
+    {
+        long h = z * 0x9e3779b97f4a7c15L;
+        return locks[(int) (h >>> (64 - LOCK_BITS))];
+    }
+
+    // Class state
+
+    private static final AtomicInteger idGenerator = new AtomicInteger(0);
+    private static final int LOCK_BITS = 6;
+    private static final int LOCKS = 1 << LOCK_BITS;
+
+    // Object state
+
+    private final String name = String.format("SkipListIndex(%s)", idGenerator.getAndIncrement());
+    private final ConcurrentSkipListSet<Entry<RECORD>> entries = new ConcurrentSkipListSet<>();
+    private final AtomicLong sequence = new AtomicLong(0);
+    private final Object[] locks = new Object[LOCKS];
+
+    // Inner classes
+
+    static final class Entry<RECORD extends Record> implements Comparable<Entry<RECORD>>
+    {
+        @Override
+        public int compareTo(Entry<RECORD> that)
+        {
+            return
+                this.z < that.z
+                ? -1
+                : this.z > that.z
+                  ? 1
+                  : this.sequence < that.sequence
+                    ? -1
+                    : this.sequence > that.sequence
+                      ? 1
+                      : 0;
+        }
+
+        // Sorts before all entries with the given z-value
+        static <RECORD extends Record> Entry<RECORD> first(long z)
+        {
+            return new Entry<>(z, Long.MIN_VALUE, null);
+        }
+
+        // Sorts after all entries with the given z-value
+        static <RECORD extends Record> Entry<RECORD> last(long z)
+        {
+            return new Entry<>(z, Long.MAX_VALUE, null);
+        }
+
+        Entry(long z, long sequence, RECORD record)
+        {
+            this.z = z;
+            this.sequence = sequence;
+            this.record = record;
+        }
+
+        final long z;
+        final long sequence;
+        final RECORD record;
+    }
+
+    public static class OfBaseRecord extends SkipListIndex<RecordWithSpatialObject>
+    {
+        @Override
+        public RecordWithSpatialObject newRecord()
+        {
+            return new RecordWithSpatialObject();
+        }
+    }
+}
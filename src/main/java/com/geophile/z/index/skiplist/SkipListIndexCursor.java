@@ -0,0 +1,84 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.index.skiplist;
+
+import com.geophile.z.Cursor;
+import com.geophile.z.Record;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+public class SkipListIndexCursor<RECORD extends Record> extends Cursor<RECORD>
+{
+    // Cursor interface
+
+    @Override
+    public RECORD next() throws IOException, InterruptedException
+    {
+        return neighbor();
+    }
+
+    @Override
+    public void goTo(RECORD key)
+    {
+        this.startAt = key.z();
+        state(State.NEVER_USED);
+    }
+
+    @Override
+    public boolean deleteCurrent() throws IOException, InterruptedException
+    {
+        // The entry may have been removed concurrently, in which case nothing is deleted.
+        return state() == State.IN_USE && index.remove(currentEntry);
+    }
+
+    // SkipListIndexCursor interface
+
+    public SkipListIndexCursor(SkipListIndex<RECORD> index)
+    {
+        super(index);
+        this.index = index;
+    }
+
+    // For use by this class
+
+    private RECORD neighbor() throws IOException, InterruptedException
+    {
+        switch (state()) {
+            case NEVER_USED:
+                startIteration();
+                break;
+            case IN_USE:
+                break;
+            case DONE:
+                assert current() == null;
+                return null;
+        }
+        if (iterator.hasNext()) {
+            currentEntry = iterator.next();
+            current(currentEntry.record);
+            state(State.IN_USE);
+        } else {
+            currentEntry = null;
+            close();
+        }
+        return current();
+    }
+
+    private void startIteration()
+    {
+        iterator = index.entries().tailSet(SkipListIndex.Entry.<RECORD>first(startAt), true).iterator();
+    }
+
+    // Object state
+
+    private final SkipListIndex<RECORD> index;
+    private long startAt;
+    private Iterator<SkipListIndex.Entry<RECORD>> iterator;
+    // Entry of the last record returned via next(). Needed to support deleteCurrent().
+    private SkipListIndex.Entry<RECORD> currentEntry;
+}
@@ -0,0 +1,212 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.index.sortedarray;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Stable least-significant-digit radix sort of z-values, moving records along with them. Each pass sorts on
+// one byte of the z-value. A pass is skipped if all z-values have the same digit, which is common for the
+// high-order bytes of z-values of nearby objects. Large arrays are divided into chunks, which are counted and
+// scattered in parallel: each chunk's records with a given digit go to consecutive positions, following those
+// of the preceding chunks, so the sort remains stable.
+
+class RadixSort
+{
+    // Sorts zs[from:to] and records[from:to]. The scratch arrays must have room for to - from elements.
+    public static void sort(long[] zs, Object[] records, int from, int to, long[] zsScratch, Object[] recordsScratch)
+    {
+        new RadixSort(zs, records, from, to, zsScratch, recordsScratch).sort();
+    }
+
+    // For use by this class
+
+    private void sort()
+    {
+        if (n < 2) {
+            return;
+        }
+        for (int shift = 0; shift < Long.SIZE; shift += DIGIT_BITS) {
+            this.shift = shift;
+            RecursiveAction[] counters = new RecursiveAction[chunks];
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                counters[chunk] = new Count(chunk);
+            }
+            run(counters);
+            if (!skip()) {
+                computeOffsets();
+                RecursiveAction[] scatterers = new RecursiveAction[chunks];
+                for (int chunk = 0; chunk < chunks; chunk++) {
+                    scatterers[chunk] = new Scatter(chunk);
+                }
+                run(scatterers);
+                swap();
+            }
+        }
+        if (srcZs != zs) {
+            System.arraycopy(srcZs, srcStart, zs, from, n);
+            System.arraycopy(srcRecords, srcStart, records, from, n);
+        }
+        // Don't retain records in scratch
+        Arrays.fill(recordsScratch, 0, n, null);
+    }
+
+    private void run(RecursiveAction[] tasks)
+    {
+        if (chunks == 1) {
+            tasks[0].invoke();
+        } else {
+            final RecursiveAction[] chunkTasks = tasks;
+            POOL.invoke(
+                new RecursiveAction()
+                {
+                    @Override
+                    protected void compute()
+                    {
+                        invokeAll(chunkTasks);
+                    }
+                });
+        }
+    }
+
+    // The pass can be skipped if every z-value has the same digit.
+    private boolean skip()
+    {
+        int digit = (int) (srcZs[srcStart] >>> shift) & DIGIT_MASK;
+        int count = 0;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            count += counts[chunk][digit];
+        }
+        return count == n;
+    }
+
+    // On return, counts[chunk][digit] is the position in the destination of the first record of the chunk
+    // having the digit.
+    private void computeOffsets()
+    {
+        int offset = dstStart;
+        for (int digit = 0; digit < RADIX; digit++) {
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                int count = counts[chunk][digit];
+                counts[chunk][digit] = offset;
+                offset += count;
+            }
+        }
+    }
+
+    private void swap()
+    {
+        long[] zs = srcZs;
+        srcZs = dstZs;
+        dstZs = zs;
+        Object[] records = srcRecords;
+        srcRecords = dstRecords;
+        dstRecords = records;
+        int start = srcStart;
+        srcStart = dstStart;
+        dstStart = start;
+    }
+
+    private int chunkStart(int chunk)
+    {
+        return srcStart + (int) ((long) n * chunk / chunks);
+    }
+
+    private RadixSort(long[] zs, Object[] records, int from, int to, long[] zsScratch, Object[] recordsScratch)
+    {
+        this.zs = zs;
+        this.records = records;
+        this.from = from;
+        this.n = to - from;
+        this.recordsScratch = recordsScratch;
+        this.chunks = Math.max(1, Math.min(POOL.getParallelism(), n / MIN_CHUNK_SIZE));
+        this.counts = new int[chunks][RADIX];
+        this.srcZs = zs;
+        this.srcRecords = records;
+        this.srcStart = from;
+        this.dstZs = zsScratch;
+        this.dstRecords = recordsScratch;
+        this.dstStart = 0;
+    }
+
+    // Class state
+
+    private static final int DIGIT_BITS = 8;
+    private static final int RADIX = 1 << DIGIT_BITS;
+    private static final int DIGIT_MASK = RADIX - 1;
+    // Smaller arrays aren't worth dividing among threads.
+    private static final int MIN_CHUNK_SIZE = 1 << 16;
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    // Object state
+
+    private final long[] zs;
+    private final Object[] records;
+    private final int from;
+    private final int n;
+    private final Object[] recordsScratch;
+    private final int chunks;
+    private final int[][] counts;
+    private int shift;
+    private long[] srcZs;
+    private Object[] srcRecords;
+    private int srcStart;
+    private long[] dstZs;
+    private Object[] dstRecords;
+    private int dstStart;
+
+    // Inner classes
+
+    private class Count extends RecursiveAction
+    {
+        @Override
+        protected void compute()
+        {
+            int[] count = counts[chunk];
+            Arrays.fill(count, 0);
+            int end = chunkStart(chunk + 1);
+            for (int i = chunkStart(chunk); i < end; i++) {
+                count[(int) (srcZs[i] >>> shift) & DIGIT_MASK]++;
+            }
+        }
+
+        Count(int chunk)
+        {
+            this.chunk = chunk;
+        }
+
+        private static final long serialVersionUID = 1L;
+
+        private final int chunk;
+    }
+
+    private class Scatter extends RecursiveAction
+    {
+        @Override
+        protected void compute()
+        {
+            int[] offset = counts[chunk];
+            int end = chunkStart(chunk + 1);
+            for (int i = chunkStart(chunk); i < end; i++) {
+                long z = srcZs[i];
+                int position = offset[(int) (z >>> shift) & DIGIT_MASK]++;
+                dstZs[position] = z;
+                dstRecords[position] = srcRecords[i];
+            }
+        }
+
+        Scatter(int chunk)
+        {
+            this.chunk = chunk;
+        }
+
+        private static final long serialVersionUID = 1L;
+
+        private final int chunk;
+    }
+}
@@ -12,12 +12,17 @@ import com.geophile.z.Record;
 import com.geophile.z.index.RecordWithSpatialObject;
 
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.Collection;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * SortedArray implements the {@link com.geophile.z.Index} interface in terms of an array.
  * Intended to be used internally, for a spatial join between a SpatialIndex and a SpatialObject.
+ * The z-values of the records are kept in a parallel array of longs, so that sorting and searching
+ * do not need to dereference records. Records added since the array was last sorted are sorted by themselves
+ * and merged into a small sorted buffer following the sorted records. Cursors merge the two runs, and the buffer
+ * is merged into the sorted records only once it exceeds the square root of the number of records, so
+ * interleaving single additions with cursors doesn't move the entire array each time.
  */
 
 public abstract class SortedArray<RECORD extends Record> extends Index<RECORD>
@@ -36,55 +41,22 @@ public abstract class SortedArray<RECORD extends Record> extends Index<RECORD>
     public void add(RECORD record)
     {
         ensureSpace(n + 1);
+        zs[n] = record.z();
         records[n++] = record;
-        sorted = false;
     }
 
     @Override
     public boolean remove(long z, Record.Filter<RECORD> filter)
     {
-        boolean removeRecordFound = false;
-        RECORD key = newKeyRecord();
-        key.z(z);
-        int binarySearchPosition = binarySearch(key);
-        if (binarySearchPosition >= 0) {
-            // There might be multiple occurrences of the same z. Search backward and forward for matching zs, looking
-            // for a record satisfying the record filter.
-            boolean sameZ = true;
-            int position = binarySearchPosition;
-            while (position >= 0 && sameZ && !removeRecordFound) {
-                RECORD record = (RECORD) records[position];
-                if (record.z() == z) {
-                    if (filter.select(record)) {
-                        removeRecordFound = true;
-                    } else {
-                        position--;
-                    }
-                } else {
-                    sameZ = false;
-                }
-            }
-            if (!removeRecordFound) {
-                // Search forward
-                sameZ = true;
-                position = binarySearchPosition + 1;
-                while (position < n && sameZ && !removeRecordFound) {
-                    RECORD record = (RECORD) records[position];
-                    if (record.z() == z) {
-                        if (filter.select(record)) {
-                            removeRecordFound = true;
-                        } else {
-                            position++;
-                        }
-                    } else {
-                        sameZ = false;
-                    }
-                }
-            }
-            if (removeRecordFound) {
-                System.arraycopy(records, position + 1, records, position, n - 1 - position);
-                n--;
-            }
+        ensureSorted();
+        // Records in the sorted records precede buffered records with the same z-value.
+        int position = find(z, filter, 0, sortedCount);
+        if (position == NOT_FOUND) {
+            position = find(z, filter, sortedCount, bufferedCount);
+        }
+        boolean removeRecordFound = position != NOT_FOUND;
+        if (removeRecordFound) {
+            deleteRecord(position);
         }
         return removeRecordFound;
     }
@@ -113,9 +85,26 @@ public abstract class SortedArray<RECORD extends Record> extends Index<RECORD>
 
     // SortedArray
 
+    /**
+     * Adds the given records, and sorts them. Sorting a large number of records is done by multiple threads.
+     * Like {@link #add(com.geophile.z.Record)}, the records are not copied.
+     * @param records The records to be added.
+     */
+    public void addAll(Collection<? extends RECORD> records)
+    {
+        ensureSpace(n + records.size());
+        for (RECORD record : records) {
+            zs[n] = record.z();
+            this.records[n++] = record;
+        }
+        ensureSorted();
+    }
+
     public void reset()
     {
         n = 0;
+        sortedCount = 0;
+        bufferedCount = 0;
     }
 
     public SortedArray()
@@ -123,28 +112,116 @@ public abstract class SortedArray<RECORD extends Record> extends Index<RECORD>
 
     // For use by this package
 
-    int binarySearch(RECORD key)
+    // Returns the position of the first z-value >= z in the sorted run zs[runStart:runEnd], or runEnd if there is
+    // no such z-value. Unlike Arrays.binarySearch, this always locates the first of a run of duplicate z-values.
+    // The search gallops forward from the given position: positions from, from + 1, from + 2, from + 4, ... are
+    // examined before a binary search of the last interval. This takes O(log d) time, where d is the distance
+    // from the given position to the result. If z precedes the given position, then the positions preceding it
+    // are searched.
+    int firstAtOrAfter(long z, int from, int runStart, int runEnd)
     {
-        return Arrays.binarySearch(records, 0, n, key, SortedArray.Z_COMPARATOR);
+        from = Math.max(runStart, Math.min(from, runEnd));
+        if (from > runStart && zs[from - 1] >= z) {
+            return firstAtOrAfter(z, runStart, from);
+        }
+        int lo = from;
+        int hi = from;
+        long step = 1;
+        while (hi < runEnd && zs[hi] < z) {
+            lo = hi + 1;
+            hi = (int) Math.min(runEnd, from + step);
+            step <<= 1;
+        }
+        return firstAtOrAfter(z, lo, hi);
     }
 
     void deleteRecord(int at)
     {
+        System.arraycopy(zs, at + 1, zs, at, n - at - 1);
         System.arraycopy(records, at + 1, records, at, n - at - 1);
         records[--n] = null;
+        if (at < sortedCount) {
+            sortedCount--;
+        }
+        if (at < bufferedCount) {
+            bufferedCount--;
+        }
     }
 
     // For use by this class
 
+    // Returns the position of the first z-value >= z in zs[lo:hi], or hi if there is no such z-value.
+    private int firstAtOrAfter(long z, int lo, int hi)
+    {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (zs[mid] < z) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Returns the position of the first record in the sorted run zs[runStart:runEnd] with the given z-value and
+    // satisfying the filter, or NOT_FOUND if there is no such record.
+    private int find(long z, Record.Filter<RECORD> filter, int runStart, int runEnd)
+    {
+        // There might be multiple occurrences of the same z. Starting at the first one, search forward for
+        // a record satisfying the record filter.
+        int position = firstAtOrAfter(z, runStart, runStart, runEnd);
+        while (position < runEnd && zs[position] == z) {
+            if (filter.select((RECORD) records[position])) {
+                return position;
+            }
+            position++;
+        }
+        return NOT_FOUND;
+    }
+
     private void ensureSorted()
     {
-        if (!sorted) {
-            if (n == 0) {
-                records = new Object[0];
+        if (bufferedCount < n) {
+            if (n - bufferedCount >= RADIX_SORT_THRESHOLD) {
+                ensureScratch();
+                RadixSort.sort(zs, records, bufferedCount, n, zsScratch, recordsScratch);
             } else {
-                Arrays.sort(records, 0, n, Z_COMPARATOR);
+                sort(bufferedCount, n);
+            }
+            mergeRuns(sortedCount, bufferedCount, n);
+            bufferedCount = n;
+            if (sortedCount == 0 || n - sortedCount > Math.max(MIN_BUFFER_SIZE, (int) Math.sqrt(n))) {
+                mergeRuns(0, sortedCount, n);
+                sortedCount = n;
             }
-            sorted = true;
+        }
+    }
+
+    // Merges the sorted run zs[mid:to] into the sorted run zs[from:mid]. The merge proceeds from the end, so that
+    // only the records following the smallest record of zs[mid:to] are moved.
+    private void mergeRuns(int from, int mid, int to)
+    {
+        if (from < mid && mid < to && zs[mid - 1] > zs[mid]) {
+            ensureScratch();
+            int additions = to - mid;
+            System.arraycopy(zs, mid, zsScratch, 0, additions);
+            System.arraycopy(records, mid, recordsScratch, 0, additions);
+            int s = mid - 1;
+            int a = additions - 1;
+            int out = to - 1;
+            while (a >= 0) {
+                // > keeps the merge stable: a record of zs[mid:to] follows records of zs[from:mid] with the
+                // same z-value.
+                if (s >= from && zs[s] > zsScratch[a]) {
+                    zs[out] = zs[s];
+                    records[out--] = records[s--];
+                } else {
+                    zs[out] = zsScratch[a];
+                    records[out--] = recordsScratch[a--];
+                }
+            }
+            Arrays.fill(recordsScratch, 0, additions, null);
         }
     }
 
@@ -152,34 +229,107 @@ public abstract class SortedArray<RECORD extends Record> extends Index<RECORD>
     {
         int newLength = Math.max(MIN_ARRAY_SIZE, (int) (n * 1.5));
         if (records == null) {
+            zs = new long[newLength];
             records = new Object[newLength];
         } else if (records.length < n) {
+            zs = Arrays.copyOf(zs, newLength);
             records = Arrays.copyOf(records, newLength);
         }
     }
 
+    // Sorts zs[from:to], moving records along with the z-values. The sort must be stable: records with
+    // the same z-value are returned by a cursor in the order in which they were added.
+    private void sort(int from, int to)
+    {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            insertionSort(from, to);
+        } else {
+            ensureScratch();
+            int mid = (from + to) >>> 1;
+            sort(from, mid);
+            sort(mid, to);
+            if (zs[mid - 1] > zs[mid]) {
+                merge(from, mid, to);
+            }
+        }
+    }
+
+    private void ensureScratch()
+    {
+        if (zsScratch == null || zsScratch.length < n) {
+            zsScratch = new long[zs.length];
+            recordsScratch = new Object[records.length];
+        }
+    }
+
+    private void insertionSort(int from, int to)
+    {
+        for (int i = from + 1; i < to; i++) {
+            long z = zs[i];
+            Object record = records[i];
+            int j = i - 1;
+            while (j >= from && zs[j] > z) {
+                zs[j + 1] = zs[j];
+                records[j + 1] = records[j];
+                j--;
+            }
+            zs[j + 1] = z;
+            records[j + 1] = record;
+        }
+    }
+
+    private void merge(int from, int mid, int to)
+    {
+        int leftLength = mid - from;
+        System.arraycopy(zs, from, zsScratch, 0, leftLength);
+        System.arraycopy(records, from, recordsScratch, 0, leftLength);
+        int l = 0;
+        int r = mid;
+        int out = from;
+        while (l < leftLength && r < to) {
+            // <= keeps the sort stable
+            if (zsScratch[l] <= zs[r]) {
+                zs[out] = zsScratch[l];
+                records[out++] = recordsScratch[l++];
+            } else {
+                zs[out] = zs[r];
+                records[out++] = records[r++];
+            }
+        }
+        while (l < leftLength) {
+            zs[out] = zsScratch[l];
+            records[out++] = recordsScratch[l++];
+        }
+        Arrays.fill(recordsScratch, 0, leftLength, null);
+    }
+
     // Class state
 
     private static final AtomicInteger idGenerator = new AtomicInteger(0);
     private static final int MIN_ARRAY_SIZE = 20;
-    static final Comparator Z_COMPARATOR =
-        new Comparator()
-        {
-            @Override
-            public int compare(Object r, Object s)
-            {
-                long rz = ((Record)r).z();
-                long sz = ((Record)s).z();
-                return rz < sz ? -1 : rz > sz ? 1 : 0;
-            }
-        };
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+    // Below this size, merge sort is faster than radix sort, which makes eight passes over the z-values.
+    private static final int RADIX_SORT_THRESHOLD = 4096;
+    // The buffer is merged into the sorted records once its size exceeds both this and the square root of the
+    // number of records.
+    private static final int MIN_BUFFER_SIZE = 64;
+    private static final int NOT_FOUND = -1;
 
     // Object state
 
     private final String name = String.format("SortedArray(%s)", idGenerator.getAndIncrement());
+    // zs[i] is records[i].z(). Searching and sorting are done on zs, so that records are only touched
+    // when a cursor returns them.
+    long[] zs;
     Object[] records;
     int n = 0;
-    private boolean sorted = false;
+    // zs[0:sortedCount] is sorted, and so is the buffer, zs[sortedCount:bufferedCount]. Records added since the
+    // last sort follow.
+    int sortedCount = 0;
+    int bufferedCount = 0;
+    // For merging during sort
+    private long[] zsScratch;
+    private Object[] recordsScratch;
 
     // Inner classes
 
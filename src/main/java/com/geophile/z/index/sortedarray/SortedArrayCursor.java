@@ -25,18 +25,59 @@ public class SortedArrayCursor<RECORD extends Record> extends Cursor<RECORD>
     public void goTo(RECORD key)
     {
         this.startAt = key;
+        this.searchFromSorted = 0;
+        this.searchFromBuffered = sortedArray.sortedCount;
         state(State.NEVER_USED);
     }
 
+    @Override
+    public void goToForward(RECORD key)
+    {
+        forwardSearchStart();
+        this.startAt = key;
+        state(State.NEVER_USED);
+    }
+
+    @Override
+    public RECORD goToFirstPresent(RECORD key, long[] zs, int count) throws IOException, InterruptedException
+    {
+        // Each candidate is searched for starting from the position of the previous one, so the whole search
+        // is one forward gallop through each run.
+        forwardSearchStart();
+        int sortedEnd = sortedArray.sortedCount;
+        int bufferedEnd = sortedArray.bufferedCount;
+        int c = 0;
+        boolean found = false;
+        while (!found && c < count - 1) {
+            searchFromSorted = sortedArray.firstAtOrAfter(zs[c], searchFromSorted, 0, sortedEnd);
+            searchFromBuffered = sortedArray.firstAtOrAfter(zs[c], searchFromBuffered, sortedEnd, bufferedEnd);
+            found =
+                searchFromSorted < sortedEnd && sortedArray.zs[searchFromSorted] == zs[c] ||
+                searchFromBuffered < bufferedEnd && sortedArray.zs[searchFromBuffered] == zs[c];
+            if (!found) {
+                c++;
+            }
+        }
+        key.z(zs[c]);
+        this.startAt = key;
+        state(State.NEVER_USED);
+        return neighbor();
+    }
+
     @Override
     public boolean deleteCurrent() throws IOException, InterruptedException
     {
         boolean deleted = false;
         if (state() == State.IN_USE) {
             assert lastReportedPosition != UNDEFINED;
+            boolean sortedRecord = lastReportedPosition < sortedArray.sortedCount;
             sortedArray.deleteRecord(lastReportedPosition);
-            if (position != DONE && position > lastReportedPosition) {
-                position--;
+            // Deleting a sorted record shifts the buffer as well.
+            if (sortedPosition > lastReportedPosition) {
+                sortedPosition--;
+            }
+            if (sortedRecord || bufferedPosition > lastReportedPosition) {
+                bufferedPosition--;
             }
             deleted = true;
         }
@@ -65,38 +106,52 @@ public class SortedArrayCursor<RECORD extends Record> extends Cursor<RECORD>
                 assert current() == null;
                 return null;
         }
-        if (position != DONE) {
+        boolean sortedAvailable = sortedPosition < sortedArray.sortedCount;
+        boolean bufferedAvailable = bufferedPosition < sortedArray.bufferedCount;
+        if (sortedAvailable || bufferedAvailable) {
+            // Merge the runs. On a tie, the sorted record goes first, as it was added before the buffered one.
+            int position =
+                sortedAvailable &&
+                (!bufferedAvailable || sortedArray.zs[sortedPosition] <= sortedArray.zs[bufferedPosition])
+                ? sortedPosition++
+                : bufferedPosition++;
             RECORD record = record(position);
             current(record);
             startAt = record;
             lastReportedPosition = position;
             state(State.IN_USE);
-            position++;
-            assert position <= sortedArray.n : position;
-            if (position == sortedArray.n) {
-                position = DONE;
-            }
         } else {
             close();
         }
         return current();
     }
 
-    private void startIteration(boolean includeStartKey)
+    // Start searches of each run at the position following the record last returned, if any
+    private void forwardSearchStart()
     {
-        position = sortedArray.binarySearch(startAt);
-        if (position < 0) {
-            // Key not found
-            position = -position - 1; // See javadoc for binarySearch
+        if (state() == State.IN_USE) {
+            searchFromSorted = sortedPosition;
+            searchFromBuffered = bufferedPosition;
         } else {
-            // Key found
-            if (!includeStartKey) {
-                position++;
-            }
+            searchFromSorted = 0;
+            searchFromBuffered = sortedArray.sortedCount;
         }
-        assert position <= sortedArray.n : position;
-        if (position == -1 || position == sortedArray.n) {
-            position = DONE;
+    }
+
+    private void startIteration(boolean includeStartKey)
+    {
+        long z = startAt.z();
+        int sortedEnd = sortedArray.sortedCount;
+        int bufferedEnd = sortedArray.bufferedCount;
+        sortedPosition = sortedArray.firstAtOrAfter(z, searchFromSorted, 0, sortedEnd);
+        bufferedPosition = sortedArray.firstAtOrAfter(z, searchFromBuffered, sortedEnd, bufferedEnd);
+        if (!includeStartKey) {
+            while (sortedPosition < sortedEnd && sortedArray.zs[sortedPosition] == z) {
+                sortedPosition++;
+            }
+            while (bufferedPosition < bufferedEnd && sortedArray.zs[bufferedPosition] == z) {
+                bufferedPosition++;
+            }
         }
     }
 
@@ -107,12 +162,17 @@ public class SortedArrayCursor<RECORD extends Record> extends Cursor<RECORD>
 
     // Object state
 
-    private static final int DONE = -1;
     private static final int UNDEFINED = -1;
 
     private final SortedArray<RECORD> sortedArray;
     private RECORD startAt;
-    private int position;
+    // Positions from which startIteration searches the sorted records and the buffer for startAt
+    private int searchFromSorted;
+    private int searchFromBuffered;
+    // Positions of the next record in the sorted records, and in the buffer. A cursor returns the records of
+    // both runs, merged.
+    private int sortedPosition;
+    private int bufferedPosition;
     // Position of the last record returned via next(). Needed to support deleteCurrent().
     private int lastReportedPosition = UNDEFINED;
 }
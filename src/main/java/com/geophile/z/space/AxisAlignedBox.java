@@ -0,0 +1,34 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.space;
+
+import com.geophile.z.SpatialObject;
+
+/**
+ * A {@link com.geophile.z.SpatialObject} whose Region comparisons are exactly those of an axis-aligned box,
+ * containing points p such that boxLo(d) &lt;= p[d] &lt;= boxHi(d) for each dimension d, as implemented by
+ * {@link com.geophile.z.spatialobject.d2.Box}. Such an object is decomposed by comparing integer cell bounds,
+ * without calling {@link com.geophile.z.SpatialObject#containedBy(Region)} or
+ * {@link com.geophile.z.SpatialObject#compare(Region)}. The resulting z-values are identical.
+ */
+
+public interface AxisAlignedBox extends SpatialObject
+{
+    /**
+     * Returns the low bound of the box in dimension d.
+     * @param d A dimension of the space.
+     * @return The low bound of the box in dimension d.
+     */
+    double boxLo(int d);
+
+    /**
+     * Returns the high bound of the box in dimension d.
+     * @param d A dimension of the space.
+     * @return The high bound of the box in dimension d.
+     */
+    double boxHi(int d);
+}
@@ -0,0 +1,31 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.space;
+
+import com.geophile.z.SpatialObject;
+
+/**
+ * A {@link com.geophile.z.SpatialObject} that can compare both children of a {@link Region} at once. Decomposition
+ * divides each Region that overlaps a spatial object into two children, and compares each to the spatial object.
+ * The children differ from their parent only in dimension {@link Region#splitDimension()}, so comparisons in the
+ * other dimensions can be done once, for the parent. If a SpatialObject does not implement this interface, then
+ * each child is compared by {@link com.geophile.z.SpatialObject#compare(Region)}.
+ */
+
+public interface ChildComparison extends SpatialObject
+{
+    /**
+     * Compares each child of parent to this spatial object. The children are the halves of parent on either side
+     * of parent.splitCoordinate(), in dimension splitDimension. The results must be those that
+     * {@link com.geophile.z.SpatialObject#compare(Region)} would return for the children.
+     * @param parent The Region whose children are to be compared. parent.isPoint() is false.
+     * @param splitDimension The dimension along which parent is divided, parent.splitDimension().
+     * @param comparisons Receives the comparison of the lower child, (containing smaller coordinates in
+     *     splitDimension), in comparisons[0], and of the upper child in comparisons[1].
+     */
+    void compareChildren(Region parent, int splitDimension, RegionComparison[] comparisons);
+}
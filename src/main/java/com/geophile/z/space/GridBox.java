@@ -0,0 +1,155 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.space;
+
+import com.geophile.z.Space;
+
+/**
+ * The bounds of an {@link AxisAlignedBox}, converted to the grid of a {@link SpaceImpl}, (see
+ * {@link GridCoordinate}). An AxisAlignedBox can implement {@link com.geophile.z.SpatialObject#containedBy(Region)},
+ * {@link com.geophile.z.SpatialObject#compare(Region)} and
+ * {@link ChildComparison#compareChildren(Region, int, RegionComparison[])} using a GridBox, so that Region
+ * comparisons use integer comparisons of cell numbers.
+ */
+
+public final class GridBox
+{
+    // GridBox interface
+
+    /**
+     * Returns a GridBox for the given box, in the Space of the given Region. gridBox is returned if it is
+     * a GridBox of that Space. Otherwise a new GridBox is returned.
+     * @param gridBox A GridBox previously returned for the box, or null.
+     * @param box The box whose bounds are to be converted.
+     * @param region A Region to be compared to the box.
+     * @return A GridBox for the given box, in the Space of the given Region.
+     */
+    public static GridBox of(GridBox gridBox, AxisAlignedBox box, Region region)
+    {
+        return
+            gridBox != null && gridBox.space == region.space()
+            ? gridBox
+            : new GridBox(region.space, box);
+    }
+
+    /**
+     * Returns the Space to which the box's bounds were converted.
+     * @return The Space to which the box's bounds were converted.
+     */
+    public Space space()
+    {
+        return space;
+    }
+
+    /**
+     * Indicates whether the box is contained by the given Region, as specified by
+     * {@link com.geophile.z.SpatialObject#containedBy(Region)}.
+     * @param region The Region being compared.
+     * @return true iff the box is contained by region.
+     */
+    public boolean containedBy(Region region)
+    {
+        boolean containedBy = true;
+        for (int d = 0; containedBy && d < lo.length; d++) {
+            containedBy = region.loLE(d, lo[d]) && region.hiGE(d, hi[d]);
+        }
+        return containedBy;
+    }
+
+    /**
+     * Compares the given Region to the box, as specified by {@link com.geophile.z.SpatialObject#compare(Region)}.
+     * @param region The Region being compared.
+     * @return The relationship of region to the box.
+     */
+    public RegionComparison compare(Region region)
+    {
+        boolean inside = true;
+        boolean outside = false;
+        for (int d = 0; !outside && d < lo.length; d++) {
+            long loCell = region.loCell[d];
+            long hiCell = region.hiCell[d];
+            inside = inside && inside(d, loCell, hiCell);
+            outside = outside(d, loCell, hiCell);
+        }
+        return comparison(inside, outside);
+    }
+
+    /**
+     * Compares the children of the given Region to the box, as specified by
+     * {@link ChildComparison#compareChildren(Region, int, RegionComparison[])}.
+     * @param parent The Region whose children are to be compared.
+     * @param splitDimension The dimension along which parent is divided, parent.splitDimension().
+     * @param comparisons Receives the comparisons of the lower and upper children.
+     */
+    public void compareChildren(Region parent, int splitDimension, RegionComparison[] comparisons)
+    {
+        boolean inside = true;
+        boolean outside = false;
+        for (int d = 0; !outside && d < lo.length; d++) {
+            if (d != splitDimension) {
+                long loCell = parent.loCell[d];
+                long hiCell = parent.hiCell[d];
+                inside = inside && inside(d, loCell, hiCell);
+                outside = outside(d, loCell, hiCell);
+            }
+        }
+        long loCell = parent.loCell[splitDimension];
+        long hiCell = parent.hiCell[splitDimension];
+        long splitCell = parent.splitCell();
+        comparisons[0] =
+            comparison(inside && inside(splitDimension, loCell, splitCell - 1),
+                       outside || outside(splitDimension, loCell, splitCell - 1));
+        comparisons[1] =
+            comparison(inside && inside(splitDimension, splitCell, hiCell),
+                       outside || outside(splitDimension, splitCell, hiCell));
+    }
+
+    // For use by this class
+
+    // Indicates whether cells loCell .. hiCell of dimension d are inside the box in that dimension, i.e.
+    // loGE(d, lo[d]) && hiLT(d, hi[d]) for a Region with those cells.
+    private boolean inside(int d, long loCell, long hiCell)
+    {
+        return
+            loCell >= lo[d].linesBelow &&
+            hiCell != space.gHi[d] && hiCell + 1 < hi[d].linesAtOrBelow;
+    }
+
+    // Indicates whether cells loCell .. hiCell of dimension d are outside the box in that dimension, i.e.
+    // hiLT(d, lo[d]) || loGT(d, hi[d]) for a Region with those cells.
+    private boolean outside(int d, long loCell, long hiCell)
+    {
+        return
+            hiCell != space.gHi[d] && hiCell + 1 < lo[d].linesAtOrBelow ||
+            loCell >= hi[d].linesAtOrBelow;
+    }
+
+    private static RegionComparison comparison(boolean inside, boolean outside)
+    {
+        return
+            outside ? RegionComparison.REGION_OUTSIDE_OBJECT :
+            inside ? RegionComparison.REGION_INSIDE_OBJECT :
+            RegionComparison.REGION_OVERLAPS_OBJECT;
+    }
+
+    private GridBox(SpaceImpl space, AxisAlignedBox box)
+    {
+        this.space = space;
+        this.lo = new GridCoordinate[space.dimensions];
+        this.hi = new GridCoordinate[space.dimensions];
+        for (int d = 0; d < space.dimensions; d++) {
+            lo[d] = space.gridCoordinate(d, box.boxLo(d));
+            hi[d] = space.gridCoordinate(d, box.boxHi(d));
+        }
+    }
+
+    // Object state
+
+    private final SpaceImpl space;
+    private final GridCoordinate[] lo;
+    private final GridCoordinate[] hi;
+}
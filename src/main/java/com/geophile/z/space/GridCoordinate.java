@@ -0,0 +1,68 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.space;
+
+/**
+ * An application space coordinate, converted to the grid of a {@link SpaceImpl}, (see
+ * {@link SpaceImpl#gridCoordinate(int, double)}). A {@link Region} can be compared to a GridCoordinate using
+ * integer comparisons of cell numbers, e.g. {@link Region#loLT(int, GridCoordinate)}, instead of computing the
+ * Region's bounds in application space, as in {@link Region#loLT(int, double)}. The results of the comparisons
+ * are identical. A {@link com.geophile.z.SpatialObject} can convert its coordinates once, and then use them for
+ * all the Region comparisons required by its decomposition.
+ */
+
+public final class GridCoordinate
+{
+    // Object interface
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s[%s:%s]", coordinate, linesBelow, linesAtOrBelow);
+    }
+
+    // GridCoordinate interface
+
+    /**
+     * Returns the dimension of this coordinate.
+     * @return The dimension of this coordinate.
+     */
+    public int dimension()
+    {
+        return d;
+    }
+
+    /**
+     * Returns the application space coordinate that was converted.
+     * @return The application space coordinate that was converted.
+     */
+    public double coordinate()
+    {
+        return coordinate;
+    }
+
+    // For use by this package
+
+    GridCoordinate(SpaceImpl space, int d, double coordinate)
+    {
+        this.space = space;
+        this.d = d;
+        this.coordinate = coordinate;
+        this.linesBelow = space.gridLinesBelow(d, coordinate, false);
+        this.linesAtOrBelow = space.gridLinesBelow(d, coordinate, true);
+    }
+
+    // Object state
+
+    final SpaceImpl space;
+    final int d;
+    final double coordinate;
+    // The number of grid lines of dimension d less than coordinate, and less than or equal to coordinate. Grid
+    // line c is the low bound of cell c, and the high bound of cell c - 1.
+    final long linesBelow;
+    final long linesAtOrBelow;
+}
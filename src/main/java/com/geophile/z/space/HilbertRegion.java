@@ -0,0 +1,144 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.space;
+
+// A Region of a HilbertSpace. Moving down or up a level halves or doubles the Region along a dimension determined
+// by the orientation of the Hilbert curve in the current subcube, (see HilbertSpace). The orientation of each
+// subcube on the path from the root to the Region is kept, so that up() doesn't need to recompute it.
+
+class HilbertRegion extends Region
+{
+    // Region interface
+
+    @Override
+    public int splitDimension()
+    {
+        assert !isPoint();
+        return dimension(level);
+    }
+
+    // For use by this package
+
+    @Override
+    boolean lowerChildLeft()
+    {
+        return !upperHalf(0);
+    }
+
+    @Override
+    void downLeft()
+    {
+        down(0);
+    }
+
+    @Override
+    void downRight()
+    {
+        down(1);
+    }
+
+    @Override
+    void up()
+    {
+        int bit = keyBit(--level);
+        int d = dimension(level);
+        long mask = 1L << xBitPosition[d]++;
+        loCell[d] &= ~mask;
+        hiCell[d] |= mask;
+        key &= ~(((long) bit) << (62 - level));
+    }
+
+    @Override
+    long z()
+    {
+        return key | level;
+    }
+
+    @Override
+    void repositioned()
+    {
+        key = space.shuffle(loCell, level) & ~SpaceImpl.LENGTH_MASK;
+        int n = space.dimensions;
+        for (int g = 0; (g + 1) * n <= level; g++) {
+            int w = group(g);
+            entry[g + 1] = hilbertSpace().nextEntry(entry[g], direction[g], w);
+            direction[g + 1] = hilbertSpace().nextDirection(direction[g], w);
+        }
+    }
+
+    HilbertRegion(HilbertSpace space, double[] point)
+    {
+        super(space, point);
+        int groups = space.zBits / space.dimensions;
+        this.entry = new int[groups + 1];
+        this.direction = new int[groups + 1];
+        repositioned();
+    }
+
+    // For use by this class
+
+    private void down(int bit)
+    {
+        int d = dimension(level);
+        int g = level / space.dimensions;
+        if (upperHalf(bit)) {
+            loCell[d] |= 1L << --xBitPosition[d];
+        } else {
+            hiCell[d] &= ~(1L << --xBitPosition[d]);
+        }
+        key |= ((long) bit) << (62 - level);
+        level++;
+        if (level % space.dimensions == 0) {
+            int w = group(g);
+            entry[g + 1] = hilbertSpace().nextEntry(entry[g], direction[g], w);
+            direction[g + 1] = hilbertSpace().nextDirection(direction[g], w);
+        }
+    }
+
+    // Indicates whether the child selected by the given key bit is the upper half of this Region.
+    private boolean upperHalf(int bit)
+    {
+        // The kth bit of a group determines the kth bit of its Gray code, which, after transformation by the
+        // subcube's orientation, is the coordinate bit of dimension d.
+        int d = dimension(level);
+        int previousBit = level % space.dimensions == 0 ? 0 : keyBit(level - 1);
+        int g = level / space.dimensions;
+        return ((bit ^ previousBit ^ (entry[g] >>> d)) & 1) != 0;
+    }
+
+    // The dimension halved in moving from the given level to the next one.
+    private int dimension(int level)
+    {
+        return hilbertSpace().dimension(direction[level / space.dimensions], level % space.dimensions);
+    }
+
+    private int keyBit(int level)
+    {
+        return (int) (key >>> (62 - level)) & 1;
+    }
+
+    // Group g of the key, the Hilbert index of a subcube within its parent.
+    private int group(int g)
+    {
+        int n = space.dimensions;
+        return (int) (key >>> (63 - (g + 1) * n)) & ((1 << n) - 1);
+    }
+
+    private HilbertSpace hilbertSpace()
+    {
+        return (HilbertSpace) space;
+    }
+
+    // Object state
+
+    // Key bits of the Region, i.e. its z-value without the length.
+    private long key;
+    // entry[g] and direction[g] describe the orientation of the Hilbert curve in the subcube at level g * dimensions
+    // containing the Region, (see HilbertSpace).
+    private final int[] entry;
+    private final int[] direction;
+}
@@ -0,0 +1,184 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.space;
+
+/*
+ * A Space whose cells are ordered by a Hilbert curve instead of by bit interleaving. Consecutive cells along a
+ * Hilbert curve are always adjacent, so a box is covered by fewer, longer runs of keys than in z-order.
+ *
+ * Keys have the same format as z-values, and are prefix-nested in the same way, so that containment, parent,
+ * siblings, and the spatial join algorithm are unaffected. Each dimension must have the same number of bits, m.
+ * A key consists of m groups of n bits, (for n dimensions). Group g is the index, in Hilbert order, of the child
+ * subcube (at level g of the 2**n-ary tree of subcubes) containing the cell. Each bit within a group halves the
+ * current region along one dimension, because the Hilbert order of subcubes is a Gray code, so a Region is still
+ * a box, and region comparisons work as in z-order. What differs is the dimension halved at each level, and
+ * which half corresponds to a 0 bit. These depend on the orientation of the curve within the current subcube,
+ * which is tracked by HilbertRegion.
+ *
+ * The mapping between cells and Hilbert indexes follows C. Hamilton, "Compact Hilbert Indices", Dalhousie
+ * University technical report CS-2006-07. The orientation of the curve within a subcube is described by an
+ * entry point, e, (a corner of the subcube), and a direction, d, (the dimension along which the curve leaves
+ * the entry point). Within a subcube of orientation (e, d), the child with Hilbert index w has coordinate
+ * bits l = T(e, d)^-1(gc(w)), where gc is the Gray code, and T(e, d)(b) = rotateRight(b ^ e, d + 1).
+ */
+
+public class HilbertSpace extends SpaceImpl
+{
+    // SpaceImpl interface
+
+    @Override
+    public long shuffle(long[] x, int length)
+    {
+        long key = 0;
+        int entry = 0;
+        int direction = 0;
+        int m = gBits[0];
+        for (int g = 0; g < m && g * dimensions < length; g++) {
+            int l = 0;
+            for (int d = 0; d < dimensions; d++) {
+                l |= (int) ((x[d] >>> (m - 1 - g)) & 1) << d;
+            }
+            int w = grayCodeInverse(rotateRight(l ^ entry, direction + 1));
+            key |= (long) w << (63 - (g + 1) * dimensions);
+            int nextEntry = nextEntry(entry, direction, w);
+            direction = nextDirection(direction, w);
+            entry = nextEntry;
+        }
+        // Keep the first length bits.
+        key &= ~((1L << (63 - length)) - 1);
+        return key | length;
+    }
+
+    @Override
+    public void unshuffle(long z, long[] x)
+    {
+        decode(z, x);
+    }
+
+    @Override
+    public void cellBounds(long z, long[] loCells, long[] hiCells)
+    {
+        int length = length(z);
+        int direction = decode(z, loCells);
+        // Each complete group determines one bit of each coordinate. The bits of a partial group determine
+        // one more bit of some of the coordinates.
+        int undetermined = gBits[0] - length / dimensions;
+        for (int d = 0; d < dimensions; d++) {
+            hiCells[d] = loCells[d] | ((1L << undetermined) - 1);
+        }
+        for (int k = 0; k < length % dimensions; k++) {
+            int d = dimension(direction, k);
+            hiCells[d] = loCells[d] | ((1L << (undetermined - 1)) - 1);
+        }
+    }
+
+    public HilbertSpace(double[] lo, double[] hi, int[] gridBits)
+    {
+        super(lo, hi, gridBits, null);
+        for (int d = 1; d < dimensions; d++) {
+            check(gridBits[d] == gridBits[0],
+                  "All dimensions of a HilbertSpace must have the same number of bits: %s != %s",
+                  gridBits[d], gridBits[0]);
+        }
+    }
+
+    // For use by this package
+
+    @Override
+    Region newRegion(double[] point)
+    {
+        return new HilbertRegion(this, point);
+    }
+
+    // The dimension halved by the kth bit of a group, within a subcube of the given direction.
+    int dimension(int direction, int k)
+    {
+        return (dimensions - 1 - k + direction + 1) % dimensions;
+    }
+
+    // Orientation of the child subcube with Hilbert index w, within a subcube of orientation (entry, direction).
+    int nextEntry(int entry, int direction, int w)
+    {
+        int childEntry = w == 0 ? 0 : grayCode(2 * ((w - 1) / 2));
+        return entry ^ rotateLeft(childEntry, direction + 1);
+    }
+
+    int nextDirection(int direction, int w)
+    {
+        int childDirection =
+            w == 0 ? 0 :
+            w % 2 == 0 ? trailingSetBits(w - 1) % dimensions :
+            trailingSetBits(w) % dimensions;
+        return (direction + childDirection + 1) % dimensions;
+    }
+
+    // For use by this class
+
+    // Computes the cell coordinates of the lower corner of the Region identified by z, and returns the direction of
+    // the subcube in which z ends.
+    private int decode(long z, long[] x)
+    {
+        int length = length(z);
+        int entry = 0;
+        int direction = 0;
+        int m = gBits[0];
+        for (int d = 0; d < dimensions; d++) {
+            x[d] = 0;
+        }
+        for (int g = 0; g * dimensions < length; g++) {
+            int w = (int) (z >>> (63 - (g + 1) * dimensions)) & dimensionMask;
+            int l = rotateLeft(grayCode(w), direction + 1) ^ entry;
+            // Bits of a partial group beyond length leave their coordinates undetermined, i.e. zero.
+            int k = Math.min(length - g * dimensions, dimensions);
+            for (int j = 0; j < k; j++) {
+                int d = dimension(direction, j);
+                x[d] |= (long) ((l >>> d) & 1) << (m - 1 - g);
+            }
+            if (k == dimensions) {
+                int nextEntry = nextEntry(entry, direction, w);
+                direction = nextDirection(direction, w);
+                entry = nextEntry;
+            }
+        }
+        return direction;
+    }
+
+    private int rotateLeft(int x, int r)
+    {
+        r %= dimensions;
+        return ((x << r) | (x >>> (dimensions - r))) & dimensionMask;
+    }
+
+    private int rotateRight(int x, int r)
+    {
+        r %= dimensions;
+        return ((x >>> r) | (x << (dimensions - r))) & dimensionMask;
+    }
+
+    private static int grayCode(int i)
+    {
+        return i ^ (i >>> 1);
+    }
+
+    private static int grayCodeInverse(int g)
+    {
+        int i = g;
+        for (int shift = 1; shift < Integer.SIZE; shift <<= 1) {
+            i ^= i >>> shift;
+        }
+        return i;
+    }
+
+    private static int trailingSetBits(int x)
+    {
+        return Integer.numberOfTrailingZeros(~x);
+    }
+
+    // Object state
+
+    private final int dimensionMask = (1 << dimensions) - 1;
+}
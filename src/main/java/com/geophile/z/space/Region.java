@@ -8,8 +8,6 @@ package com.geophile.z.space;
 
 import com.geophile.z.Space;
 
-import java.util.Arrays;
-
 /**
  * A {@link Region} represents a box-shaped subspace obtained by recursive partitioning of the space.
  * Regions are only of interest to users of geophile who define {@link com.geophile.z.SpatialObject} subtypes.
@@ -170,6 +168,112 @@ public class Region
             : hi(d) > coord;
     }
     
+    /**
+     * Indicates whether the low bound of the region in dimension d is less than the given coord.
+     * Equivalent to {@link #loLT(int, double)}, applied to coord.coordinate().
+     * @param d The dimension of interest.
+     * @param coord The coordinate being compared, converted to this region's space.
+     * @return true iff the low bound of the region in dimension d is less than the given coord.
+     */
+    public boolean loLT(int d, GridCoordinate coord)
+    {
+        assert check(d, coord);
+        return loCell[d] < coord.linesBelow;
+    }
+
+    /**
+     * Indicates whether the low bound of the region in dimension d is less than or equal to the given coord.
+     * Equivalent to {@link #loLE(int, double)}, applied to coord.coordinate().
+     * @param d The dimension of interest.
+     * @param coord The coordinate being compared, converted to this region's space.
+     * @return true iff the low bound of the region in dimension d is less than or equal to the given coord.
+     */
+    public boolean loLE(int d, GridCoordinate coord)
+    {
+        assert check(d, coord);
+        return loCell[d] < coord.linesAtOrBelow;
+    }
+
+    /**
+     * Indicates whether the low bound of the region in dimension d is greater than the given coord.
+     * Equivalent to {@link #loGT(int, double)}, applied to coord.coordinate().
+     * @param d The dimension of interest.
+     * @param coord The coordinate being compared, converted to this region's space.
+     * @return true iff the low bound of the region in dimension d is greater than the given coord.
+     */
+    public boolean loGT(int d, GridCoordinate coord)
+    {
+        assert check(d, coord);
+        return loCell[d] >= coord.linesAtOrBelow;
+    }
+
+    /**
+     * Indicates whether the low bound of the region in dimension d is greater than or equal to the given coord.
+     * Equivalent to {@link #loGE(int, double)}, applied to coord.coordinate().
+     * @param d The dimension of interest.
+     * @param coord The coordinate being compared, converted to this region's space.
+     * @return true iff the low bound of the region in dimension d is greater than or equal to the given coord.
+     */
+    public boolean loGE(int d, GridCoordinate coord)
+    {
+        assert check(d, coord);
+        return loCell[d] >= coord.linesBelow;
+    }
+
+    /**
+     * Indicates whether the high bound of the region in dimension d is less than the given coord.
+     * Equivalent to {@link #hiLT(int, double)}, applied to coord.coordinate().
+     * @param d The dimension of interest.
+     * @param coord The coordinate being compared, converted to this region's space.
+     * @return true iff the high bound of the region in dimension d is less than the given coord.
+     */
+    public boolean hiLT(int d, GridCoordinate coord)
+    {
+        // As in hiLT(int, double), hi(d) = coord counts as less, except at the high boundary of the space.
+        // hi(d) is grid line hiCell[d] + 1.
+        assert check(d, coord);
+        return hiCell[d] != space.gHi[d] && hiCell[d] + 1 < coord.linesAtOrBelow;
+    }
+
+    /**
+     * Indicates whether the high bound of the region in dimension d is less than or equal to the given coord.
+     * Equivalent to {@link #hiLE(int, double)}, applied to coord.coordinate().
+     * @param d The dimension of interest.
+     * @param coord The coordinate being compared, converted to this region's space.
+     * @return true iff the high bound of the region in dimension d is less than or equal to the given coord.
+     */
+    public boolean hiLE(int d, GridCoordinate coord)
+    {
+        assert check(d, coord);
+        return hiCell[d] + 1 < coord.linesAtOrBelow;
+    }
+
+    /**
+     * Indicates whether the high bound of the region in dimension d is greater than the given coord.
+     * Equivalent to {@link #hiGT(int, double)}, applied to coord.coordinate().
+     * @param d The dimension of interest.
+     * @param coord The coordinate being compared, converted to this region's space.
+     * @return true iff the high bound of the region in dimension d is greater than the given coord.
+     */
+    public boolean hiGT(int d, GridCoordinate coord)
+    {
+        assert check(d, coord);
+        return hiCell[d] + 1 >= coord.linesAtOrBelow;
+    }
+
+    /**
+     * Indicates whether the high bound of the region in dimension d is greater than or equal to the given coord.
+     * Equivalent to {@link #hiGE(int, double)}, applied to coord.coordinate().
+     * @param d The dimension of interest.
+     * @param coord The coordinate being compared, converted to this region's space.
+     * @return true iff the high bound of the region in dimension d is greater than or equal to the given coord.
+     */
+    public boolean hiGE(int d, GridCoordinate coord)
+    {
+        assert check(d, coord);
+        return hiCell[d] == space.gHi[d] || hiCell[d] + 1 >= coord.linesAtOrBelow;
+    }
+
     /**
      * Returns the level of this Region.
      * @return the level of this Region.
@@ -188,8 +292,44 @@ public class Region
         return level == space.zBits;
     }
 
+    /**
+     * Returns the dimension along which this region is divided into its two children. Must not be called if
+     * isPoint() is true.
+     * @return The dimension along which this region is divided into its two children.
+     */
+    public int splitDimension()
+    {
+        assert !isPoint();
+        return interleave[level];
+    }
+
+    /**
+     * Returns the coordinate, in dimension splitDimension(), of the boundary between the two children of this
+     * region. The lower child contains points whose coordinate is less than the split coordinate, and the upper
+     * child contains the rest. Must not be called if isPoint() is true.
+     * @return The coordinate of the boundary between the two children of this region.
+     */
+    public double splitCoordinate()
+    {
+        return space.gridLine(splitDimension(), splitCell());
+    }
+
     // For use by this package
 
+    // The first cell, in dimension splitDimension(), of the upper child of this region.
+    long splitCell()
+    {
+        int d = splitDimension();
+        return loCell[d] + (1L << (xBitPosition[d] - 1));
+    }
+
+    // Indicates whether downLeft() moves to the lower child, (i.e., the one containing smaller coordinates
+    // in dimension splitDimension()).
+    boolean lowerChildLeft()
+    {
+        return true;
+    }
+
     void downLeft()
     {
         int d = interleave[level++];
@@ -215,68 +355,114 @@ public class Region
         return space.shuffle(loCell, level);
     }
 
-    Region copy()
+    // Reinitialize this Region as the cell containing the given point.
+    void reset(double[] point)
+    {
+        setCell(point);
+        repositioned();
+    }
+
+    // Reinitialize this Region as the ancestor, at the given level, of the cell with the given coordinates.
+    void reset(long[] cells, int level)
+    {
+        for (int d = 0; d < space.dimensions; d++) {
+            loCell[d] = cells[d];
+            hiCell[d] = cells[d];
+            xBitPosition[d] = 0;
+        }
+        this.level = space.zBits;
+        repositioned();
+        while (this.level > level) {
+            up();
+        }
+    }
+
+    long loCell(int d)
+    {
+        return loCell[d];
+    }
+
+    long hiCell(int d)
+    {
+        return hiCell[d];
+    }
+
+    // Saves the state of this Region in the given arrays, starting at position offset (for loCells, hiCells and
+    // xBitPositions). The level is returned, and must be passed to restore.
+    int save(long[] loCells, long[] hiCells, int[] xBitPositions, int offset)
+    {
+        System.arraycopy(loCell, 0, loCells, offset, space.dimensions);
+        System.arraycopy(hiCell, 0, hiCells, offset, space.dimensions);
+        System.arraycopy(xBitPosition, 0, xBitPositions, offset, space.dimensions);
+        return level;
+    }
+
+    // Restores the state of this Region, saved by save.
+    void restore(long[] loCells, long[] hiCells, int[] xBitPositions, int offset, int level)
+    {
+        System.arraycopy(loCells, offset, loCell, 0, space.dimensions);
+        System.arraycopy(hiCells, offset, hiCell, 0, space.dimensions);
+        System.arraycopy(xBitPositions, offset, xBitPosition, 0, space.dimensions);
+        this.level = level;
+        repositioned();
+    }
+
+    // Called when the Region has been repositioned other than by moving up or down. A subclass with state
+    // derived from the cells and level of the Region can override this to recompute that state.
+    void repositioned()
     {
-        return new Region(this);
     }
 
     Region(SpaceImpl space, double[] point)
     {
-        assert point.length == space.dimensions;
         this.space = space;
         this.interleave = space.interleave;
-        this.appToGridScale = space.appToGridScale;
-        this.appLo = space.appLo;
         this.loCell = new long[space.dimensions];
         this.hiCell = new long[space.dimensions];
-        for (int d = 0; d < space.dimensions; d++) {
-            this.loCell[d] = space.cellCoord(d, point[d]);
-            this.hiCell[d] = this.loCell[d];
-        }
-        this.level = space.zBits;
         this.xBitPosition = new int[space.dimensions];
-        for (int zBitPosition = space.zBits - 1; zBitPosition >= level; zBitPosition--) {
-            int d = interleave[zBitPosition];
-            xBitPosition[d]++;
-        }
+        setCell(point);
     }
 
     // For use by this class
 
-    private double lo(int d)
+    private void setCell(double[] point)
+    {
+        assert point.length == space.dimensions;
+        for (int d = 0; d < space.dimensions; d++) {
+            loCell[d] = space.cellCoord(d, point[d]);
+            hiCell[d] = loCell[d];
+            xBitPosition[d] = 0;
+        }
+        level = space.zBits;
+    }
+
+    private boolean check(int d, GridCoordinate coord)
     {
-        return loCell[d] / appToGridScale[d] + appLo[d];
+        return coord.d == d && coord.space.equals(space);
     }
 
-    private double hi(int d)
+    private double lo(int d)
     {
-        return (hiCell[d] + 1) / appToGridScale[d] + appLo[d];
+        return space.gridLine(d, loCell[d]);
     }
 
-    private Region(Region region)
+    private double hi(int d)
     {
-        this.space = region.space;
-        this.interleave = region.interleave;
-        this.appToGridScale = region.appToGridScale;
-        this.appLo = region.appLo;
-        this.loCell = Arrays.copyOf(region.loCell, region.loCell.length);
-        this.hiCell = Arrays.copyOf(region.hiCell, region.hiCell.length);
-        this.level = region.level;
-        this.xBitPosition = Arrays.copyOf(region.xBitPosition, region.xBitPosition.length);
+        return space.gridLine(d, hiCell[d] + 1);
     }
 
     // Object state
 
-    private final SpaceImpl space;
+    // Package-private state is also maintained by HilbertRegion
+    final SpaceImpl space;
     private final int[] interleave;
     // loCell and hiCell are cell numbers. E.g. if the grid is 16 x 16, then cell numbers go from 0 to 15, inclusive.
     // Note that coordinates, as returned by lo() and hi() are different. Those are coordinates, and they
     // would go from 0 to 16 inclusive. In other words, loCell and hiCell number the cells of the grid,
     // while lo() and hi() are positions of grid lines.
-    private final long[] loCell;
-    private final long[] hiCell;
-    private int level;
-    private int[] xBitPosition;
-    private double[] appToGridScale;
-    private double[] appLo;
+    final long[] loCell;
+    final long[] hiCell;
+    int level;
+    // xBitPosition[d] is the number of low-order bits of loCell[d] and hiCell[d] that vary within the Region.
+    final int[] xBitPosition;
 }
@@ -0,0 +1,84 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.space;
+
+// A FIFO queue of Regions used in decomposing a spatial object. Region state is copied into preallocated
+// primitive arrays, indexed by queue slot, so that adding and polling Regions doesn't allocate. A RegionQueue
+// is not thread-safe.
+
+class RegionQueue
+{
+    // RegionQueue interface
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public void add(Region region)
+    {
+        assert size < capacity : size;
+        levels[tail] = region.save(loCells, hiCells, xBitPositions, tail * dimensions);
+        tail = next(tail);
+        size++;
+    }
+
+    // Removes the Region at the head of the queue, copying its state into region.
+    public void poll(Region region)
+    {
+        assert size > 0;
+        region.restore(loCells, hiCells, xBitPositions, head * dimensions, levels[head]);
+        head = next(head);
+        size--;
+    }
+
+    // Empties the queue, and ensures room for the given number of Regions.
+    public void reset(int capacity)
+    {
+        if (capacity > this.capacity) {
+            this.capacity = capacity;
+            loCells = new long[capacity * dimensions];
+            hiCells = new long[capacity * dimensions];
+            xBitPositions = new int[capacity * dimensions];
+            levels = new int[capacity];
+        }
+        head = 0;
+        tail = 0;
+        size = 0;
+    }
+
+    public RegionQueue(int dimensions)
+    {
+        this.dimensions = dimensions;
+    }
+
+    // For use by this class
+
+    private int next(int slot)
+    {
+        return slot + 1 == capacity ? 0 : slot + 1;
+    }
+
+    // Object state
+
+    private final int dimensions;
+    private int capacity;
+    // Region state for slot i is at levels[i], and at positions i * dimensions ... (i + 1) * dimensions - 1
+    // of the other arrays.
+    private long[] loCells;
+    private long[] hiCells;
+    private int[] xBitPositions;
+    private int[] levels;
+    private int head;
+    private int tail;
+    private int size;
+}
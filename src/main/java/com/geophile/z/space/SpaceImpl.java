@@ -10,9 +10,9 @@ import com.geophile.z.Space;
 import com.geophile.z.SpatialObject;
 import com.geophile.z.SpatialObjectException;
 
-import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /*
  * Geophile's grid is an abstraction, implemented as follows:
@@ -79,7 +79,9 @@ public class SpaceImpl extends Space
     public boolean equals(Object obj)
     {
         boolean eq = false;
-        if (obj != null && obj instanceof SpaceImpl) {
+        // SpaceImpl2D and SpaceImpl3D only change the implementation of shuffling, so they are equal to an
+        // equivalent SpaceImpl. A HilbertSpace orders cells differently.
+        if (obj instanceof SpaceImpl && (obj instanceof HilbertSpace) == (this instanceof HilbertSpace)) {
             SpaceImpl that = (SpaceImpl) obj;
             eq = this.dimensions == that.dimensions;
             for (int d = 0; eq && d < dimensions; d++) {
@@ -118,128 +120,63 @@ public class SpaceImpl extends Space
     @Override
     public void decompose(SpatialObject spatialObject, long[] zs)
     {
-        if (!spatialObject.containedBy(this)) {
-            throw SpatialObjectException.notContainedBySpace(spatialObject, this);
-        }
-        int maxRegions = zs.length;
-        int zCount = 0;
-        Region region = new Region(this, spatialObject.arbitraryPoint());
-        while (!spatialObject.containedBy(region)) {
-            region.up();
+        decompose(spatialObject, zs, zs.length);
+    }
+
+    @Override
+    public int decompose(SpatialObject[] spatialObjects, long[] zs, int[] offsets)
+    {
+        return decompose(spatialObjects, zs, offsets, null);
+    }
+
+    @Override
+    public int decompose(SpatialObject[] spatialObjects, long[] zs, int[] offsets, ForkJoinPool pool)
+    {
+        int n = spatialObjects.length;
+        check(offsets.length > n, "offsets.length (%s) must exceed the number of spatial objects (%s)",
+              offsets.length, n);
+        // Give each object room for maxZ z-values. Unused positions are removed after decomposition.
+        int position = 0;
+        for (int i = 0; i < n; i++) {
+            offsets[i] = position;
+            position += spatialObjects[i].maxZ();
         }
-        if (zs.length == 1) {
-            zs[0] = z(region);
+        offsets[n] = position;
+        check(zs.length >= position, "zs.length (%s) is less than the total maxZ (%s)", zs.length, position);
+        BatchDecomposition batch = new BatchDecomposition(spatialObjects, zs, offsets, 0, n);
+        if (pool == null || n <= BATCH_DECOMPOSITION_CHUNK) {
+            batch.compute();
         } else {
-            Queue<Region> queue = new ArrayDeque<>(maxRegions);
-            queue.add(region);
-            while (!queue.isEmpty()) {
-                region = queue.poll();
-                if (region.isPoint()) {
-                    zs[zCount++] = z(region);
-                } else {
-                    region.downLeft();
-                    RegionComparison leftComparison = spatialObject.compare(region);
-                    region.up();
-                    region.downRight();
-                    RegionComparison rightComparison = spatialObject.compare(region);
-                    switch (leftComparison) {
-                        case REGION_OUTSIDE_OBJECT:
-                            switch (rightComparison) {
-                                case REGION_OUTSIDE_OBJECT:
-                                    assert false;
-                                    break;
-                                case REGION_INSIDE_OBJECT:
-                                    zs[zCount++] = z(region);
-                                    break;
-                                case REGION_OVERLAPS_OBJECT:
-                                    queue.add(region.copy());
-                                    break;
-                            }
-                            break;
-                        case REGION_INSIDE_OBJECT:
-                            switch (rightComparison) {
-                                case REGION_OUTSIDE_OBJECT:
-                                    region.up();
-                                    region.downLeft();
-                                    zs[zCount++] = z(region);
-                                    break;
-                                case REGION_INSIDE_OBJECT:
-                                    region.up();
-                                    zs[zCount++] = z(region);
-                                    break;
-                                case REGION_OVERLAPS_OBJECT:
-                                    if (queue.size() + 1 + zCount < maxRegions) {
-                                        queue.add(region.copy());
-                                        region.up();
-                                        region.downLeft();
-                                        zs[zCount++] = z(region);
-                                    } else {
-                                        region.up();
-                                        zs[zCount++] = z(region);
-                                    }
-                                    break;
-                            }
-                            break;
-                        case REGION_OVERLAPS_OBJECT:
-                            switch (rightComparison) {
-                                case REGION_OUTSIDE_OBJECT:
-                                    region.up();
-                                    region.downLeft();
-                                    queue.add(region.copy());
-                                    break;
-                                case REGION_INSIDE_OBJECT:
-                                    if (queue.size() + 1 + zCount < maxRegions) {
-                                        zs[zCount++] = z(region);
-                                        region.up();
-                                        region.downLeft();
-                                        queue.add(region.copy());
-                                    } else {
-                                        region.up();
-                                        zs[zCount++] = z(region);
-                                    }
-                                    break;
-                                case REGION_OVERLAPS_OBJECT:
-                                    if (queue.size() + 1 + zCount < maxRegions) {
-                                        queue.add(region.copy());
-                                        region.up();
-                                        region.downLeft();
-                                        queue.add(region.copy());
-                                    } else {
-                                        region.up();
-                                        zs[zCount++] = z(region);
-                                    }
-                                    break;
-                            }
-                            break;
-                    }
-                }
-            }
-            while (!queue.isEmpty()) {
-                region = queue.poll();
-                zs[zCount++] = z(region);
-            }
-            for (int i = zCount; i < maxRegions; i++) {
-                zs[i] = Z_NULL;
+            pool.invoke(batch);
+        }
+        int zCount = 0;
+        for (int i = 0; i < n; i++) {
+            int start = offsets[i];
+            int end = offsets[i + 1];
+            offsets[i] = zCount;
+            for (int p = start; p < end && zs[p] != Z_NULL; p++) {
+                zs[zCount++] = zs[p];
             }
-            Arrays.sort(zs, 0, zCount);
-            boolean merge;
-            do {
-                merge = false;
-                for (int i = 1; i < zCount; i++) {
-                    long a = zs[i - 1];
-                    long b = zs[i];
-                    if ((merge = siblings(a, b))) {
-                        zs[i - 1] = parent(a);
-                        System.arraycopy(zs, i + 1, zs, i, zCount - i - 1);
-                        zs[--zCount] = Z_NULL;
-                    }
-                }
-            } while (merge);
         }
+        offsets[n] = zCount;
+        return zCount;
     }
 
     // SpaceImpl interface
 
+    /**
+     * Decompose spatialObject into at most maxZ z-values, stored in zs[0:maxZ]. If fewer are needed, then the
+     * unused positions are denoted by Z_NULL. Regions used in decomposition are reused across calls by the same
+     * thread, so that a decomposition doesn't allocate memory.
+     * @param spatialObject The SpatialObject to be decomposed.
+     * @param zs The array containing the z-values resulting from the decomposition.
+     * @param maxZ The maximum number of z-values, zs.length &gt;= maxZ.
+     */
+    public void decompose(SpatialObject spatialObject, long[] zs, int maxZ)
+    {
+        decompose(spatialObject, zs, 0, maxZ);
+    }
+
     public long shuffle(long x[])
     {
         return shuffle(x, zBits);
@@ -264,6 +201,91 @@ public class SpaceImpl extends Space
         return z | length;
     }
 
+    /**
+     * Computes the cell coordinates of the lower corner of the Region identified by z, i.e. the inverse of
+     * {@link #shuffle(long[], int)}. Coordinate bits not determined by z, (because its length is less than
+     * zBits()), are zero.
+     * @param z A z-value of this Space.
+     * @param x Receives the cell coordinates, x.length &gt;= the number of dimensions.
+     */
+    // Each case falls through, ORing in the contributions of the z-value's bytes from zLowByte upward.
+    @SuppressWarnings("fallthrough")
+    public void unshuffle(long z, long[] x)
+    {
+        int b0 = (int) (z) & 0xff;
+        int b1 = (int) (z >>> 8) & 0xff;
+        int b2 = (int) (z >>> 16) & 0xff;
+        int b3 = (int) (z >>> 24) & 0xff;
+        int b4 = (int) (z >>> 32) & 0xff;
+        int b5 = (int) (z >>> 40) & 0xff;
+        int b6 = (int) (z >>> 48) & 0xff;
+        int b7 = (int) (z >>> 56) & 0xff;
+        for (int d = 0; d < dimensions; d++) {
+            long xd = 0;
+            switch (zLowByte) {
+                case 0: xd |= unshuffle0[d][b0];
+                case 1: xd |= unshuffle1[d][b1];
+                case 2: xd |= unshuffle2[d][b2];
+                case 3: xd |= unshuffle3[d][b3];
+                case 4: xd |= unshuffle4[d][b4];
+                case 5: xd |= unshuffle5[d][b5];
+                case 6: xd |= unshuffle6[d][b6];
+                case 7: xd |= unshuffle7[d][b7];
+            }
+            x[d] = xd;
+        }
+    }
+
+    /**
+     * Computes the range of cells covered by the Region identified by z. In each dimension d, the Region
+     * consists of cells loCells[d] through hiCells[d], inclusive.
+     * @param z A z-value of this Space.
+     * @param loCells Receives the low cell coordinate of each dimension.
+     * @param hiCells Receives the high cell coordinate of each dimension.
+     */
+    public void cellBounds(long z, long[] loCells, long[] hiCells)
+    {
+        unshuffle(z, loCells);
+        long[] undetermined = undeterminedBits[length(z)];
+        for (int d = 0; d < dimensions; d++) {
+            hiCells[d] = loCells[d] | undetermined[d];
+        }
+    }
+
+    /**
+     * Computes the application space bounds of the Region identified by z. In each dimension d, the Region
+     * lies between lo[d] and hi[d]. As described in {@link Region}, the high bound belongs to the Region only
+     * at the upper edge of the space.
+     * @param z A z-value of this Space.
+     * @param lo Receives the low bound of each dimension.
+     * @param hi Receives the high bound of each dimension.
+     */
+    public void bounds(long z, double[] lo, double[] hi)
+    {
+        Decomposition decomposition = decompositions.get();
+        long[] loCells = decomposition.lower;
+        long[] hiCells = decomposition.upper;
+        cellBounds(z, loCells, hiCells);
+        for (int d = 0; d < dimensions; d++) {
+            lo[d] = gridLine(d, loCells[d]);
+            hi[d] = gridLine(d, hiCells[d] + 1);
+        }
+    }
+
+    /**
+     * Returns the Region identified by z.
+     * @param z A z-value of this Space.
+     * @return The Region identified by z.
+     */
+    public Region region(long z)
+    {
+        long[] cells = new long[dimensions];
+        unshuffle(z, cells);
+        Region region = newRegion(appLo);
+        region.reset(cells, length(z));
+        return region;
+    }
+
     public int zBits()
     {
         return zBits;
@@ -358,12 +380,41 @@ public class SpaceImpl extends Space
         return formatted;
     }
 
-    public long cellCoord(int d, double appCoord)
+    /**
+     * Converts an application space coordinate to this space's grid, for integer comparisons to the bounds of
+     * Regions.
+     * @param d A dimension of this space.
+     * @param appCoord An application space coordinate of dimension d.
+     * @return appCoord, converted to this space's grid.
+     */
+    public GridCoordinate gridCoordinate(int d, double appCoord)
+    {
+        return new GridCoordinate(this, d, appCoord);
+    }
+
+    public final long cellCoord(int d, double appCoord)
     {
         long c = (long) (appToGridScale[d] * (appCoord - appLo[d]));
         return c >= gHi[d] ? gHi[d] : c;
     }
 
+    /**
+     * Returns the z-value of the cell containing a point of this space, as for a
+     * {@link com.geophile.z.space.SpatialPoint} with the given coordinates.
+     * @param point The coordinates of a point contained by this space.
+     * @return The z-value of the cell containing the point, or Z_NULL in the rare case that rounding makes the
+     * cell uncertain.
+     */
+    public long cellZ(double[] point)
+    {
+        long[] cells = decompositions.get().lower;
+        boolean cell = true;
+        for (int d = 0; cell && d < dimensions; d++) {
+            cell = cellContaining(d, point[d], cells);
+        }
+        return cell ? shuffle(cells) : Z_NULL;
+    }
+
     public SpaceImpl(double[] lo, double[] hi, int[] gridBits, int[] interleave)
     {
         super(lo, hi);
@@ -415,10 +466,258 @@ public class SpaceImpl extends Space
         shuffle5 = shuffle[5];
         shuffle6 = shuffle[6];
         shuffle7 = shuffle[7];
+        // unshuffle
+        zLowByte = (63 - zBits) / 8;
+        long[][][] unshuffle = computeUnshuffleMasks();
+        unshuffle0 = unshuffle[0];
+        unshuffle1 = unshuffle[1];
+        unshuffle2 = unshuffle[2];
+        unshuffle3 = unshuffle[3];
+        unshuffle4 = unshuffle[4];
+        unshuffle5 = unshuffle[5];
+        unshuffle6 = unshuffle[6];
+        unshuffle7 = unshuffle[7];
+        undeterminedBits = computeUndeterminedBits();
+    }
+
+    // For use by this package
+
+    static void check(boolean constraint, String template, Object... args)
+    {
+        if (!constraint) {
+            throw new IllegalArgumentException(String.format(template, args));
+        }
+    }
+
+    Region newRegion(double[] point)
+    {
+        return new Region(this, point);
+    }
+
+    // Decompose spatialObject into at most maxZ z-values, stored in zs[offset:offset + maxZ].
+    void decompose(SpatialObject spatialObject, long[] zs, int offset, int maxZ)
+    {
+        assert maxZ > 0 && offset + maxZ <= zs.length : maxZ;
+        long pointZ =
+            spatialObject instanceof SpatialPoint
+            ? pointZ((SpatialPoint) spatialObject)
+            : Z_NULL;
+        if (pointZ != Z_NULL) {
+            zs[offset] = pointZ;
+            for (int i = 1; i < maxZ; i++) {
+                zs[offset + i] = Z_NULL;
+            }
+        } else {
+            decomposeRegions(spatialObject, zs, offset, maxZ);
+        }
+    }
+
+    // The z-value of the cell containing point, computed directly from its coordinates, or Z_NULL in the rare
+    // case that the cell located by cellCoord (which multiplies) does not contain the point according to Region
+    // comparisons (which use gridLine, and divide). Decomposition then finds the smallest Region containing
+    // the point, which is larger than a cell.
+    long pointZ(SpatialPoint point)
+    {
+        if (!point.containedBy(this)) {
+            throw SpatialObjectException.notContainedBySpace(point, this);
+        }
+        double[] coordinates = decompositions.get().point;
+        for (int d = 0; d < dimensions; d++) {
+            coordinates[d] = point.coordinate(d);
+        }
+        return cellZ(coordinates);
+    }
+
+    // The application space coordinate of the grid line at the low boundary of cell c in dimension d. (Cells are
+    // numbered 0 through gHi[d], and grid line gHi[d] + 1 is the high boundary of the space.) Region comparisons
+    // are all based on this computation.
+    double gridLine(int d, long c)
+    {
+        return c / appToGridScale[d] + appLo[d];
+    }
+
+    // The number of grid lines in dimension d, 0 through gHi[d] + 1, that are less than appCoord, or less than
+    // or equal to appCoord if inclusive is true. Grid line coordinates increase with c, so the grid lines counted
+    // precede all others.
+    long gridLinesBelow(int d, double appCoord, boolean inclusive)
+    {
+        long gridLines = gHi[d] + 2;
+        double estimate = appToGridScale[d] * (appCoord - appLo[d]);
+        long c =
+            estimate <= 0 ? 0 :
+            estimate >= gridLines ? gridLines :
+            (long) estimate;
+        // The estimate differs from the exact answer only due to rounding.
+        while (c > 0 && !below(gridLine(d, c - 1), appCoord, inclusive)) {
+            c--;
+        }
+        while (c < gridLines && below(gridLine(d, c), appCoord, inclusive)) {
+            c++;
+        }
+        return c;
     }
 
     // For use by this class
 
+    // Sets cells[d] to the cell of dimension d located by cellCoord for x, and indicates whether that cell contains
+    // x according to Region comparisons.
+    private boolean cellContaining(int d, double x, long[] cells)
+    {
+        long c = cellCoord(d, x);
+        cells[d] = c;
+        return gridLine(d, c) <= x && (c == gHi[d] || gridLine(d, c + 1) > x);
+    }
+
+    // Decompose spatialObject by Region comparisons.
+    private void decomposeRegions(SpatialObject spatialObject, long[] zs, int offset, int maxZ)
+    {
+        if (!spatialObject.containedBy(this)) {
+            throw SpatialObjectException.notContainedBySpace(spatialObject, this);
+        }
+        Decomposition decomposition = decompositions.get();
+        int maxRegions = maxZ;
+        int zCount = 0;
+        Region region = decomposition.region;
+        boolean box = spatialObject instanceof AxisAlignedBox;
+        boolean children = box || spatialObject instanceof ChildComparison;
+        if (box) {
+            decomposition.box((AxisAlignedBox) spatialObject);
+            decomposition.startBox(region);
+        } else {
+            region.reset(spatialObject.arbitraryPoint());
+            while (!spatialObject.containedBy(region)) {
+                region.up();
+            }
+        }
+        if (maxRegions == 1) {
+            zs[offset] = z(region);
+        } else {
+            RegionQueue queue = decomposition.queue;
+            queue.reset(maxRegions);
+            queue.add(region);
+            while (!queue.isEmpty()) {
+                queue.poll(region);
+                if (region.isPoint()) {
+                    zs[offset + zCount++] = z(region);
+                } else {
+                    RegionComparison leftComparison;
+                    RegionComparison rightComparison;
+                    if (children) {
+                        RegionComparison[] comparisons = decomposition.comparisons;
+                        if (box) {
+                            decomposition.compareBoxChildren(region, comparisons);
+                        } else {
+                            ((ChildComparison) spatialObject).compareChildren(region,
+                                                                              region.splitDimension(),
+                                                                              comparisons);
+                        }
+                        boolean lowerChildLeft = region.lowerChildLeft();
+                        leftComparison = comparisons[lowerChildLeft ? 0 : 1];
+                        rightComparison = comparisons[lowerChildLeft ? 1 : 0];
+                        region.downRight();
+                    } else {
+                        region.downLeft();
+                        leftComparison = spatialObject.compare(region);
+                        region.up();
+                        region.downRight();
+                        rightComparison = spatialObject.compare(region);
+                    }
+                    switch (leftComparison) {
+                        case REGION_OUTSIDE_OBJECT:
+                            switch (rightComparison) {
+                                case REGION_OUTSIDE_OBJECT:
+                                    assert false;
+                                    break;
+                                case REGION_INSIDE_OBJECT:
+                                    zs[offset + zCount++] = z(region);
+                                    break;
+                                case REGION_OVERLAPS_OBJECT:
+                                    queue.add(region);
+                                    break;
+                            }
+                            break;
+                        case REGION_INSIDE_OBJECT:
+                            switch (rightComparison) {
+                                case REGION_OUTSIDE_OBJECT:
+                                    region.up();
+                                    region.downLeft();
+                                    zs[offset + zCount++] = z(region);
+                                    break;
+                                case REGION_INSIDE_OBJECT:
+                                    region.up();
+                                    zs[offset + zCount++] = z(region);
+                                    break;
+                                case REGION_OVERLAPS_OBJECT:
+                                    if (queue.size() + 1 + zCount < maxRegions) {
+                                        queue.add(region);
+                                        region.up();
+                                        region.downLeft();
+                                        zs[offset + zCount++] = z(region);
+                                    } else {
+                                        region.up();
+                                        zs[offset + zCount++] = z(region);
+                                    }
+                                    break;
+                            }
+                            break;
+                        case REGION_OVERLAPS_OBJECT:
+                            switch (rightComparison) {
+                                case REGION_OUTSIDE_OBJECT:
+                                    region.up();
+                                    region.downLeft();
+                                    queue.add(region);
+                                    break;
+                                case REGION_INSIDE_OBJECT:
+                                    if (queue.size() + 1 + zCount < maxRegions) {
+                                        zs[offset + zCount++] = z(region);
+                                        region.up();
+                                        region.downLeft();
+                                        queue.add(region);
+                                    } else {
+                                        region.up();
+                                        zs[offset + zCount++] = z(region);
+                                    }
+                                    break;
+                                case REGION_OVERLAPS_OBJECT:
+                                    if (queue.size() + 1 + zCount < maxRegions) {
+                                        queue.add(region);
+                                        region.up();
+                                        region.downLeft();
+                                        queue.add(region);
+                                    } else {
+                                        region.up();
+                                        zs[offset + zCount++] = z(region);
+                                    }
+                                    break;
+                            }
+                            break;
+                    }
+                }
+            }
+            while (!queue.isEmpty()) {
+                queue.poll(region);
+                zs[offset + zCount++] = z(region);
+            }
+            for (int i = zCount; i < maxRegions; i++) {
+                zs[offset + i] = Z_NULL;
+            }
+            Arrays.sort(zs, offset, offset + zCount);
+            boolean merge;
+            do {
+                merge = false;
+                for (int i = 1; i < zCount; i++) {
+                    long a = zs[offset + i - 1];
+                    long b = zs[offset + i];
+                    if ((merge = siblings(a, b))) {
+                        zs[offset + i - 1] = parent(a);
+                        System.arraycopy(zs, offset + i + 1, zs, offset + i, zCount - i - 1);
+                        zs[offset + --zCount] = Z_NULL;
+                    }
+                }
+            } while (merge);
+        }
+    }
+
     private int[] defaultInterleaving()
     {
         int[] interleave = new int[zBits];
@@ -483,16 +782,59 @@ public class SpaceImpl extends Space
         return shuffle;
     }
 
+    private long[][][] computeUnshuffleMasks()
+    {
+        // The inverse of the shuffle masks: unshuffle[b][d][z] is a mask representing the bits of x[d]
+        // contributed by z, the bth byte of a z-value, (counting from the right).
+        long[][][] unshuffle = new long[8][][];
+        for (int zBytePosition = 0; zBytePosition < 8; zBytePosition++) {
+            unshuffle[zBytePosition] = new long[dimensions][];
+            for (int d = 0; d < dimensions; d++) {
+                unshuffle[zBytePosition][d] = new long[256];
+            }
+        }
+        int[] xBitCount = new int[dimensions];
+        for (int zBitPosition = 0; zBitPosition < zBits; zBitPosition++) {
+            int d = interleave[zBitPosition];
+            long xMask = 1L << (gBits[d] - xBitCount[d] - 1);
+            xBitCount[d]++;
+            int zBitRightShift = 62 - zBitPosition;
+            int zBytePosition = zBitRightShift / 8;
+            long zMask = 1L << (zBitRightShift % 8);
+            for (int zByte = 0; zByte <= 0xff; zByte++) {
+                if ((zByte & zMask) != 0) {
+                    unshuffle[zBytePosition][d][zByte] |= xMask;
+                }
+            }
+        }
+        return unshuffle;
+    }
+
+    private long[][] computeUndeterminedBits()
+    {
+        // undeterminedBits[length][d] is a mask of the bits of x[d] not determined by a z-value of the given
+        // length.
+        long[][] undeterminedBits = new long[zBits + 1][dimensions];
+        int[] xBitCount = new int[dimensions];
+        for (int length = 0; length <= zBits; length++) {
+            if (length > 0) {
+                xBitCount[interleave[length - 1]]++;
+            }
+            for (int d = 0; d < dimensions; d++) {
+                undeterminedBits[length][d] = (1L << (gBits[d] - xBitCount[d])) - 1;
+            }
+        }
+        return undeterminedBits;
+    }
+
     private long z(Region region)
     {
         return region.z();
     }
 
-    private static void check(boolean constraint, String template, Object... args)
+    private static boolean below(double gridLine, double appCoord, boolean inclusive)
     {
-        if (!constraint) {
-            throw new IllegalArgumentException(String.format(template, args));
-        }
+        return inclusive ? gridLine <= appCoord : gridLine < appCoord;
     }
 
     // Class state
@@ -502,6 +844,8 @@ public class SpaceImpl extends Space
     public static final int MAX_Z_BITS = 57; // MSB is unused. 6 LSBs contain the number of z-value bits.
     public static final long Z_MIN = 0x0L;
     public static final long Z_MAX = ((1L << MAX_Z_BITS) - 1) << LENGTH_BITS | LENGTH_MASK;
+    // Batches no larger than this are decomposed by one thread
+    private static final int BATCH_DECOMPOSITION_CHUNK = 256;
 
     // Object state
 
@@ -523,4 +867,191 @@ public class SpaceImpl extends Space
     private final long[][] shuffle5;
     private final long[][] shuffle6;
     private final long[][] shuffle7;
+    // For unshuffling
+    private final int zLowByte; // Rightmost byte of a z-value containing z-value bits
+    private final long[][] unshuffle0;
+    private final long[][] unshuffle1;
+    private final long[][] unshuffle2;
+    private final long[][] unshuffle3;
+    private final long[][] unshuffle4;
+    private final long[][] unshuffle5;
+    private final long[][] unshuffle6;
+    private final long[][] unshuffle7;
+    private final long[][] undeterminedBits;
+    // For decomposition
+    private final ThreadLocal<Decomposition> decompositions =
+        new ThreadLocal<Decomposition>()
+        {
+            @Override
+            protected Decomposition initialValue()
+            {
+                return new Decomposition(SpaceImpl.this);
+            }
+        };
+
+    // Inner classes
+
+    // Decomposes spatialObjects[from:to], storing the z-values of spatialObjects[i] at zs[offsets[i]].
+    private class BatchDecomposition extends RecursiveAction
+    {
+        @Override
+        protected void compute()
+        {
+            if (to - from <= BATCH_DECOMPOSITION_CHUNK) {
+                for (int i = from; i < to; i++) {
+                    decompose(spatialObjects[i], zs, offsets[i], offsets[i + 1] - offsets[i]);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BatchDecomposition(spatialObjects, zs, offsets, from, mid),
+                          new BatchDecomposition(spatialObjects, zs, offsets, mid, to));
+            }
+        }
+
+        BatchDecomposition(SpatialObject[] spatialObjects, long[] zs, int[] offsets, int from, int to)
+        {
+            this.spatialObjects = spatialObjects;
+            this.zs = zs;
+            this.offsets = offsets;
+            this.from = from;
+            this.to = to;
+        }
+
+        private static final long serialVersionUID = 1L;
+
+        private final SpatialObject[] spatialObjects;
+        private final long[] zs;
+        private final int[] offsets;
+        private final int from;
+        private final int to;
+    }
+
+    // State used by decompose, confined to one thread.
+    private static class Decomposition
+    {
+        // Set up the decomposition of an AxisAlignedBox. Region comparisons to the box are done on cell numbers,
+        // using, for each dimension, the following properties of a Region with cells loCell .. hiCell:
+        // - lo >= box.lo iff loCell >= firstCellAbove, (grid lines below box.lo are numbered 0 .. firstCellAbove - 1).
+        // - lo <= box.lo iff loCell <= lastCellAtLo, (grid lines at or below box.lo are 0 .. lastCellAtLo).
+        // - hi <= box.lo iff hiCell < lastCellAtLo, (hi is grid line hiCell + 1).
+        // - lo <= box.hi iff loCell <= lastCellAtHi, and hi <= box.hi iff hiCell < lastCellAtHi.
+        // - hi is never less than a coordinate if hiCell = gHi, (see Region.hiLT).
+        void box(AxisAlignedBox box)
+        {
+            for (int d = 0; d < space.dimensions; d++) {
+                double lo = box.boxLo(d);
+                double hi = box.boxHi(d);
+                firstCellAbove[d] = space.gridLinesBelow(d, lo, false);
+                lastCellAtLo[d] = space.gridLinesBelow(d, lo, true) - 1;
+                lastCellAtHi[d] = space.gridLinesBelow(d, hi, true) - 1;
+            }
+            arbitraryPoint = box.arbitraryPoint();
+        }
+
+        // Positions region at the smallest Region containing the box, i.e., the smallest Region containing
+        // the cell of the box's arbitrary point for which containedBy(region) is true. That region must contain
+        // the cells at lower and upper, and is therefore identified by the common prefix of their z-values.
+        void startBox(Region region)
+        {
+            for (int d = 0; d < space.dimensions; d++) {
+                long start = space.cellCoord(d, arbitraryPoint[d]);
+                // containedBy requires lo <= box.lo, and hi >= box.hi (or the region is at the space's high edge).
+                lower[d] = Math.min(start, lastCellAtLo[d]);
+                upper[d] = Math.max(start, Math.min(lastCellAtHi[d], space.gHi[d]));
+            }
+            long differ = space.shuffle(lower) ^ space.shuffle(upper);
+            int level =
+                differ == 0
+                ? space.zBits
+                : Long.numberOfLeadingZeros(differ) - 1;
+            region.reset(lower, level);
+        }
+
+        RegionComparison compareBox(Region region)
+        {
+            boolean inside = true;
+            boolean outside = false;
+            for (int d = 0; !outside && d < space.dimensions; d++) {
+                long loCell = region.loCell(d);
+                long hiCell = region.hiCell(d);
+                inside = inside && insideBox(d, loCell, hiCell);
+                outside = outsideBox(d, loCell, hiCell);
+            }
+            return comparison(inside, outside);
+        }
+
+        // Compares the children of region to the box, storing the comparisons of the lower and upper children in
+        // comparisons[0] and [1]. The children are compared to the box in the split dimension only, as
+        // the comparisons in other dimensions are the same as for region.
+        void compareBoxChildren(Region region, RegionComparison[] comparisons)
+        {
+            int split = region.splitDimension();
+            boolean inside = true;
+            boolean outside = false;
+            for (int d = 0; !outside && d < space.dimensions; d++) {
+                if (d != split) {
+                    long loCell = region.loCell(d);
+                    long hiCell = region.hiCell(d);
+                    inside = inside && insideBox(d, loCell, hiCell);
+                    outside = outsideBox(d, loCell, hiCell);
+                }
+            }
+            long loCell = region.loCell(split);
+            long hiCell = region.hiCell(split);
+            long splitCell = region.splitCell();
+            comparisons[0] =
+                comparison(inside && insideBox(split, loCell, splitCell - 1),
+                           outside || outsideBox(split, loCell, splitCell - 1));
+            comparisons[1] =
+                comparison(inside && insideBox(split, splitCell, hiCell),
+                           outside || outsideBox(split, splitCell, hiCell));
+        }
+
+        // Indicates whether the cells loCell .. hiCell of dimension d are inside the box in that dimension.
+        private boolean insideBox(int d, long loCell, long hiCell)
+        {
+            return loCell >= firstCellAbove[d] && hiCell != space.gHi[d] && hiCell < lastCellAtHi[d];
+        }
+
+        // Indicates whether the cells loCell .. hiCell of dimension d are outside the box in that dimension.
+        private boolean outsideBox(int d, long loCell, long hiCell)
+        {
+            return hiCell != space.gHi[d] && hiCell < lastCellAtLo[d] || loCell > lastCellAtHi[d];
+        }
+
+        private static RegionComparison comparison(boolean inside, boolean outside)
+        {
+            return
+                outside ? RegionComparison.REGION_OUTSIDE_OBJECT :
+                inside ? RegionComparison.REGION_INSIDE_OBJECT :
+                RegionComparison.REGION_OVERLAPS_OBJECT;
+        }
+
+        Decomposition(SpaceImpl space)
+        {
+            this.space = space;
+            this.region = space.newRegion(space.appLo);
+            this.queue = new RegionQueue(space.dimensions);
+            this.firstCellAbove = new long[space.dimensions];
+            this.lastCellAtLo = new long[space.dimensions];
+            this.lastCellAtHi = new long[space.dimensions];
+            this.lower = new long[space.dimensions];
+            this.upper = new long[space.dimensions];
+            this.point = new double[space.dimensions];
+        }
+
+        final SpaceImpl space;
+        final Region region;
+        final RegionQueue queue;
+        final RegionComparison[] comparisons = new RegionComparison[2];
+        // For decomposing an AxisAlignedBox
+        final long[] firstCellAbove;
+        final long[] lastCellAtLo;
+        final long[] lastCellAtHi;
+        final long[] lower;
+        final long[] upper;
+        // Coordinates of a SpatialPoint, (see pointZ)
+        final double[] point;
+        double[] arbitraryPoint;
+    }
 }
@@ -0,0 +1,72 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.space;
+
+// A 2-dimensional SpaceImpl in which both dimensions have the same number of bits, and the default interleaving,
+// (alternating between dimensions 0 and 1). Coordinates are interleaved by spreading out their bits using
+// shifts and masks, instead of by looking up shuffle masks. z-values are identical to those of a SpaceImpl with
+// the same arguments.
+
+public final class SpaceImpl2D extends SpaceImpl
+{
+    // SpaceImpl interface
+
+    @Override
+    public long shuffle(long[] x, int length)
+    {
+        return ((spread(x[0]) << 1 | spread(x[1])) << shift) | length;
+    }
+
+    @Override
+    public void unshuffle(long z, long[] x)
+    {
+        long bits = z >>> shift;
+        x[0] = compact(bits >>> 1);
+        x[1] = compact(bits);
+    }
+
+    public SpaceImpl2D(double[] lo, double[] hi, int[] gridBits)
+    {
+        super(lo, hi, gridBits, null);
+        check(dimensions == 2, "SpaceImpl2D requires 2 dimensions: %s", dimensions);
+        check(gridBits[0] == gridBits[1],
+              "Both dimensions of a SpaceImpl2D must have the same number of bits: %s != %s",
+              gridBits[0], gridBits[1]);
+        this.shift = 63 - zBits;
+    }
+
+    // For use by this class
+
+    // Moves bit i of x to bit 2i.
+    private static long spread(long x)
+    {
+        x &= 0x00000000ffffffffL;
+        x = (x | (x << 16)) & 0x0000ffff0000ffffL;
+        x = (x | (x << 8)) & 0x00ff00ff00ff00ffL;
+        x = (x | (x << 4)) & 0x0f0f0f0f0f0f0f0fL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    // Moves bit 2i of x to bit i, (the inverse of spread).
+    private static long compact(long x)
+    {
+        x &= 0x5555555555555555L;
+        x = (x | (x >>> 1)) & 0x3333333333333333L;
+        x = (x | (x >>> 2)) & 0x0f0f0f0f0f0f0f0fL;
+        x = (x | (x >>> 4)) & 0x00ff00ff00ff00ffL;
+        x = (x | (x >>> 8)) & 0x0000ffff0000ffffL;
+        x = (x | (x >>> 16)) & 0x00000000ffffffffL;
+        return x;
+    }
+
+    // Object state
+
+    // Distance from the right end of the interleaved coordinates to the right end of the z-value bits.
+    private final int shift;
+}
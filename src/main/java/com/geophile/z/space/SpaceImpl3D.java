@@ -0,0 +1,73 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.space;
+
+// A 3-dimensional SpaceImpl in which all dimensions have the same number of bits, and the default interleaving,
+// (cycling through dimensions 0, 1 and 2). Coordinates are interleaved by spreading out their bits using
+// shifts and masks, instead of by looking up shuffle masks. z-values are identical to those of a SpaceImpl with
+// the same arguments.
+
+public final class SpaceImpl3D extends SpaceImpl
+{
+    // SpaceImpl interface
+
+    @Override
+    public long shuffle(long[] x, int length)
+    {
+        return ((spread(x[0]) << 2 | spread(x[1]) << 1 | spread(x[2])) << shift) | length;
+    }
+
+    @Override
+    public void unshuffle(long z, long[] x)
+    {
+        long bits = z >>> shift;
+        x[0] = compact(bits >>> 2);
+        x[1] = compact(bits >>> 1);
+        x[2] = compact(bits);
+    }
+
+    public SpaceImpl3D(double[] lo, double[] hi, int[] gridBits)
+    {
+        super(lo, hi, gridBits, null);
+        check(dimensions == 3, "SpaceImpl3D requires 3 dimensions: %s", dimensions);
+        check(gridBits[0] == gridBits[1] && gridBits[1] == gridBits[2],
+              "All dimensions of a SpaceImpl3D must have the same number of bits: %s, %s, %s",
+              gridBits[0], gridBits[1], gridBits[2]);
+        this.shift = 63 - zBits;
+    }
+
+    // For use by this class
+
+    // Moves bit i of x to bit 3i. (A coordinate has at most 19 bits, since zBits <= 57.)
+    private static long spread(long x)
+    {
+        x &= 0x00000000001fffffL;
+        x = (x | (x << 32)) & 0x001f00000000ffffL;
+        x = (x | (x << 16)) & 0x001f0000ff0000ffL;
+        x = (x | (x << 8)) & 0x100f00f00f00f00fL;
+        x = (x | (x << 4)) & 0x10c30c30c30c30c3L;
+        x = (x | (x << 2)) & 0x1249249249249249L;
+        return x;
+    }
+
+    // Moves bit 3i of x to bit i, (the inverse of spread).
+    private static long compact(long x)
+    {
+        x &= 0x1249249249249249L;
+        x = (x | (x >>> 2)) & 0x10c30c30c30c30c3L;
+        x = (x | (x >>> 4)) & 0x100f00f00f00f00fL;
+        x = (x | (x >>> 8)) & 0x001f0000ff0000ffL;
+        x = (x | (x >>> 16)) & 0x001f00000000ffffL;
+        x = (x | (x >>> 32)) & 0x00000000001fffffL;
+        return x;
+    }
+
+    // Object state
+
+    // Distance from the right end of the interleaved coordinates to the right end of the z-value bits.
+    private final int shift;
+}
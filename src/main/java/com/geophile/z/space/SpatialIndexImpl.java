@@ -34,11 +34,10 @@ public class SpatialIndexImpl<RECORD extends Record> extends SpatialIndex<RECORD
     public void add(SpatialObject spatialObject, Record.Factory<RECORD> recordFactory, int maxZ)
         throws IOException, InterruptedException
     {
+        // Points are decomposed without a Region walk, (see SpaceImpl.decompose).
         long[] zs = decompose(spatialObject, maxZ);
         for (int i = 0; i < zs.length && zs[i] != SpaceImpl.Z_NULL; i++) {
-            RECORD record = recordFactory.newRecord();
-            record.z(zs[i]);
-            index.add(record);
+            add(zs[i], recordFactory);
         }
         if (LOG.isLoggable(Level.FINE)) {
             LOG.log(Level.FINE, "add {0}", spatialObject);
@@ -70,6 +69,7 @@ public class SpatialIndexImpl<RECORD extends Record> extends SpatialIndex<RECORD
                 } else if (record.z() == z) {
                     if (recordFilter.select(record)) {
                         cursor.deleteCurrent();
+                        index.zLengths().removed(z);
                         recordsDeleted++;
                         found = true;
                     }
@@ -90,11 +90,28 @@ public class SpatialIndexImpl<RECORD extends Record> extends SpatialIndex<RECORD
         return singleCell;
     }
 
-    public Index index()
+    public Index<RECORD> index()
     {
         return index;
     }
 
+    /**
+     * Returns a mask of the z-value lengths present in the index: bit i is set if the index may contain a record
+     * whose z-value has length i. See {@link com.geophile.z.space.ZLengths}.
+     * @return A mask of z-value lengths present in the index.
+     */
+    public long zLengths() throws IOException, InterruptedException
+    {
+        return index.zLengths().mask();
+    }
+
+    public void add(long[] zs, Record.Factory<RECORD> recordFactory) throws IOException, InterruptedException
+    {
+        for (int i = 0; i < zs.length && zs[i] != SpaceImpl.Z_NULL; i++) {
+            add(zs[i], recordFactory);
+        }
+    }
+
     public SpatialIndexImpl(SpaceImpl space, Index<RECORD> index, Options options)
         throws IOException, InterruptedException
     {
@@ -104,6 +121,15 @@ public class SpatialIndexImpl<RECORD extends Record> extends SpatialIndex<RECORD
 
     // For use by this class
 
+    private void add(long z, Record.Factory<RECORD> recordFactory) throws IOException, InterruptedException
+    {
+        RECORD record = recordFactory.newRecord();
+        record.z(z);
+        // Record the length first, so that zLengths() never omits the length of a record in the index.
+        index.zLengths().added(z);
+        index.add(record);
+    }
+
     private long[] decompose(SpatialObject spatialObject, int maxZ)
     {
         if (maxZ == USE_SPATIAL_OBJECT_MAX_Z) {
@@ -112,8 +138,15 @@ public class SpatialIndexImpl<RECORD extends Record> extends SpatialIndex<RECORD
         if (singleCell && maxZ > 1) {
             throw new SingleCellException(spatialObject);
         }
-        long[] zs = new long[maxZ];
-        space.decompose(spatialObject, zs);
+        // The buffer is reused by this thread, and may be longer than needed. A Z_NULL follows the z-values
+        // even if all maxZ are used.
+        long[] zs = zBuffer.get();
+        if (zs.length <= maxZ) {
+            zs = new long[maxZ + 1];
+            zBuffer.set(zs);
+        }
+        space.decompose(spatialObject, zs, maxZ);
+        zs[maxZ] = SpaceImpl.Z_NULL;
         return zs;
     }
 
@@ -124,4 +157,14 @@ public class SpatialIndexImpl<RECORD extends Record> extends SpatialIndex<RECORD
     // Object state
 
     private final boolean singleCell;
+    // Holds the z-values of a decomposition
+    private final ThreadLocal<long[]> zBuffer =
+        new ThreadLocal<long[]>()
+        {
+            @Override
+            protected long[] initialValue()
+            {
+                return new long[0];
+            }
+        };
 }
@@ -0,0 +1,25 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.space;
+
+import com.geophile.z.SpatialObject;
+
+/**
+ * A {@link com.geophile.z.SpatialObject} consisting of a single point, whose Region comparisons are exactly those
+ * of {@link com.geophile.z.spatialobject.d2.Point}. The z-value of such an object is usually computed directly from
+ * its coordinates, without the Region comparisons of decomposition. The resulting z-values are identical.
+ */
+
+public interface SpatialPoint extends SpatialObject
+{
+    /**
+     * Returns the coordinate of the point in dimension d.
+     * @param d A dimension of the space.
+     * @return The coordinate of the point in dimension d.
+     */
+    double coordinate(int d);
+}
@@ -0,0 +1,134 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.space;
+
+import com.geophile.z.Cursor;
+import com.geophile.z.Index;
+import com.geophile.z.Record;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The lengths of the z-values of the records in an {@link com.geophile.z.Index}. Each Index has one ZLengths,
+ * so all the {@link com.geophile.z.SpatialIndex}es containing an Index count the records added and removed
+ * through any of them. The records already in the Index are counted by scanning it, the first time the lengths
+ * are needed. After that, records must be added and removed only through SpatialIndexes, and not concurrently
+ * with the first call of {@link #mask()}.
+ */
+
+public class ZLengths
+{
+    // ZLengths interface
+
+    /**
+     * Returns a mask of the lengths of the z-values in the index: bit i is set if the index may contain a record
+     * whose z-value has length i.
+     * @return A mask of the lengths of the z-values in the index.
+     */
+    public long mask() throws IOException, InterruptedException
+    {
+        if (!counted) {
+            countRecords();
+        }
+        return mask.get();
+    }
+
+    /**
+     * Must be called before a record with z-value z is added to the index, so that mask() never omits the length
+     * of a record in the index.
+     * @param z The z-value of the record being added.
+     */
+    public void added(long z)
+    {
+        if (counted) {
+            increment(SpaceImpl.length(z));
+        }
+    }
+
+    /**
+     * Must be called after a record with z-value z is removed from the index.
+     * @param z The z-value of the record removed.
+     */
+    public void removed(long z)
+    {
+        if (counted) {
+            int length = SpaceImpl.length(z);
+            if (counts.decrementAndGet(length) == 0) {
+                clear(length);
+                // A concurrent add may have counted this length after the decrement, and set the bit before
+                // it was cleared.
+                if (counts.get(length) > 0) {
+                    set(length);
+                }
+            }
+        }
+    }
+
+    public ZLengths(Index<?> index)
+    {
+        this.index = index;
+    }
+
+    // For use by this class
+
+    // Until the first call of mask(), additions and removals are not counted, as the scan counts the records
+    // present then.
+    private synchronized void countRecords() throws IOException, InterruptedException
+    {
+        if (!counted) {
+            scan(index);
+            counted = true;
+        }
+    }
+
+    private <RECORD extends Record> void scan(Index<RECORD> index) throws IOException, InterruptedException
+    {
+        Cursor<RECORD> cursor = index.cursor();
+        RECORD key = index.newKeyRecord();
+        key.z(SpaceImpl.Z_MIN);
+        cursor.goTo(key);
+        RECORD record;
+        while ((record = cursor.next()) != null) {
+            increment(SpaceImpl.length(record.z()));
+        }
+        cursor.close();
+    }
+
+    private void increment(int length)
+    {
+        if (counts.getAndIncrement(length) == 0) {
+            set(length);
+        }
+    }
+
+    private void set(int length)
+    {
+        long current;
+        do {
+            current = mask.get();
+        } while (!mask.compareAndSet(current, current | (1L << length)));
+    }
+
+    private void clear(int length)
+    {
+        long current;
+        do {
+            current = mask.get();
+        } while (!mask.compareAndSet(current, current & ~(1L << length)));
+    }
+
+    // Object state
+
+    private final Index<?> index;
+    // counts[i] is the number of records in the index whose z-value has length i. mask has bit i set iff
+    // counts[i] > 0. Neither is maintained until counted is set.
+    private volatile boolean counted = false;
+    private final AtomicIntegerArray counts = new AtomicIntegerArray(SpaceImpl.MAX_Z_BITS + 1);
+    private final AtomicLong mask = new AtomicLong(0L);
+}
@@ -0,0 +1,122 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.spatialjoin;
+
+import com.geophile.z.Record;
+import com.geophile.z.index.RecordWithSpatialObject;
+import com.geophile.z.space.SpaceImpl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// The covers of the spatial objects of records found by a spatial join. The cover of a spatial object is the
+// smallest z-value containing it, and so contains all the z-values of its decomposition. A spatial object is
+// decomposed once, when a record of it is first found, and not once per pair containing the record. Its cover is
+// remembered until the join's watermark, (the z-value being exited), passes the end of the cover, after which
+// no record of the spatial object is found again, (see OutputWindow).
+//
+// The cover is known only for a RecordWithSpatialObject.
+
+class Covers
+{
+    // Object interface
+
+    @Override
+    public String toString()
+    {
+        return String.format("Covers(%s, watermark: %s)", covers.size(), SpaceImpl.formatZ(watermark));
+    }
+
+    // Covers interface
+
+    // The cover of record's spatial object, or Z_NULL if record has no known spatial object.
+    public long cover(Record record)
+    {
+        long cover = SpaceImpl.Z_NULL;
+        if (record instanceof RecordWithSpatialObject) {
+            RecordWithSpatialObject recordWithSpatialObject = (RecordWithSpatialObject) record;
+            // Records are equal if their spatial objects are.
+            Long known = covers.get(recordWithSpatialObject);
+            if (known == null) {
+                space.decompose(recordWithSpatialObject.spatialObject(), zs);
+                cover = zs[0];
+                covers.put(recordWithSpatialObject, cover);
+                window.add(new Cover(recordWithSpatialObject, end(SpaceImpl.zHi(cover))));
+            } else {
+                cover = known;
+            }
+        }
+        return cover;
+    }
+
+    // Forgets covers of spatial objects that can't be found by the join after it reaches watermark.
+    public void advance(long watermark)
+    {
+        long end = end(watermark);
+        assert end >= end(this.watermark);
+        this.watermark = watermark;
+        Cover oldest;
+        while ((oldest = window.peek()) != null && oldest.end < end) {
+            window.poll();
+            covers.remove(oldest.record);
+        }
+    }
+
+    public int size()
+    {
+        return covers.size();
+    }
+
+    // An upper bound on the end of the z-values of a record whose spatial object has the given cover, or Z_MAX if
+    // none is known.
+    public static long lastZ(long cover)
+    {
+        return cover == SpaceImpl.Z_NULL ? SpaceImpl.Z_MAX : SpaceImpl.zHi(cover);
+    }
+
+    public Covers(SpaceImpl space)
+    {
+        this.space = space;
+    }
+
+    // For use by this class
+
+    // The end of the z-values ending at z, (see OutputWindow.end).
+    private static long end(long z)
+    {
+        return z >>> SpaceImpl.LENGTH_BITS;
+    }
+
+    // Object state
+
+    private final SpaceImpl space;
+    private final long[] zs = new long[1];
+    private final Map<RecordWithSpatialObject, Long> covers = new HashMap<>();
+    private final PriorityQueue<Cover> window = new PriorityQueue<>();
+    private long watermark = SpaceImpl.Z_MIN;
+
+    // Inner classes
+
+    private static class Cover implements Comparable<Cover>
+    {
+        @Override
+        public int compareTo(Cover that)
+        {
+            return Long.compare(this.end, that.end);
+        }
+
+        Cover(RecordWithSpatialObject record, long end)
+        {
+            this.record = record;
+            this.end = end;
+        }
+
+        final RecordWithSpatialObject record;
+        final long end;
+    }
+}
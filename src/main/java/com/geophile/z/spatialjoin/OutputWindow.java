@@ -0,0 +1,105 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.spatialjoin;
+
+import com.geophile.z.space.SpaceImpl;
+
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+// The spatial join output already returned, for duplicate elimination. The spatial join finds output as it
+// exits z-values, in z-order. A pair of records is found again only while both records have z-values that haven't
+// been exited. So output is remembered until the join's watermark, (the z-value being exited), passes the end of
+// the z-values of one of its records. Memory is then proportional to the output in the window of z-values being
+// joined, instead of to all the output.
+//
+// The end of a record's z-values is bounded by the end of the smallest z-value containing its spatial object,
+// (see Covers), which is known only for a RecordWithSpatialObject. Output involving no such record is remembered
+// until the end of the join.
+
+class OutputWindow<T>
+{
+    // Object interface
+
+    @Override
+    public String toString()
+    {
+        return String.format("OutputWindow(%s, watermark: %s)", seen.size(), SpaceImpl.formatZ(watermark));
+    }
+
+    // OutputWindow interface
+
+    public boolean contains(T output)
+    {
+        return seen.contains(output);
+    }
+
+    // Remembers output, which won't be found again after the join passes lastZ. Returns false if the output is
+    // already remembered.
+    public boolean add(T output, long lastZ)
+    {
+        boolean added = seen.add(output);
+        if (added && lastZ != SpaceImpl.Z_MAX) {
+            window.add(new Seen<>(output, end(lastZ)));
+        }
+        return added;
+    }
+
+    // Forgets output that can't be found by the join after it reaches watermark.
+    public void advance(long watermark)
+    {
+        long end = end(watermark);
+        assert end >= end(this.watermark);
+        this.watermark = watermark;
+        Seen<T> oldest;
+        while ((oldest = window.peek()) != null && oldest.end < end) {
+            window.poll();
+            seen.remove(oldest.output);
+        }
+    }
+
+    public int size()
+    {
+        return seen.size();
+    }
+
+    // For use by this class
+
+    // The end of the z-values ending at z, (as returned by SpaceImpl.zHi). z-values ending at the same point,
+    // (e.g. a z-value and its last child), differ in their length bits, which are therefore ignored.
+    private static long end(long z)
+    {
+        return z >>> SpaceImpl.LENGTH_BITS;
+    }
+
+    // Object state
+
+    private final Set<T> seen = new HashSet<>();
+    private final PriorityQueue<Seen<T>> window = new PriorityQueue<>();
+    private long watermark = SpaceImpl.Z_MIN;
+
+    // Inner classes
+
+    private static class Seen<T> implements Comparable<Seen<T>>
+    {
+        @Override
+        public int compareTo(Seen<T> that)
+        {
+            return Long.compare(this.end, that.end);
+        }
+
+        Seen(T output, long end)
+        {
+            this.output = output;
+            this.end = end;
+        }
+
+        final T output;
+        final long end;
+    }
+}
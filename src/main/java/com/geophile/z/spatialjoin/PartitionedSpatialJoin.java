@@ -0,0 +1,427 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.spatialjoin;
+
+import com.geophile.z.Cursor;
+import com.geophile.z.Index;
+import com.geophile.z.Pair;
+import com.geophile.z.Record;
+import com.geophile.z.SpatialJoin;
+import com.geophile.z.SpatialJoinRuntimeException;
+import com.geophile.z.space.SpaceImpl;
+import com.geophile.z.space.SpatialIndexImpl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Computes a spatial join in parallel. The z-space is divided into consecutive ranges, each starting at a z-value
+// of maximum length, so that a range boundary never falls inside a cell. The boundaries are chosen so that the
+// ranges have similar numbers of records, as estimated by probing both inputs, (see partitionStarts). The join of
+// each range's partitions is computed by a SpatialJoinIterator on one of the pool's threads, (see
+// SpatialJoinIterator.pairIterator for the handling of records whose z-values span a boundary).
+//
+// The threads join the ranges in order, each passing its output to the Iterator through a bounded queue for the
+// range. The Iterator drains the queues in range order, so the pairs are those of a serial join, in a similar
+// order. A thread whose queue is full waits for the Iterator to catch up, while the other threads continue with
+// later ranges. Because ranges are started in order, the range being drained has always been started. Threads
+// waiting for each other do so through ForkJoinPool.managedBlock, so that the pool can compensate for blocked
+// threads. Closing the Iterator stops the threads, and releases any waiting to pass it output.
+
+class PartitionedSpatialJoin<LEFT_RECORD extends Record, RIGHT_RECORD extends Record>
+{
+    // PartitionedSpatialJoin interface
+
+    public static <LEFT_RECORD extends Record, RIGHT_RECORD extends Record>
+    SpatialJoin.CloseableIterator<Pair<LEFT_RECORD, RIGHT_RECORD>>
+    pairIterator(SpatialIndexImpl<LEFT_RECORD> leftSpatialIndex,
+                 SpatialIndexImpl<RIGHT_RECORD> rightSpatialIndex,
+                 SpatialJoin.Filter<Record, Record> filter,
+                 SpatialJoin.InputObserver leftInputObserver,
+                 SpatialJoin.InputObserver rightInputObserver,
+                 boolean excludeDuplicates,
+                 ForkJoinPool pool)
+        throws IOException, InterruptedException
+    {
+        PartitionedSpatialJoin<LEFT_RECORD, RIGHT_RECORD> join =
+            new PartitionedSpatialJoin<>(leftSpatialIndex,
+                                         rightSpatialIndex,
+                                         filter,
+                                         leftInputObserver,
+                                         rightInputObserver,
+                                         excludeDuplicates,
+                                         partitionStarts(leftSpatialIndex,
+                                                         rightSpatialIndex,
+                                                         pool.getParallelism() * PARTITIONS_PER_THREAD));
+        int threads = Math.min(pool.getParallelism(), join.partitions());
+        for (int t = 0; t < threads; t++) {
+            pool.execute(join.new PartitionJoin());
+        }
+        return join.new Output();
+    }
+
+    // For use by this class
+
+    // Returns the starts of the ranges dividing the z-space into at most partitions ranges. The first range
+    // starts at Z_MIN, and each range ends where the next one starts. The number of records in the inputs is
+    // estimated at PROBES_PER_PARTITION evenly spaced z-values per partition, (see estimateRecords), without
+    // scanning the inputs, and the boundaries interpolate the estimates.
+    private static long[] partitionStarts(SpatialIndexImpl<?> leftSpatialIndex,
+                                          SpatialIndexImpl<?> rightSpatialIndex,
+                                          int partitions)
+        throws IOException, InterruptedException
+    {
+        int probes = partitions * PROBES_PER_PARTITION;
+        double[] records = new double[probes];
+        estimateRecords(leftSpatialIndex.index(), records);
+        estimateRecords(rightSpatialIndex.index(), records);
+        double total = 0;
+        for (double probeRecords : records) {
+            total += probeRecords;
+        }
+        long[] starts = new long[partitions];
+        int n = 0;
+        starts[n++] = SpaceImpl.Z_MIN;
+        // preceding is the estimated number of records preceding the interval of probe i
+        double preceding = 0;
+        int i = 0;
+        for (int p = 1; p < partitions && total > 0; p++) {
+            double target = total * p / partitions;
+            while (i < probes - 1 && preceding + records[i] < target) {
+                preceding += records[i++];
+            }
+            double fraction = records[i] == 0 ? 0 : Math.min(1, (target - preceding) / records[i]);
+            long position =
+                Math.min(POSITIONS - 1,
+                         probePosition(i, probes) +
+                         (long) (fraction * (probePosition(i + 1, probes) - probePosition(i, probes))));
+            long start = (position << SpaceImpl.LENGTH_BITS) | SpaceImpl.MAX_Z_BITS;
+            if (start > starts[n - 1]) {
+                starts[n++] = start;
+            }
+        }
+        return Arrays.copyOf(starts, n);
+    }
+
+    // Adds to records[i] an estimate of the number of records of index whose z-values start in the interval from
+    // probe i to probe i + 1. At most RECORDS_PER_PROBE records are read for each probe. If the interval contains
+    // that many, then the number is extrapolated from the part of the interval that they occupy.
+    private static <RECORD extends Record> void estimateRecords(Index<RECORD> index, double[] records)
+        throws IOException, InterruptedException
+    {
+        int probes = records.length;
+        Cursor<RECORD> cursor = index.cursor();
+        RECORD key = index.newKeyRecord();
+        for (int i = 0; i < probes; i++) {
+            long start = probePosition(i, probes);
+            long end = probePosition(i + 1, probes);
+            key.z(start << SpaceImpl.LENGTH_BITS);
+            cursor.goTo(key);
+            int found = 0;
+            long last = start;
+            boolean more = true;
+            while (more && found < RECORDS_PER_PROBE) {
+                RECORD record = cursor.next();
+                more = record != null && (record.z() >>> SpaceImpl.LENGTH_BITS) < end;
+                if (more) {
+                    found++;
+                    last = record.z() >>> SpaceImpl.LENGTH_BITS;
+                }
+            }
+            records[i] += more ? (double) found * (end - start) / (last - start + 1) : found;
+        }
+        cursor.close();
+    }
+
+    // The position, (a z-value without its length bits), of probe i of the given number of probes. Probe
+    // number probes is the end of the z-space.
+    private static long probePosition(int i, int probes)
+    {
+        return i == probes ? POSITIONS : i * (POSITIONS / probes);
+    }
+
+    private int partitions()
+    {
+        return partitionStarts.length;
+    }
+
+    // Records the failure of the given partition, and ends its output, so that the Iterator, which may be waiting
+    // for the output, reports the failure. The output already in the queue is dropped, to make room for the end.
+    private void fail(int partition, Throwable failure)
+    {
+        this.failure = failure;
+        if (partition >= 0 && partition < partitions()) {
+            BlockingQueue<Pair<LEFT_RECORD, RIGHT_RECORD>> output = outputs.get(partition);
+            output.clear();
+            output.offer(end);
+        }
+    }
+
+    private PartitionedSpatialJoin(SpatialIndexImpl<LEFT_RECORD> leftSpatialIndex,
+                                   SpatialIndexImpl<RIGHT_RECORD> rightSpatialIndex,
+                                   SpatialJoin.Filter<Record, Record> filter,
+                                   SpatialJoin.InputObserver leftInputObserver,
+                                   SpatialJoin.InputObserver rightInputObserver,
+                                   boolean excludeDuplicates,
+                                   long[] partitionStarts)
+    {
+        this.leftSpatialIndex = leftSpatialIndex;
+        this.rightSpatialIndex = rightSpatialIndex;
+        this.filter = filter;
+        this.leftInputObserver = leftInputObserver;
+        this.rightInputObserver = rightInputObserver;
+        this.excludeDuplicates = excludeDuplicates;
+        this.partitionStarts = partitionStarts;
+        this.outputs = new ArrayList<>(partitionStarts.length);
+        for (int p = 0; p < partitionStarts.length; p++) {
+            outputs.add(new LinkedBlockingQueue<Pair<LEFT_RECORD, RIGHT_RECORD>>(PARTITION_OUTPUT_CAPACITY));
+        }
+    }
+
+    // Class state
+
+    // More partitions than threads balances the load when partitions take different amounts of time.
+    private static final int PARTITIONS_PER_THREAD = 4;
+    private static final int PROBES_PER_PARTITION = 16;
+    private static final int RECORDS_PER_PROBE = 32;
+    // The number of positions in the z-space
+    private static final long POSITIONS = 1L << SpaceImpl.MAX_Z_BITS;
+    private static final int PARTITION_OUTPUT_CAPACITY = 1000;
+
+    // Object state
+
+    private final SpatialIndexImpl<LEFT_RECORD> leftSpatialIndex;
+    private final SpatialIndexImpl<RIGHT_RECORD> rightSpatialIndex;
+    private final SpatialJoin.Filter<Record, Record> filter;
+    private final SpatialJoin.InputObserver leftInputObserver;
+    private final SpatialJoin.InputObserver rightInputObserver;
+    // If duplicates are to be excluded, each partition excludes its own, (see Refinement). Pairs that may also be
+    // found by other partitions are excluded using crossingPairs, which is shared by all partitions. These are
+    // the pairs of records that aren't both boxes, such that neither spatial object lies within one partition.
+    // Partitions reach the z-values of such a pair at different times, so the pairs are kept until the end of the
+    // join. crossingPairs is therefore bounded by the output involving spatial objects that span a partition
+    // boundary, plus the output involving records without a spatial object, which a serial join also remembers
+    // until its end, (see OutputWindow).
+    private final boolean excludeDuplicates;
+    private final Set<Pair<Record, Record>> crossingPairs =
+        Collections.newSetFromMap(new ConcurrentHashMap<Pair<Record, Record>, Boolean>());
+    private final long[] partitionStarts;
+    // outputs.get(p) holds the output of partition p that hasn't been returned yet, followed by end.
+    private final List<BlockingQueue<Pair<LEFT_RECORD, RIGHT_RECORD>>> outputs;
+    // Follows the output of a partition in its queue
+    private final Pair<LEFT_RECORD, RIGHT_RECORD> end = new Pair<>(null, null);
+    // The next partition to be joined
+    private final AtomicInteger nextPartition = new AtomicInteger(0);
+    private volatile Throwable failure;
+    // Set when the Iterator is closed
+    private volatile boolean cancelled = false;
+
+    // Inner classes
+
+    // Joins partitions, in order, until there are none left, or the Iterator is closed.
+    private class PartitionJoin implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            int partition = -1;
+            try {
+                while (!cancelled && (partition = nextPartition.getAndIncrement()) < partitions()) {
+                    join(partition);
+                }
+            } catch (IOException | InterruptedException | RuntimeException | Error e) {
+                fail(partition, e);
+            }
+        }
+
+        private void join(int partition) throws IOException, InterruptedException
+        {
+            long partitionStart = partitionStarts[partition];
+            long partitionEnd = partition + 1 < partitions() ? partitionStarts[partition + 1] : SpatialJoinInput.EOF;
+            Iterator<Pair<LEFT_RECORD, RIGHT_RECORD>> iterator =
+                pairs(SpatialJoinIterator.pairIterator(leftSpatialIndex,
+                                                       rightSpatialIndex,
+                                                       new Refinement((SpaceImpl) leftSpatialIndex.space(),
+                                                                      filter,
+                                                                      excludeDuplicates,
+                                                                      partitionStart,
+                                                                      partitionEnd,
+                                                                      crossingPairs),
+                                                       leftInputObserver,
+                                                       rightInputObserver,
+                                                       partitionStart,
+                                                       partitionEnd));
+            BlockingQueue<Pair<LEFT_RECORD, RIGHT_RECORD>> output = outputs.get(partition);
+            while (!cancelled && iterator.hasNext()) {
+                put.put(output, iterator.next());
+            }
+            // If the Iterator was closed, the queue was emptied, (see Output.close), and has room for the end.
+            put.put(output, end);
+        }
+
+        // SpatialJoinIterator returns the pairs of records of the inputs.
+        @SuppressWarnings("unchecked")
+        private Iterator<Pair<LEFT_RECORD, RIGHT_RECORD>> pairs(Iterator<?> iterator)
+        {
+            return (Iterator<Pair<LEFT_RECORD, RIGHT_RECORD>>) iterator;
+        }
+
+        private final Put put = new Put();
+    }
+
+    // Returns the output of the partitions, in order.
+    private class Output implements SpatialJoin.CloseableIterator<Pair<LEFT_RECORD, RIGHT_RECORD>>
+    {
+        @Override
+        public boolean hasNext()
+        {
+            ensureNext();
+            return next != null;
+        }
+
+        @Override
+        public Pair<LEFT_RECORD, RIGHT_RECORD> next()
+        {
+            ensureNext();
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Pair<LEFT_RECORD, RIGHT_RECORD> pair = next;
+            next = null;
+            return pair;
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        // Stops the threads joining partitions. Emptying the queues releases threads waiting to pass output.
+        @Override
+        public void close()
+        {
+            cancelled = true;
+            for (BlockingQueue<Pair<LEFT_RECORD, RIGHT_RECORD>> output : outputs) {
+                output.clear();
+            }
+            partition = partitions();
+            next = null;
+        }
+
+        private void ensureNext()
+        {
+            try {
+                while (next == null && partition < partitions()) {
+                    Pair<LEFT_RECORD, RIGHT_RECORD> output = take.take(outputs.get(partition));
+                    if (output == end) {
+                        if (failure != null) {
+                            close();
+                            throw new SpatialJoinRuntimeException(failure);
+                        }
+                        partition++;
+                    } else {
+                        next = output;
+                    }
+                }
+            } catch (InterruptedException e) {
+                close();
+                throw new SpatialJoinRuntimeException(e);
+            }
+        }
+
+        private final Take take = new Take();
+        private int partition = 0;
+        private Pair<LEFT_RECORD, RIGHT_RECORD> next;
+    }
+
+    // Passes output to the Iterator through a partition's queue, waiting while the queue is full. The wait is a
+    // ForkJoinPool.ManagedBlocker, so that the pool can compensate for the blocked worker thread. A Put is used by
+    // one thread.
+    private class Put implements ForkJoinPool.ManagedBlocker
+    {
+        // ManagedBlocker interface
+
+        @Override
+        public boolean block() throws InterruptedException
+        {
+            queue.put(pair);
+            done = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable()
+        {
+            return done || (done = queue.offer(pair));
+        }
+
+        // Put interface
+
+        public void put(BlockingQueue<Pair<LEFT_RECORD, RIGHT_RECORD>> queue, Pair<LEFT_RECORD, RIGHT_RECORD> pair)
+            throws InterruptedException
+        {
+            this.queue = queue;
+            this.pair = pair;
+            this.done = false;
+            ForkJoinPool.managedBlock(this);
+            this.pair = null;
+        }
+
+        // Object state
+
+        private BlockingQueue<Pair<LEFT_RECORD, RIGHT_RECORD>> queue;
+        private Pair<LEFT_RECORD, RIGHT_RECORD> pair;
+        private boolean done;
+    }
+
+    // Takes output from a partition's queue, waiting while the queue is empty, (see Put).
+    private class Take implements ForkJoinPool.ManagedBlocker
+    {
+        // ManagedBlocker interface
+
+        @Override
+        public boolean block() throws InterruptedException
+        {
+            pair = queue.take();
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable()
+        {
+            return pair != null || (pair = queue.poll()) != null;
+        }
+
+        // Take interface
+
+        public Pair<LEFT_RECORD, RIGHT_RECORD> take(BlockingQueue<Pair<LEFT_RECORD, RIGHT_RECORD>> queue)
+            throws InterruptedException
+        {
+            this.queue = queue;
+            ForkJoinPool.managedBlock(this);
+            Pair<LEFT_RECORD, RIGHT_RECORD> pair = this.pair;
+            this.pair = null;
+            return pair;
+        }
+
+        // Object state
+
+        private BlockingQueue<Pair<LEFT_RECORD, RIGHT_RECORD>> queue;
+        private Pair<LEFT_RECORD, RIGHT_RECORD> pair;
+    }
+}
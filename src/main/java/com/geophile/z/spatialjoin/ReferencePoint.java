@@ -0,0 +1,84 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.spatialjoin;
+
+import com.geophile.z.Record;
+import com.geophile.z.SpatialObject;
+import com.geophile.z.index.RecordWithSpatialObject;
+import com.geophile.z.space.AxisAlignedBox;
+import com.geophile.z.space.SpaceImpl;
+
+// Avoids duplicate spatial join output for pairs of boxes, without keeping track of the output already returned.
+// The spatial join finds a pair of records once for each pair of their z-values that overlap. The z-values of a
+// box's decomposition cover the box and don't overlap one another. So for a point in the intersection of two boxes,
+// exactly one z-value of each box contains the cell of the point. Those z-values overlap, and a pair of boxes is
+// returned only when found for them. The point used is the low corner of the intersection.
+//
+// This applies to records with spatial objects that are AxisAlignedBoxes, (see RecordWithSpatialObject), and that
+// intersect. Other pairs, (including false positives), still require duplicate elimination. A ReferencePoint is
+// used by one thread.
+
+class ReferencePoint
+{
+    // ReferencePoint interface
+
+    // The z-value of the cell containing the reference point of a pair of records, or Z_NULL if there is none, in
+    // which case the pair requires duplicate elimination.
+    public long cellZ(Record left, Record right)
+    {
+        return cellZ(spatialObject(left), spatialObject(right));
+    }
+
+    // Indicates whether a pair of records, found by the spatial join for their current z-values, is the one of its
+    // duplicates to be reported: the one whose z-values contain cellZ, (which is not Z_NULL).
+    public static boolean report(long cellZ, Record left, Record right)
+    {
+        return SpaceImpl.contains(Math.max(left.z(), right.z()), cellZ);
+    }
+
+    public ReferencePoint(SpaceImpl space)
+    {
+        this.space = space;
+        this.point = new double[space.dimensions()];
+    }
+
+    // For use by this class
+
+    // The z-value of the cell containing the reference point of a pair of spatial objects, or Z_NULL if there
+    // is none.
+    private long cellZ(SpatialObject left, SpatialObject right)
+    {
+        long z = SpaceImpl.Z_NULL;
+        if (left instanceof AxisAlignedBox && right instanceof AxisAlignedBox) {
+            AxisAlignedBox leftBox = (AxisAlignedBox) left;
+            AxisAlignedBox rightBox = (AxisAlignedBox) right;
+            boolean intersect = true;
+            for (int d = 0; intersect && d < point.length; d++) {
+                double lo = Math.max(leftBox.boxLo(d), rightBox.boxLo(d));
+                point[d] = lo;
+                intersect = lo <= Math.min(leftBox.boxHi(d), rightBox.boxHi(d));
+            }
+            if (intersect) {
+                z = space.cellZ(point);
+            }
+        }
+        return z;
+    }
+
+    private static SpatialObject spatialObject(Record record)
+    {
+        return
+            record instanceof RecordWithSpatialObject
+            ? ((RecordWithSpatialObject) record).spatialObject()
+            : null;
+    }
+
+    // Object state
+
+    private final SpaceImpl space;
+    private final double[] point;
+}
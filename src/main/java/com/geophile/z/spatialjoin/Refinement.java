@@ -0,0 +1,115 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.spatialjoin;
+
+import com.geophile.z.Pair;
+import com.geophile.z.Record;
+import com.geophile.z.SpatialJoin;
+import com.geophile.z.space.SpaceImpl;
+
+import java.util.Set;
+
+// Decides which of the candidate pairs found by a spatial join are output, applying the filter.
+//
+// If duplicates are excluded, each distinct pair is refined, (i.e. passed to the filter), once, and output at most
+// once. Duplicates of pairs of boxes are avoided using a reference point. Other pairs are remembered when first
+// found, (see OutputWindow), and their duplicates are skipped without being refined again, whether the pair was
+// output or not. How long a pair is remembered depends on the covers of its records' spatial objects, (see Covers),
+// which are computed only for pairs found for the first time.
+//
+// A partition of a parallel spatial join finds the pairs found by a serial join at z-values in the partition, (see
+// PartitionedSpatialJoin). Duplicates of a pair are found by one partition, and so are skipped by its Refinement,
+// if all the z-values of either record are in the partition. Any other pair that isn't a pair of boxes is output
+// only if it can be added to a set shared by all the partitions.
+//
+// A Refinement is used by one SpatialJoinIterator.
+
+class Refinement
+{
+    // Refinement interface
+
+    // Indicates whether a pair found by the spatial join, on exiting the z-value of one of the records, is output.
+    public boolean accept(Record left, Record right)
+    {
+        boolean accept = true;
+        if (referencePoint != null) {
+            long cellZ = referencePoint.cellZ(left, right);
+            if (cellZ != SpaceImpl.Z_NULL) {
+                accept = ReferencePoint.report(cellZ, left, right);
+            } else {
+                // The pair was found on exiting the contained z-value, which is the larger one.
+                long watermark = SpaceImpl.zHi(Math.max(left.z(), right.z()));
+                refined.advance(watermark);
+                covers.advance(watermark);
+                Pair<Record, Record> pair = new Pair<>(left, right);
+                accept = !refined.contains(pair);
+                if (accept) {
+                    long leftCover = covers.cover(left);
+                    long rightCover = covers.cover(right);
+                    refined.add(pair, Math.min(Covers.lastZ(leftCover), Covers.lastZ(rightCover)));
+                    if (crossingPairs != null && !inPartition(leftCover) && !inPartition(rightCover)) {
+                        accept = crossingPairs.add(pair);
+                    }
+                }
+            }
+        }
+        return accept && filter.overlap(left, right);
+    }
+
+    // The number of pairs remembered for the elimination of duplicates.
+    public int remembered()
+    {
+        return refined == null ? 0 : refined.size();
+    }
+
+    public Refinement(SpaceImpl space, SpatialJoin.Filter<Record, Record> filter, boolean excludeDuplicates)
+    {
+        this(space, filter, excludeDuplicates, SpaceImpl.Z_MIN, SpatialJoinInput.EOF, null);
+    }
+
+    // For the partition [partitionStart, partitionEnd) of a parallel spatial join. crossingPairs is shared by all
+    // the partitions, and is used only if duplicates are excluded. It holds the pairs that aren't pairs of boxes,
+    // and whose spatial objects both extend beyond one partition, until the end of the join.
+    public Refinement(SpaceImpl space,
+                      SpatialJoin.Filter<Record, Record> filter,
+                      boolean excludeDuplicates,
+                      long partitionStart,
+                      long partitionEnd,
+                      Set<Pair<Record, Record>> crossingPairs)
+    {
+        this.filter = filter;
+        this.referencePoint = excludeDuplicates ? new ReferencePoint(space) : null;
+        this.refined = excludeDuplicates ? new OutputWindow<Pair<Record, Record>>() : null;
+        this.covers = excludeDuplicates ? new Covers(space) : null;
+        this.partitionStart = partitionStart;
+        this.partitionEnd = partitionEnd;
+        this.crossingPairs = crossingPairs;
+    }
+
+    // For use by this class
+
+    // Indicates whether all the z-values of a spatial object with the given cover, (see Covers), are in
+    // the partition. Those z-values are at or after the cover, and start no later than the end of the cover.
+    private boolean inPartition(long cover)
+    {
+        return
+            cover != SpaceImpl.Z_NULL &&
+            cover >= partitionStart &&
+            (partitionEnd == SpatialJoinInput.EOF ||
+             (SpaceImpl.zHi(cover) >>> SpaceImpl.LENGTH_BITS) < (partitionEnd >>> SpaceImpl.LENGTH_BITS));
+    }
+
+    // Object state
+
+    private final SpatialJoin.Filter<Record, Record> filter;
+    private final ReferencePoint referencePoint;
+    private final OutputWindow<Pair<Record, Record>> refined;
+    private final Covers covers;
+    private final long partitionStart;
+    private final long partitionEnd;
+    private final Set<Pair<Record, Record>> crossingPairs;
+}
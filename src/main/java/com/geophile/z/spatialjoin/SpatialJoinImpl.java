@@ -12,25 +12,27 @@
 
 package com.geophile.z.spatialjoin;
 
+import com.geophile.z.DecompositionCache;
 import com.geophile.z.Pair;
 import com.geophile.z.Record;
 import com.geophile.z.SpatialIndex;
 import com.geophile.z.SpatialJoin;
 import com.geophile.z.SpatialJoinException;
 import com.geophile.z.SpatialObject;
-import com.geophile.z.index.RecordWithSpatialObject;
-import com.geophile.z.index.sortedarray.SortedArray;
+import com.geophile.z.space.SpaceImpl;
 import com.geophile.z.space.SpatialIndexImpl;
 
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
 
 public class SpatialJoinImpl extends SpatialJoin
 {
     public SpatialJoinImpl(Duplicates duplicates,
                            Filter filter,
                            InputObserver leftObserver,
-                           InputObserver rightObserver)
+                           InputObserver rightObserver,
+                           DecompositionCache decompositionCache)
     {
         if (duplicates == null) {
             throw new IllegalArgumentException();
@@ -39,6 +41,7 @@ public class SpatialJoinImpl extends SpatialJoin
         this.filter = filter == null ? DEFAULT_FILTER : filter;
         this.leftObserver = leftObserver;
         this.rightObserver = rightObserver;
+        this.decompositionCache = decompositionCache;
     }
 
     @Override
@@ -53,49 +56,80 @@ public class SpatialJoinImpl extends SpatialJoin
         Iterator iterator =
             SpatialJoinIterator.pairIterator((SpatialIndexImpl) leftSpatialIndex,
                                              (SpatialIndexImpl) rightSpatialIndex,
-                                             filter,
+                                             refinement(leftSpatialIndex, filter),
                                              leftObserver,
                                              rightObserver);
-        if (duplicates == SpatialJoin.Duplicates.EXCLUDE) {
-            iterator = new DuplicateEliminatingIterator<Pair<LEFT_RECORD, RIGHT_RECORD>>(iterator);
-        }
         return iterator;
     }
 
+    @Override
+    public <LEFT_RECORD extends Record, RIGHT_RECORD extends Record>
+    void forEach(SpatialIndex<LEFT_RECORD> leftSpatialIndex,
+                 SpatialIndex<RIGHT_RECORD> rightSpatialIndex,
+                 PairConsumer<? super LEFT_RECORD, ? super RIGHT_RECORD> consumer)
+        throws IOException, InterruptedException
+    {
+        if (!leftSpatialIndex.space().equals(rightSpatialIndex.space())) {
+            throw new SpatialJoinException("Attempt to join spatial indexes with incompatible spaces");
+        }
+        SpatialJoinIterator.forEachPair((SpatialIndexImpl) leftSpatialIndex,
+                                        (SpatialIndexImpl) rightSpatialIndex,
+                                        refinement(leftSpatialIndex, filter),
+                                        leftObserver,
+                                        rightObserver,
+                                        consumer);
+    }
+
+    @Override
+    public <LEFT_RECORD extends Record, RIGHT_RECORD extends Record>
+    CloseableIterator<Pair<LEFT_RECORD, RIGHT_RECORD>> iterator(SpatialIndex<LEFT_RECORD> leftSpatialIndex,
+                                                                SpatialIndex<RIGHT_RECORD> rightSpatialIndex,
+                                                                ForkJoinPool pool)
+        throws IOException, InterruptedException
+    {
+        if (!leftSpatialIndex.space().equals(rightSpatialIndex.space())) {
+            throw new SpatialJoinException("Attempt to join spatial indexes with incompatible spaces");
+        }
+        return PartitionedSpatialJoin.pairIterator((SpatialIndexImpl<LEFT_RECORD>) leftSpatialIndex,
+                                                   (SpatialIndexImpl<RIGHT_RECORD>) rightSpatialIndex,
+                                                   filter,
+                                                   leftObserver,
+                                                   rightObserver,
+                                                   duplicates == SpatialJoin.Duplicates.EXCLUDE,
+                                                   pool);
+    }
+
     @Override
     public <RECORD extends Record>
     Iterator<RECORD> iterator(final SpatialObject query,
                               SpatialIndex<RECORD> data)
         throws IOException, InterruptedException
     {
-        final SortedArray<RecordWithSpatialObject> queryIndex = new SortedArray.OfBaseRecord();
-        SpatialIndex<RecordWithSpatialObject> querySpatialIndex =
-            SpatialIndex.newSpatialIndex(data.space(),
-                                         queryIndex,
-                                         query.maxZ() == 1
-                                         ? SpatialIndex.Options.SINGLE_CELL
-                                         : SpatialIndex.Options.DEFAULT);
-        querySpatialIndex.add(query,
-                              new Record.Factory<RecordWithSpatialObject>()
-                              {
-                                  @Override
-                                  public RecordWithSpatialObject newRecord()
-                                  {
-                                      RecordWithSpatialObject queryRecord = queryIndex.newRecord();
-                                      queryRecord.spatialObject(query);
-                                      return queryRecord;
-                                  }
-                              });
-        Iterator<RECORD> iterator =
+        SpatialJoin.Filter queryFilter =
+            new SpatialJoin.Filter()
+            {
+                @Override
+                public boolean overlap(Object queryRecord, Object record)
+                {
+                    return filter.overlap(query, record);
+                }
+            };
+        return
             (Iterator<RECORD>) SpatialJoinIterator.spatialObjectIterator(query,
                                                                          (SpatialIndexImpl) data,
-                                                                         filter,
+                                                                         refinement(data, queryFilter),
                                                                          leftObserver,
-                                                                         rightObserver);
-        if (duplicates == SpatialJoin.Duplicates.EXCLUDE) {
-            iterator = new DuplicateEliminatingIterator<>(iterator);
-        }
-        return iterator;
+                                                                         rightObserver,
+                                                                         decompositionCache);
+    }
+
+    // For use by this class
+
+    private Refinement refinement(SpatialIndex spatialIndex, SpatialJoin.Filter filter)
+    {
+        return new Refinement((SpaceImpl) spatialIndex.space(),
+                              filter,
+                              duplicates == SpatialJoin.Duplicates.EXCLUDE);
     }
 
     public static boolean singleCellOptimization()
@@ -119,4 +153,5 @@ public class SpatialJoinImpl extends SpatialJoin
     private final Filter filter;
     private final InputObserver leftObserver;
     private final InputObserver rightObserver;
+    private final DecompositionCache decompositionCache;
 }
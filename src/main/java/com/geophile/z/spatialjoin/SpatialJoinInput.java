@@ -356,7 +356,7 @@ class SpatialJoinInput
                 assert SpaceImpl.contains(topZ, current.z());
             }
             push(current);
-            copyToCurrent(cursorNext(cursor));
+            copyToCurrent(partitionRecord(cursorNext(cursor)));
         } else {
             advanceCursor();
         }
@@ -382,7 +382,19 @@ class SpatialJoinInput
                                                        SpatialJoin.InputObserver observer)
         throws IOException, InterruptedException
     {
-        return new SpatialJoinInput(spatialIndex, spatialJoinOutput, observer);
+        return new SpatialJoinInput(spatialIndex, spatialJoinOutput, observer, SpaceImpl.Z_MIN, EOF);
+    }
+
+    // Returns a SpatialJoinInput that provides only the records of a partition of the z-space: those whose
+    // z-values are in [partitionStart, partitionEnd), and those whose z-values contain partitionStart.
+    public static SpatialJoinInput newSpatialJoinInput(SpatialIndexImpl spatialIndex,
+                                                       SpatialJoinOutput spatialJoinOutput,
+                                                       SpatialJoin.InputObserver observer,
+                                                       long partitionStart,
+                                                       long partitionEnd)
+        throws IOException, InterruptedException
+    {
+        return new SpatialJoinInput(spatialIndex, spatialJoinOutput, observer, partitionStart, partitionEnd);
     }
 
     // For use by this class
@@ -401,8 +413,8 @@ class SpatialJoinInput
             if (thatCurrentZ > thisCurrentZ) {
                 if (singleCellOptimization && singleCell) {
                     randomAccessKey.z(thatCurrentZ);
-                    cursorGoTo(cursor, randomAccessKey);
-                    copyToCurrent(cursorNext(cursor));
+                    cursorGoToForward(cursor, randomAccessKey);
+                    copyToCurrent(partitionRecord(cursorNext(cursor)));
                 } else {
                     // Why this works: There are two cases to consider.
                     // 1) thatCurrentZ contains thisCurrentZ: thisCurrentZ might be the correct place to
@@ -423,33 +435,36 @@ class SpatialJoinInput
     private void advanceToNextOrAncestor(long zStart, long zLowerBound)
         throws IOException, InterruptedException
     {
-        // Generate all the ancestors that need to be considered.
+        // Generate all the ancestors that need to be considered. An ancestor can only be present if the index
+        // contains z-values of its length. zStart is always a candidate, as it is used to position the cursor
+        // if no ancestor is found.
+        long zLengths = spatialIndex.zLengths();
         int nCandidates = 0;
         long zCandidate = zStart;
         while (zCandidate > zLowerBound) {
-            zCandidates[nCandidates++] = zCandidate;
+            if (zCandidate == zStart || (zLengths & (1L << SpaceImpl.length(zCandidate))) != 0) {
+                zCandidates[nCandidates++] = zCandidate;
+            }
             zCandidate = SpaceImpl.parent(zCandidate);
         }
         // In the caller, thatCurrentZ > thisCurrentZ, so zStart > zLowerBound, and zCandidate is initialized to
         // zStart. So zCandidate > zLowerBound has to be true at least once, and nCandidates > 0.
         assert nCandidates > 0;
-        // Find the largest ancestor among the candidates that exists.
-        int c = nCandidates;
-        boolean foundAncestor = false;
-        while (!foundAncestor && --c >= 0) {
-            zCandidate = zCandidates[c];
-            randomAccessKey.z(zCandidate);
-            cursorGoTo(cursor, randomAccessKey);
-            Record record = cursorNext(cursor);
-            if (c == 0) {
-                // No ancestors were found. Go to the record following zStart.
-                assert zCandidate == zStart;
-                copyToCurrent(record);
-            } else if (record != null && record.z() == zCandidate) {
-                copyToCurrent(record);
-                foundAncestor = true;
-            }
+        // Order the candidates by increasing z-value, i.e. from the largest ancestor down to zStart.
+        for (int i = 0, j = nCandidates - 1; i < j; i++, j--) {
+            long z = zCandidates[i];
+            zCandidates[i] = zCandidates[j];
+            zCandidates[j] = z;
         }
+        // Find the largest ancestor among the candidates that exists. If there is none, go to the record
+        // following zStart. Candidates all follow this.current, so the cursor moves forward.
+        Record record = cursor.goToFirstPresent(randomAccessKey, zCandidates, nCandidates);
+        boolean foundAncestor = record != null && record.z() < zStart;
+        lastZRandomAccess = foundAncestor ? record.z() : zStart;
+        observer.randomAccess(cursor, lastZRandomAccess);
+        observer.sequentialAccess(cursor, lastZRandomAccess, record);
+        // An ancestor of zStart is in the partition, because that.current is, (see partitionRecord).
+        copyToCurrent(partitionRecord(record));
         if (eof) {
             cursor.close();
         } else {
@@ -460,6 +475,40 @@ class SpatialJoinInput
                                 foundAncestor ? current.z() : SpaceImpl.Z_NULL);
     }
 
+    // Returns record if it is in the partition, or else the next record of the partition. The ancestors of
+    // partitionStart are in the partition, so a record following an ancestor may precede the partition without
+    // containing partitionStart, in which case the cursor skips to the next ancestor, or to partitionStart.
+    // A record at or after partitionEnd ends the input. Either way, the records seen by the spatial join
+    // algorithm are exactly those of the partition, in z-order.
+    private Record partitionRecord(Record record) throws IOException, InterruptedException
+    {
+        while (record != null && !inPartition(record.z())) {
+            long z = record.z();
+            if (z >= partitionEnd) {
+                record = null;
+                cursor.close();
+            } else {
+                int nCandidates = 0;
+                for (long ancestor : partitionStartAncestors) {
+                    if (ancestor > z) {
+                        zCandidates[nCandidates++] = ancestor;
+                    }
+                }
+                zCandidates[nCandidates++] = partitionStart;
+                record = cursor.goToFirstPresent(randomAccessKey, zCandidates, nCandidates);
+                lastZRandomAccess = zCandidates[0];
+                observer.randomAccess(cursor, lastZRandomAccess);
+                observer.sequentialAccess(cursor, lastZRandomAccess, record);
+            }
+        }
+        return record;
+    }
+
+    private boolean inPartition(long z)
+    {
+        return z >= partitionStart ? z < partitionEnd : SpaceImpl.contains(z, partitionStart);
+    }
+
     private boolean currentOverlapsOtherNest()
     {
         boolean overlap = false;
@@ -502,13 +551,18 @@ class SpatialJoinInput
 
     private SpatialJoinInput(SpatialIndexImpl spatialIndex,
                              SpatialJoinOutput spatialJoinOutput,
-                             SpatialJoin.InputObserver observer)
+                             SpatialJoin.InputObserver observer,
+                             long partitionStart,
+                             long partitionEnd)
         throws IOException, InterruptedException
     {
         Index index = spatialIndex.index();
         this.stableRecords = index.stableRecords();
         this.spatialIndex = spatialIndex;
         this.observer = observer == null ? DEFAULT_OBSERVER : observer;
+        this.partitionStart = partitionStart;
+        this.partitionEnd = partitionEnd;
+        this.partitionStartAncestors = ancestors(partitionStart, spatialIndex.zLengths());
         // Initialize cursor
         this.cursor = index.cursor();
         Record zMinKey = index.newKeyRecord();
@@ -517,13 +571,31 @@ class SpatialJoinInput
         //
         this.current = stableRecords ? null : index.newRecord();
         this.randomAccessKey = index.newKeyRecord();
-        copyToCurrent(cursorNext(this.cursor));
+        copyToCurrent(partitionRecord(cursorNext(this.cursor)));
         this.spatialJoinOutput = spatialJoinOutput;
         this.singleCell = spatialIndex.singleCell();
         this.singleCellOptimization = SpatialJoinImpl.singleCellOptimization();
         log("initialize");
     }
 
+    // Returns the ancestors of z whose lengths are present in the index, in ascending order.
+    private static long[] ancestors(long z, long zLengths)
+    {
+        long[] ancestors = new long[SpaceImpl.length(z)];
+        int n = 0;
+        while (SpaceImpl.length(z) > 0) {
+            z = SpaceImpl.parent(z);
+            if ((zLengths & (1L << SpaceImpl.length(z))) != 0) {
+                ancestors[n++] = z;
+            }
+        }
+        long[] ascending = new long[n];
+        for (int i = 0; i < n; i++) {
+            ascending[i] = ancestors[n - 1 - i];
+        }
+        return ascending;
+    }
+
     private void copyToCurrent(Record record)
     {
         if (record == null) {
@@ -556,6 +628,13 @@ class SpatialJoinInput
         observer.randomAccess(cursor, lastZRandomAccess);
     }
 
+    private void cursorGoToForward(Cursor cursor, Record key) throws IOException, InterruptedException
+    {
+        cursor.goToForward(key);
+        lastZRandomAccess = key.z();
+        observer.randomAccess(cursor, lastZRandomAccess);
+    }
+
     private Record cursorNext(Cursor cursor) throws IOException, InterruptedException
     {
         Record record = cursor.next();
@@ -624,9 +703,13 @@ class SpatialJoinInput
     private Record current;
     private final Record randomAccessKey;
     // For use in finding ancestors
-    private final long[] zCandidates = new long[SpaceImpl.MAX_Z_BITS];
+    private final long[] zCandidates = new long[SpaceImpl.MAX_Z_BITS + 1];
     private long lastZRandomAccess; // For observing access pattern
     private boolean eof = false;
     private final boolean singleCellOptimization;
     private final SpatialJoin.InputObserver observer;
+    // The partition of the z-space whose records are provided by this input, (see partitionRecord).
+    private final long partitionStart;
+    private final long partitionEnd;
+    private final long[] partitionStartAncestors;
 }
@@ -1,5 +1,6 @@
 package com.geophile.z.spatialjoin;
 
+import com.geophile.z.DecompositionCache;
 import com.geophile.z.Pair;
 import com.geophile.z.Record;
 import com.geophile.z.SpatialIndex;
@@ -8,6 +9,7 @@ import com.geophile.z.SpatialJoinRuntimeException;
 import com.geophile.z.SpatialObject;
 import com.geophile.z.index.RecordWithSpatialObject;
 import com.geophile.z.index.sortedarray.SortedArray;
+import com.geophile.z.space.SpaceImpl;
 import com.geophile.z.space.SpatialIndexImpl;
 
 import java.io.IOException;
@@ -65,7 +67,7 @@ class SpatialJoinIterator<T> implements Iterator<T>
 
     public static SpatialJoinIterator<Pair> pairIterator(SpatialIndexImpl leftSpatialIndex,
                                                          SpatialIndexImpl rightSpatialIndex,
-                                                         SpatialJoin.Filter filter,
+                                                         Refinement refinement,
                                                          SpatialJoin.InputObserver leftInputObserver,
                                                          SpatialJoin.InputObserver rightInputObserver)
         throws IOException, InterruptedException
@@ -73,26 +75,102 @@ class SpatialJoinIterator<T> implements Iterator<T>
         return new SpatialJoinIterator<>(leftSpatialIndex,
                                          rightSpatialIndex,
                                          PAIR_OUTPUT_GENERATOR,
-                                         filter,
+                                         refinement,
                                          leftInputObserver,
-                                         rightInputObserver);
+                                         rightInputObserver,
+                                         SpaceImpl.Z_MIN,
+                                         SpatialJoinInput.EOF);
+    }
+
+    // Joins the partitions of the inputs for [partitionStart, partitionEnd), (see SpatialJoinInput). Records
+    // containing partitionStart are also in preceding partitions, so a pair is returned only if the larger of its
+    // z-values, (that of the contained record), is at or after partitionStart. Joining the partitions of a set of
+    // consecutive ranges, covering the z-space, returns each pair exactly once, as an unpartitioned join does.
+    public static SpatialJoinIterator<Pair> pairIterator(SpatialIndexImpl leftSpatialIndex,
+                                                         SpatialIndexImpl rightSpatialIndex,
+                                                         Refinement refinement,
+                                                         SpatialJoin.InputObserver leftInputObserver,
+                                                         SpatialJoin.InputObserver rightInputObserver,
+                                                         long partitionStart,
+                                                         long partitionEnd)
+        throws IOException, InterruptedException
+    {
+        return new SpatialJoinIterator<>(leftSpatialIndex,
+                                         rightSpatialIndex,
+                                         PAIR_OUTPUT_GENERATOR,
+                                         refinement,
+                                         leftInputObserver,
+                                         rightInputObserver,
+                                         partitionStart,
+                                         partitionEnd);
     }
 
     public static SpatialJoinIterator<? extends Record>
     spatialObjectIterator(SpatialObject leftSpatialObject,
                           SpatialIndexImpl rightSpatialIndex,
-                          SpatialJoin.Filter filter,
+                          Refinement refinement,
                           SpatialJoin.InputObserver leftInputObserver,
-                          SpatialJoin.InputObserver rightInputObserver)
+                          SpatialJoin.InputObserver rightInputObserver,
+                          DecompositionCache decompositionCache)
         throws IOException, InterruptedException
     {
 
         return new SpatialJoinIterator<>(leftSpatialObject,
                                          rightSpatialIndex,
                                          RECORD_OUTPUT_GENERATOR,
-                                         filter,
+                                         refinement,
                                          leftInputObserver,
-                                         rightInputObserver);
+                                         rightInputObserver,
+                                         decompositionCache);
+    }
+
+    // Computes the spatial join of the two indexes, passing output directly from the inputs to the consumer,
+    // without creating an iterator, Pairs, or a queue of pending output.
+    public static void forEachPair(SpatialIndexImpl leftSpatialIndex,
+                                   SpatialIndexImpl rightSpatialIndex,
+                                   final Refinement refinement,
+                                   SpatialJoin.InputObserver leftInputObserver,
+                                   SpatialJoin.InputObserver rightInputObserver,
+                                   final SpatialJoin.PairConsumer consumer)
+        throws IOException, InterruptedException
+    {
+        SpatialJoinOutput leftRight =
+            new SpatialJoinOutput()
+            {
+                @Override
+                public void add(Record left, Record right)
+                {
+                    if (refinement.accept(left, right)) {
+                        consumer.accept(left, right);
+                    }
+                }
+            };
+        SpatialJoinInput left = SpatialJoinInput.newSpatialJoinInput(leftSpatialIndex, leftRight, leftInputObserver);
+        SpatialJoinOutput rightLeft =
+            new SpatialJoinOutput()
+            {
+                @Override
+                public void add(Record right, Record left)
+                {
+                    if (refinement.accept(left, right)) {
+                        consumer.accept(left, right);
+                    }
+                }
+            };
+        SpatialJoinInput right =
+            SpatialJoinInput.newSpatialJoinInput(rightSpatialIndex, rightLeft, rightInputObserver);
+        left.otherInput(right);
+        right.otherInput(left);
+        boolean more;
+        do {
+            more = merge(left, right);
+        } while (more);
+    }
+
+    // The number of pairs remembered for the elimination of duplicates, (see Refinement).
+    int remembered()
+    {
+        return refinement.remembered();
     }
 
     // For use by this class
@@ -100,34 +178,45 @@ class SpatialJoinIterator<T> implements Iterator<T>
     private SpatialJoinIterator(SpatialIndexImpl leftSpatialIndex,
                                 SpatialIndexImpl rightSpatialIndex,
                                 final OutputGenerator<T> outputGenerator,
-                                final SpatialJoin.Filter filter,
+                                final Refinement refinement,
                                 SpatialJoin.InputObserver leftInputObserver,
-                                SpatialJoin.InputObserver rightInputObserver) throws IOException, InterruptedException
+                                SpatialJoin.InputObserver rightInputObserver,
+                                final long partitionStart,
+                                long partitionEnd) throws IOException, InterruptedException
     {
+        this.refinement = refinement;
         SpatialJoinOutput pendingLeftRight =
             new SpatialJoinOutput()
             {
                 @Override
                 public void add(Record left, Record right)
                 {
-                    if (filter.overlap(left, right)) {
+                    if (Math.max(left.z(), right.z()) >= partitionStart && refinement.accept(left, right)) {
                         pending.add(outputGenerator.generateOutput(left, right));
                     }
                 }
             };
-        left = SpatialJoinInput.newSpatialJoinInput(leftSpatialIndex, pendingLeftRight, leftInputObserver);
+        left = SpatialJoinInput.newSpatialJoinInput(leftSpatialIndex,
+                                                    pendingLeftRight,
+                                                    leftInputObserver,
+                                                    partitionStart,
+                                                    partitionEnd);
         SpatialJoinOutput pendingRightLeft =
             new SpatialJoinOutput()
             {
                 @Override
                 public void add(Record right, Record left)
                 {
-                    if (filter.overlap(left, right)) {
+                    if (Math.max(left.z(), right.z()) >= partitionStart && refinement.accept(left, right)) {
                         pending.add(outputGenerator.generateOutput(left, right));
                     }
                 }
             };
-        right = SpatialJoinInput.newSpatialJoinInput(rightSpatialIndex, pendingRightLeft, rightInputObserver);
+        right = SpatialJoinInput.newSpatialJoinInput(rightSpatialIndex,
+                                                     pendingRightLeft,
+                                                     rightInputObserver,
+                                                     partitionStart,
+                                                     partitionEnd);
         left.otherInput(right);
         right.otherInput(left);
         if (LOG.isLoggable(Level.INFO)) {
@@ -141,10 +230,12 @@ class SpatialJoinIterator<T> implements Iterator<T>
     private SpatialJoinIterator(final SpatialObject querySpatialObject,
                                 SpatialIndexImpl dataSpatialIndex,
                                 final OutputGenerator<T> outputGenerator,
-                                final SpatialJoin.Filter filter,
+                                final Refinement refinement,
                                 SpatialJoin.InputObserver leftInputObserver,
-                                SpatialJoin.InputObserver rightInputObserver) throws IOException, InterruptedException
+                                SpatialJoin.InputObserver rightInputObserver,
+                                DecompositionCache decompositionCache) throws IOException, InterruptedException
     {
+        this.refinement = refinement;
         final SortedArray<RecordWithSpatialObject> queryIndex = new SortedArray.OfBaseRecord();
         final SpatialIndex<RecordWithSpatialObject> querySpatialIndex =
             SpatialIndex.newSpatialIndex(dataSpatialIndex.space(),
@@ -152,24 +243,32 @@ class SpatialJoinIterator<T> implements Iterator<T>
                                          querySpatialObject.maxZ() == 1
                                          ? SpatialIndex.Options.SINGLE_CELL
                                          : SpatialIndex.Options.DEFAULT);
-        querySpatialIndex.add(querySpatialObject,
-                              new Record.Factory<RecordWithSpatialObject>()
-                              {
-                                  @Override
-                                  public RecordWithSpatialObject newRecord()
-                                  {
-                                      RecordWithSpatialObject queryRecord = queryIndex.newRecord();
-                                      queryRecord.spatialObject(querySpatialObject);
-                                      return queryRecord;
-                                  }
-                              });
+        Record.Factory<RecordWithSpatialObject> queryRecordFactory =
+            new Record.Factory<RecordWithSpatialObject>()
+            {
+                @Override
+                public RecordWithSpatialObject newRecord()
+                {
+                    RecordWithSpatialObject queryRecord = queryIndex.newRecord();
+                    queryRecord.spatialObject(querySpatialObject);
+                    return queryRecord;
+                }
+            };
+        if (decompositionCache == null) {
+            querySpatialIndex.add(querySpatialObject, queryRecordFactory);
+        } else {
+            long[] zs = decompositionCache.decompose(dataSpatialIndex.space(),
+                                                     querySpatialObject,
+                                                     querySpatialObject.maxZ());
+            querySpatialIndex.add(zs, queryRecordFactory);
+        }
         SpatialJoinOutput pendingLeftRight =
             new SpatialJoinOutput()
             {
                 @Override
                 public void add(Record left, Record right)
                 {
-                    if (filter.overlap(querySpatialObject, right)) {
+                    if (refinement.accept(left, right)) {
                         pending.add(outputGenerator.generateOutput(left, right));
                     }
                 }
@@ -183,7 +282,7 @@ class SpatialJoinIterator<T> implements Iterator<T>
                 @Override
                 public void add(Record right, Record left)
                 {
-                    if (filter.overlap(querySpatialObject, right)) {
+                    if (refinement.accept(left, right)) {
                         pending.add(outputGenerator.generateOutput(left, right));
                     }
                 }
@@ -215,29 +314,38 @@ class SpatialJoinIterator<T> implements Iterator<T>
     private void findPairs() throws IOException, InterruptedException
     {
         assert pending.isEmpty();
-        long zMin;
+        boolean more;
         do {
-            long zLeftEnter = left.nextEntry();
-            long zLeftExit = left.nextExit();
-            long zRightEnter = right.nextEntry();
-            long zRightExit = right.nextExit();
-            zMin = min(zLeftEnter, zLeftExit, zRightEnter, zRightExit);
-            if (zMin < SpatialJoinInput.EOF) {
-                // Prefer entry to exit to avoid missing join output
-                if (zMin == zLeftEnter) {
-                    left.enterZ();
-                } else if (zMin == zRightEnter) {
-                    right.enterZ();
-                } else if (zMin == zLeftExit) {
-                    left.exitZ();
-                } else {
-                    right.exitZ();
-                }
+            more = merge(left, right);
+        } while (pending.isEmpty() && more);
+    }
+
+    // Processes the next event of the merge of the two inputs: entering or exiting a z-value of one of them.
+    // Returns false if there are no more events.
+    private static boolean merge(SpatialJoinInput left, SpatialJoinInput right)
+        throws IOException, InterruptedException
+    {
+        long zLeftEnter = left.nextEntry();
+        long zLeftExit = left.nextExit();
+        long zRightEnter = right.nextEntry();
+        long zRightExit = right.nextExit();
+        long zMin = min(zLeftEnter, zLeftExit, zRightEnter, zRightExit);
+        if (zMin < SpatialJoinInput.EOF) {
+            // Prefer entry to exit to avoid missing join output
+            if (zMin == zLeftEnter) {
+                left.enterZ();
+            } else if (zMin == zRightEnter) {
+                right.enterZ();
+            } else if (zMin == zLeftExit) {
+                left.exitZ();
+            } else {
+                right.exitZ();
             }
-        } while (pending.isEmpty() && zMin < SpatialJoinInput.EOF);
+        }
+        return zMin < SpatialJoinInput.EOF;
     }
 
-    private long min(long a, long b, long c, long d)
+    private static long min(long a, long b, long c, long d)
     {
         long minAB = a < b ? a : b;
         long minCD = c < d ? c : d;
@@ -259,6 +367,7 @@ class SpatialJoinIterator<T> implements Iterator<T>
     private final SpatialJoinInput left;
     private final SpatialJoinInput right;
     private final Queue<T> pending = new ArrayDeque<>();
+    private final Refinement refinement;
 
     // Inner classes
 
@@ -7,7 +7,9 @@
 package com.geophile.z.spatialobject.d2;
 
 import com.geophile.z.Space;
-import com.geophile.z.SpatialObject;
+import com.geophile.z.space.AxisAlignedBox;
+import com.geophile.z.space.ChildComparison;
+import com.geophile.z.space.GridBox;
 import com.geophile.z.space.Region;
 import com.geophile.z.space.RegionComparison;
 
@@ -17,7 +19,7 @@ import java.nio.ByteBuffer;
  * A 2-dimensional box that can be stored by a {@link com.geophile.z.SpatialIndex}.
  */
 
-public class Box implements SpatialObject
+public class Box implements AxisAlignedBox, ChildComparison
 {
     // Object interface
 
@@ -79,23 +81,13 @@ public class Box implements SpatialObject
     @Override
     public boolean containedBy(Region region)
     {
-        return
-            region.loLE(0, xLo) && region.hiGE(0, xHi) &&
-            region.loLE(1, yLo) && region.hiGE(1, yHi);
+        return gridBox(region).containedBy(region);
     }
 
     @Override
     public RegionComparison compare(Region region)
     {
-        if (region.loGE(0, xLo) && region.hiLT(0, xHi) &&
-            region.loGE(1, yLo) && region.hiLT(1, yHi)) {
-            return RegionComparison.REGION_INSIDE_OBJECT;
-        } else if (region.hiLT(0, xLo) || region.loGT(0, xHi) ||
-                   region.hiLT(1, yLo) || region.loGT(1, yHi)) {
-            return RegionComparison.REGION_OUTSIDE_OBJECT;
-        } else {
-            return RegionComparison.REGION_OVERLAPS_OBJECT;
-        }
+        return gridBox(region).compare(region);
     }
 
     @Override
@@ -105,6 +97,7 @@ public class Box implements SpatialObject
         xHi = buffer.getDouble();
         yLo = buffer.getDouble();
         yHi = buffer.getDouble();
+        gridBox = null;
     }
 
     @Override
@@ -116,6 +109,28 @@ public class Box implements SpatialObject
         buffer.putDouble(yHi);
     }
 
+    // AxisAlignedBox interface
+
+    @Override
+    public double boxLo(int d)
+    {
+        return d == 0 ? xLo : yLo;
+    }
+
+    @Override
+    public double boxHi(int d)
+    {
+        return d == 0 ? xHi : yHi;
+    }
+
+    // ChildComparison interface
+
+    @Override
+    public void compareChildren(Region parent, int splitDimension, RegionComparison[] comparisons)
+    {
+        gridBox(parent).compareChildren(parent, splitDimension, comparisons);
+    }
+
     // Box interface
 
     /**
@@ -181,6 +196,15 @@ public class Box implements SpatialObject
     public Box()
     {}
 
+    // For use by this class
+
+    private GridBox gridBox(Region region)
+    {
+        GridBox gridBox = GridBox.of(this.gridBox, this, region);
+        this.gridBox = gridBox;
+        return gridBox;
+    }
+
     // Class state
 
     private static final int MAX_Z = 8;
@@ -191,4 +215,6 @@ public class Box implements SpatialObject
     private double xHi;
     private double yLo;
     private double yHi;
+    // Bounds converted to the grid of the Space most recently compared to
+    private GridBox gridBox;
 }
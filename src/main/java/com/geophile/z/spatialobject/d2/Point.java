@@ -7,9 +7,10 @@
 package com.geophile.z.spatialobject.d2;
 
 import com.geophile.z.Space;
-import com.geophile.z.SpatialObject;
+import com.geophile.z.space.ChildComparison;
 import com.geophile.z.space.Region;
 import com.geophile.z.space.RegionComparison;
+import com.geophile.z.space.SpatialPoint;
 
 import java.nio.ByteBuffer;
 
@@ -17,7 +18,7 @@ import java.nio.ByteBuffer;
  * A 2-dimensional point that can be stored by a {@link com.geophile.z.SpatialIndex}.
  */
 
-public class Point implements SpatialObject
+public class Point implements SpatialPoint, ChildComparison
 {
     // Object interface
 
@@ -101,6 +102,33 @@ public class Point implements SpatialObject
         buffer.putDouble(y);
     }
 
+    // SpatialPoint interface
+
+    @Override
+    public double coordinate(int d)
+    {
+        return d == 0 ? x : y;
+    }
+
+    // ChildComparison interface
+
+    @Override
+    public void compareChildren(Region parent, int splitDimension, RegionComparison[] comparisons)
+    {
+        // The point is in the lower child iff its coordinate is below the split, and the children share the
+        // parent's bounds in other dimensions.
+        boolean inParent = containedBy(parent);
+        boolean lower = (splitDimension == 0 ? x : y) < parent.splitCoordinate();
+        comparisons[0] =
+            inParent && lower
+            ? RegionComparison.REGION_OVERLAPS_OBJECT
+            : RegionComparison.REGION_OUTSIDE_OBJECT;
+        comparisons[1] =
+            inParent && !lower
+            ? RegionComparison.REGION_OVERLAPS_OBJECT
+            : RegionComparison.REGION_OUTSIDE_OBJECT;
+    }
+
     // Point interface
 
     /**
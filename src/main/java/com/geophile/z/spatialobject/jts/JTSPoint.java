@@ -1,12 +1,14 @@
 package com.geophile.z.spatialobject.jts;
 
 import com.geophile.z.Space;
+import com.geophile.z.space.ChildComparison;
 import com.geophile.z.space.Region;
 import com.geophile.z.space.RegionComparison;
+import com.geophile.z.space.SpatialPoint;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Point;
 
-public class JTSPoint extends JTSSpatialObject
+public class JTSPoint extends JTSSpatialObject implements SpatialPoint, ChildComparison
 {
     // SpatialObject interface (not implemented by JTSBase)
 
@@ -44,6 +46,34 @@ public class JTSPoint extends JTSSpatialObject
             : RegionComparison.REGION_OUTSIDE_OBJECT;
     }
 
+    // SpatialPoint interface
+
+    @Override
+    public double coordinate(int d)
+    {
+        Point point = point();
+        return d == 0 ? point.getX() : point.getY();
+    }
+
+    // ChildComparison interface
+
+    @Override
+    public void compareChildren(Region parent, int splitDimension, RegionComparison[] comparisons)
+    {
+        // The point is in the lower child iff its coordinate is below the split, and the children share the
+        // parent's bounds in other dimensions.
+        boolean inParent = containedBy(parent);
+        boolean lower = (splitDimension == 0 ? point().getX() : point().getY()) < parent.splitCoordinate();
+        comparisons[0] =
+            inParent && lower
+            ? RegionComparison.REGION_OVERLAPS_OBJECT
+            : RegionComparison.REGION_OUTSIDE_OBJECT;
+        comparisons[1] =
+            inParent && !lower
+            ? RegionComparison.REGION_OVERLAPS_OBJECT
+            : RegionComparison.REGION_OUTSIDE_OBJECT;
+    }
+
     // JTSPoint interface
 
     public Point point()
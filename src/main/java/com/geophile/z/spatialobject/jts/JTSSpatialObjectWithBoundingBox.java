@@ -7,14 +7,18 @@
 package com.geophile.z.spatialobject.jts;
 
 import com.geophile.z.Space;
+import com.geophile.z.space.AxisAlignedBox;
+import com.geophile.z.space.ChildComparison;
+import com.geophile.z.space.GridBox;
 import com.geophile.z.space.Region;
 import com.geophile.z.space.RegionComparison;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 
-// Region comparisons use bounding box. Override to get more precise.
+// Region comparisons use bounding box. Decomposition relies on this (see AxisAlignedBox), so to get more precise,
+// extend JTSSpatialObject instead.
 
-public class JTSSpatialObjectWithBoundingBox extends JTSSpatialObject
+public class JTSSpatialObjectWithBoundingBox extends JTSSpatialObject implements AxisAlignedBox, ChildComparison
 {
     // SpatialObject interface
 
@@ -30,25 +34,37 @@ public class JTSSpatialObjectWithBoundingBox extends JTSSpatialObject
     @Override
     public boolean containedBy(Region region)
     {
-        ensureBoundingBox();
-        return
-            region.loLE(0, xLo) && region.hiGE(0, xHi) &&
-            region.loLE(1, yLo) && region.hiGE(1, yHi);
+        return gridBox(region).containedBy(region);
     }
 
     @Override
     public RegionComparison compare(Region region)
+    {
+        return gridBox(region).compare(region);
+    }
+
+    // AxisAlignedBox interface
+
+    @Override
+    public double boxLo(int d)
     {
         ensureBoundingBox();
-        if (region.loGE(0, xLo) && region.hiLT(0, xHi) &&
-            region.loGE(1, yLo) && region.hiLT(1, yHi)) {
-            return RegionComparison.REGION_INSIDE_OBJECT;
-        } else if (region.hiLT(0, xLo) || region.loGT(0, xHi) ||
-                   region.hiLT(1, yLo) || region.loGT(1, yHi)) {
-            return RegionComparison.REGION_OUTSIDE_OBJECT;
-        } else {
-            return RegionComparison.REGION_OVERLAPS_OBJECT;
-        }
+        return d == 0 ? xLo : yLo;
+    }
+
+    @Override
+    public double boxHi(int d)
+    {
+        ensureBoundingBox();
+        return d == 0 ? xHi : yHi;
+    }
+
+    // ChildComparison interface
+
+    @Override
+    public void compareChildren(Region parent, int splitDimension, RegionComparison[] comparisons)
+    {
+        gridBox(parent).compareChildren(parent, splitDimension, comparisons);
     }
 
     // JTSSpatialObjectWithBoundingBox interface
@@ -78,6 +94,14 @@ public class JTSSpatialObjectWithBoundingBox extends JTSSpatialObject
             assert boundingBoxAvailable();
         }
     }
+
+    private GridBox gridBox(Region region)
+    {
+        GridBox gridBox = GridBox.of(this.gridBox, this, region);
+        this.gridBox = gridBox;
+        return gridBox;
+    }
+
     private boolean boundingBoxAvailable()
     {
         return xLo <= xHi;
@@ -89,4 +113,6 @@ public class JTSSpatialObjectWithBoundingBox extends JTSSpatialObject
     protected double xHi = -1L;
     protected double yLo;
     protected double yHi;
+    // Bounding box converted to the grid of the Space most recently compared to
+    private GridBox gridBox;
 }
@@ -23,6 +23,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NavigableMap;
+import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
 
@@ -79,6 +80,124 @@ public abstract class IndexTestBase
         }
     }
 
+    @Test
+    public void testGoToForward() throws Exception
+    {
+        Index<TestRecord> index = newIndex();
+        try {
+            int nObjects = 1000;
+            int zCount = 3;
+            load(index, nObjects, zCount);
+            List<TestRecord> expected = new ArrayList<>();
+            for (int id = 0; id < nObjects; id++) {
+                for (long c = 0; c < zCount; c++) {
+                    TestRecord key = new TestRecord();
+                    key.z(z((id + c) * GAP));
+                    key.soid(id);
+                    key.spatialObject(new TestSpatialObject(id));
+                    expected.add(key);
+                }
+            }
+            Collections.sort(expected, TestRecord.COMPARATOR);
+            Random random = new Random(421);
+            Cursor<TestRecord> cursor = newCursor(index, SpaceImpl.Z_MIN);
+            long x = 0;
+            for (int jump = 0; jump < 1000; jump++) {
+                // Mostly short jumps forward, with some long jumps, and some backward.
+                int distance = random.nextInt(10);
+                x =
+                    distance < 6 ? x + random.nextInt(GAP * 4) :
+                    distance < 9 ? x + random.nextInt(GAP * nObjects / 10) :
+                    Math.max(0, x - random.nextInt(GAP * 20));
+                TestRecord key = key(index, z(x));
+                cursor.goToForward(key);
+                int position = 0;
+                while (position < expected.size() && expected.get(position).z() < z(x)) {
+                    position++;
+                }
+                int steps = random.nextInt(5);
+                for (int i = 0; i < steps; i++) {
+                    TestRecord record = cursor.next();
+                    if (position + i < expected.size()) {
+                        TestRecord expectedRecord = expected.get(position + i);
+                        assertEquals(expectedRecord, record);
+                        assertEquals(expectedRecord.z(), record.z());
+                    } else {
+                        assertNull(record);
+                    }
+                }
+                if (x > GAP * (nObjects + zCount)) {
+                    x = 0;
+                }
+            }
+        } finally {
+            shutdown();
+        }
+    }
+
+    @Test
+    public void testGoToFirstPresent() throws Exception
+    {
+        Index<TestRecord> index = newIndex();
+        try {
+            int nObjects = 1000;
+            int zCount = 2;
+            load(index, nObjects, zCount);
+            List<TestRecord> expected = new ArrayList<>();
+            for (int id = 0; id < nObjects; id++) {
+                for (long c = 0; c < zCount; c++) {
+                    TestRecord key = new TestRecord();
+                    key.z(z((id + c) * GAP));
+                    key.soid(id);
+                    key.spatialObject(new TestSpatialObject(id));
+                    expected.add(key);
+                }
+            }
+            Collections.sort(expected, TestRecord.COMPARATOR);
+            Random random = new Random(422);
+            Cursor<TestRecord> cursor = newCursor(index, SpaceImpl.Z_MIN);
+            TestRecord key = index.newKeyRecord();
+            long[] candidates = new long[10];
+            long x = 0;
+            for (int search = 0; search < 1000; search++) {
+                // Candidates are present or absent, (z-values are multiples of GAP), and increasing.
+                int count = 1 + random.nextInt(candidates.length);
+                for (int c = 0; c < count; c++) {
+                    x += random.nextInt(GAP * 3);
+                    candidates[c] = z(x);
+                }
+                TestRecord record = cursor.goToFirstPresent(key, candidates, count);
+                // Expected: first candidate present, excluding the last. Otherwise, the first record at or after
+                // the last candidate.
+                int position = -1;
+                for (int c = 0; position == -1 && c < count; c++) {
+                    int p = 0;
+                    while (p < expected.size() && expected.get(p).z() < candidates[c]) {
+                        p++;
+                    }
+                    if (c == count - 1 || p < expected.size() && expected.get(p).z() == candidates[c]) {
+                        position = p;
+                    }
+                }
+                if (position < expected.size()) {
+                    assertEquals(expected.get(position), record);
+                    assertEquals(expected.get(position).z(), record.z());
+                    // The cursor continues from the record located
+                    if (position + 1 < expected.size()) {
+                        assertEquals(expected.get(position + 1), cursor.next());
+                    }
+                } else {
+                    assertNull(record);
+                }
+                if (x > GAP * (nObjects + zCount)) {
+                    x = random.nextInt(GAP * nObjects);
+                }
+            }
+        } finally {
+            shutdown();
+        }
+    }
+
     protected abstract Index<TestRecord> newIndex() throws IOException, InterruptedException;
 
     protected void commit()
@@ -291,7 +410,8 @@ public abstract class IndexTestBase
         print("}");
     }
 
-    private long z(long x)
+    // A z-value of maximum length, increasing with x.
+    protected static long z(long x)
     {
         return SpaceImpl.z(x << SpaceImpl.LENGTH_BITS, SpaceImpl.MAX_Z_BITS);
     }
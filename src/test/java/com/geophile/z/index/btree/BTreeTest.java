@@ -0,0 +1,32 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.index.btree;
+
+import com.geophile.z.Index;
+import com.geophile.z.TestRecord;
+import com.geophile.z.index.IndexTestBase;
+
+public class BTreeTest extends IndexTestBase
+{
+    @Override
+    protected Index<TestRecord> newIndex()
+    {
+        // Small nodes, so that the tests produce deep trees, and runs of duplicate z-values that span leaves.
+        return
+            new BTree<TestRecord>(LEAF_CAPACITY, INTERIOR_CAPACITY)
+            {
+                @Override
+                public TestRecord newRecord()
+                {
+                    return new TestRecord();
+                }
+            };
+    }
+
+    private static final int LEAF_CAPACITY = 4;
+    private static final int INTERIOR_CAPACITY = 4;
+}
@@ -0,0 +1,157 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.index.lsm;
+
+import com.geophile.z.Cursor;
+import com.geophile.z.Index;
+import com.geophile.z.Record;
+import com.geophile.z.TestRecord;
+import com.geophile.z.index.IndexTestBase;
+import com.geophile.z.index.TestSpatialObject;
+import com.geophile.z.space.SpaceImpl;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LSMIndexTest extends IndexTestBase
+{
+    @Override
+    protected Index<TestRecord> newIndex() throws IOException
+    {
+        directory = Files.createTempDirectory("lsm").toFile();
+        index = new TestLSMIndex(directory);
+        return index;
+    }
+
+    @Override
+    protected void shutdown() throws IOException, InterruptedException
+    {
+        index.close();
+        directory.delete();
+    }
+
+    @Test
+    public void testRemoveAcrossRuns() throws Exception
+    {
+        newIndex();
+        try {
+            for (int id = 0; id < N_RECORDS; id++) {
+                TestRecord record = index.newRecord();
+                record.z(z(id));
+                record.soid(id);
+                record.spatialObject(new TestSpatialObject(id));
+                index.add(record);
+            }
+            // Remove even ids. Tombstones are in later runs than the records they delete.
+            for (int id = 0; id < N_RECORDS; id += 2) {
+                final int soid = id;
+                index.remove(z(id),
+                             new Record.Filter<TestRecord>()
+                             {
+                                 @Override
+                                 public boolean select(TestRecord record)
+                                 {
+                                     return record.soid() == soid;
+                                 }
+                             });
+            }
+            // Records and tombstones are now in runs, some of which have been compacted.
+            index.flush();
+            Cursor<TestRecord> cursor = index.cursor();
+            TestRecord key = index.newKeyRecord();
+            key.z(SpaceImpl.Z_MIN);
+            cursor.goTo(key);
+            for (int id = 1; id < N_RECORDS; id += 2) {
+                TestRecord record = cursor.next();
+                assertEquals(z(id), record.z());
+                assertEquals(id, record.soid());
+                assertEquals(new TestSpatialObject(id), record.spatialObject());
+            }
+            assertNull(cursor.next());
+        } finally {
+            shutdown();
+        }
+    }
+
+    @Test
+    public void testTieredCompaction() throws Exception
+    {
+        newIndex();
+        try {
+            for (int id = 0; id < N_RECORDS; id++) {
+                TestRecord record = index.newRecord();
+                record.z(z(id));
+                record.soid(id);
+                record.spatialObject(new TestSpatialObject(id));
+                index.add(record);
+            }
+            index.flush();
+            // Runs of similar size are merged, leaving a few runs of each size, larger runs being older.
+            List<Run<TestRecord>> runs = index.runs();
+            assertTrue(runs.size() > 1);
+            assertTrue(runs.size() <= (MAX_RUNS - 1) * SIZE_CLASSES);
+            int records = 0;
+            for (int r = 0; r < runs.size(); r++) {
+                records += runs.get(r).count();
+                assertTrue(r == 0 || runs.get(r - 1).count() <= runs.get(r).count());
+            }
+            assertEquals(N_RECORDS, records);
+        } finally {
+            shutdown();
+        }
+    }
+
+    // A small memtable, so that the tests write many runs, and compact them.
+    private static final int MEMTABLE_SIZE = 100;
+    private static final int MAX_RUNS = 3;
+    // soid, and TestSpatialObject id
+    private static final int RECORD_SIZE = 12;
+    private static final int N_RECORDS = 10000;
+    // Run sizes are up to 300, 900, 2700, 8100, and larger
+    private static final int SIZE_CLASSES = 5;
+
+    private File directory;
+    private LSMIndex<TestRecord> index;
+
+    private static class TestLSMIndex extends LSMIndex<TestRecord>
+    {
+        @Override
+        public TestRecord newRecord()
+        {
+            return new TestRecord();
+        }
+
+        @Override
+        protected void writeRecord(TestRecord record, ByteBuffer buffer)
+        {
+            buffer.putInt(record.soid());
+            record.spatialObject().writeTo(buffer);
+        }
+
+        @Override
+        protected void readRecord(ByteBuffer buffer, TestRecord record)
+        {
+            record.soid(buffer.getInt());
+            TestSpatialObject spatialObject = new TestSpatialObject();
+            spatialObject.readFrom(buffer);
+            record.spatialObject(spatialObject);
+        }
+
+        TestLSMIndex(File directory)
+        {
+            super(directory, RECORD_SIZE, MEMTABLE_SIZE, MAX_RUNS);
+        }
+    }
+}
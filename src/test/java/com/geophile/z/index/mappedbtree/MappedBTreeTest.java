@@ -0,0 +1,133 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.index.mappedbtree;
+
+import com.geophile.z.Cursor;
+import com.geophile.z.Index;
+import com.geophile.z.TestRecord;
+import com.geophile.z.index.IndexTestBase;
+import com.geophile.z.index.TestSpatialObject;
+import com.geophile.z.space.SpaceImpl;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedBTreeTest extends IndexTestBase
+{
+    @Override
+    protected Index<TestRecord> newIndex() throws IOException
+    {
+        file = File.createTempFile("mappedbtree", null);
+        file.deleteOnExit();
+        index = new TestMappedBTree(file);
+        return index;
+    }
+
+    @Override
+    protected void shutdown() throws IOException
+    {
+        index.close();
+        file.delete();
+    }
+
+    @Test
+    public void testReopen() throws Exception
+    {
+        newIndex();
+        for (int id = 0; id < N_RECORDS; id++) {
+            TestRecord record = index.newRecord();
+            record.z(z(id));
+            record.soid(id);
+            record.spatialObject(new TestSpatialObject(id));
+            index.add(record);
+        }
+        index.close();
+        index = new TestMappedBTree(file);
+        try {
+            Cursor<TestRecord> cursor = index.cursor();
+            TestRecord key = index.newKeyRecord();
+            key.z(SpaceImpl.Z_MIN);
+            cursor.goTo(key);
+            for (int id = 0; id < N_RECORDS; id++) {
+                TestRecord record = cursor.next();
+                assertEquals(z(id), record.z());
+                assertEquals(id, record.soid());
+                assertEquals(new TestSpatialObject(id), record.spatialObject());
+            }
+            assertNull(cursor.next());
+        } finally {
+            shutdown();
+        }
+    }
+
+    @Test
+    public void testNotAMappedBTree() throws Exception
+    {
+        file = File.createTempFile("mappedbtree", null);
+        file.deleteOnExit();
+        byte[] contents = "This is not a MappedBTree file, just some text.".getBytes("UTF-8");
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(contents);
+        }
+        try {
+            new TestMappedBTree(file);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        // The file is left alone, (not extended by mapping it).
+        assertEquals(contents.length, file.length());
+        assertTrue(file.delete());
+    }
+
+    // Small pages, so that the tests produce deep trees, and runs of duplicate z-values that span leaves.
+    private static final int PAGE_SIZE = 256;
+    // soid, and TestSpatialObject id
+    private static final int RECORD_SIZE = 12;
+    private static final int N_RECORDS = 10000;
+
+    private File file;
+    private MappedBTree<TestRecord> index;
+
+    private static class TestMappedBTree extends MappedBTree<TestRecord>
+    {
+        @Override
+        public TestRecord newRecord()
+        {
+            return new TestRecord();
+        }
+
+        @Override
+        protected void writeRecord(TestRecord record, ByteBuffer buffer)
+        {
+            buffer.putInt(record.soid());
+            record.spatialObject().writeTo(buffer);
+        }
+
+        @Override
+        protected void readRecord(ByteBuffer buffer, TestRecord record)
+        {
+            record.soid(buffer.getInt());
+            TestSpatialObject spatialObject = new TestSpatialObject();
+            spatialObject.readFrom(buffer);
+            record.spatialObject(spatialObject);
+        }
+
+        TestMappedBTree(File file) throws IOException
+        {
+            super(file, PAGE_SIZE, RECORD_SIZE);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.index.skiplist;
+
+import com.geophile.z.Cursor;
+import com.geophile.z.Index;
+import com.geophile.z.TestRecord;
+import com.geophile.z.index.IndexTestBase;
+import com.geophile.z.index.TestSpatialObject;
+import com.geophile.z.space.SpaceImpl;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SkipListIndexTest extends IndexTestBase
+{
+    @Override
+    protected Index<TestRecord> newIndex()
+    {
+        return new TestSkipListIndex();
+    }
+
+    @Test
+    public void testConcurrentAddAndScan() throws Exception
+    {
+        final Index<TestRecord> index = newIndex();
+        final AtomicBoolean scanFailed = new AtomicBoolean(false);
+        final AtomicBoolean loading = new AtomicBoolean(true);
+        List<Thread> loaders = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            loaders.add(new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+                            int id = i * THREADS + thread;
+                            TestRecord record = index.newRecord();
+                            record.z(z(id % DISTINCT_Z));
+                            record.soid(id);
+                            record.spatialObject(new TestSpatialObject(id));
+                            index.add(record);
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+        Thread scanner =
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        while (loading.get()) {
+                            // Records must always be visited in z order, even while the index is changing.
+                            Cursor<TestRecord> cursor = index.cursor();
+                            TestRecord key = index.newKeyRecord();
+                            key.z(SpaceImpl.Z_MIN);
+                            cursor.goTo(key);
+                            long previousZ = SpaceImpl.Z_MIN;
+                            TestRecord record;
+                            while ((record = cursor.next()) != null) {
+                                if (record.z() < previousZ) {
+                                    scanFailed.set(true);
+                                }
+                                previousZ = record.z();
+                            }
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        scanFailed.set(true);
+                    }
+                }
+            };
+        scanner.start();
+        for (Thread loader : loaders) {
+            loader.start();
+        }
+        for (Thread loader : loaders) {
+            loader.join();
+        }
+        loading.set(false);
+        scanner.join();
+        assertTrue(!scanFailed.get());
+        // Everything added is present
+        Cursor<TestRecord> cursor = index.cursor();
+        TestRecord key = index.newKeyRecord();
+        key.z(SpaceImpl.Z_MIN);
+        cursor.goTo(key);
+        int count = 0;
+        while (cursor.next() != null) {
+            count++;
+        }
+        assertEquals(THREADS * RECORDS_PER_THREAD, count);
+    }
+
+    private static final int THREADS = 4;
+    private static final int RECORDS_PER_THREAD = 10000;
+    private static final int DISTINCT_Z = 1000;
+
+    private static class TestSkipListIndex extends SkipListIndex<TestRecord>
+    {
+        @Override
+        public TestRecord newRecord()
+        {
+            return new TestRecord();
+        }
+    }
+}
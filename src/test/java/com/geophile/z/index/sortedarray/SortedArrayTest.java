@@ -12,9 +12,23 @@
 
 package com.geophile.z.index.sortedarray;
 
+import com.geophile.z.Cursor;
 import com.geophile.z.Index;
+import com.geophile.z.Record;
 import com.geophile.z.TestRecord;
 import com.geophile.z.index.IndexTestBase;
+import com.geophile.z.index.TestSpatialObject;
+import com.geophile.z.space.SpaceImpl;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class SortedArrayTest extends IndexTestBase
 {
@@ -31,4 +45,93 @@ public class SortedArrayTest extends IndexTestBase
                 }
             };
     }
+
+    @Test
+    public void testInterleavedAddAndScan() throws Exception
+    {
+        Random random = new Random(419);
+        Index<TestRecord> index = newIndex();
+        List<TestRecord> expected = new ArrayList<>();
+        for (int batch = 0; batch < BATCHES; batch++) {
+            // Batches of varying size, including single records, between scans.
+            int batchSize = batch % 2 == 0 ? 1 : random.nextInt(MAX_BATCH_SIZE);
+            for (int i = 0; i < batchSize; i++) {
+                int id = expected.size();
+                TestRecord record = index.newRecord();
+                record.z(z(random.nextInt(DISTINCT_Z)));
+                record.soid(id);
+                record.spatialObject(new TestSpatialObject(id));
+                index.add(record);
+                expected.add(record);
+            }
+            // Records with the same z-value are in insertion order, i.e. soid order.
+            Collections.sort(expected, TestRecord.COMPARATOR);
+            Cursor<TestRecord> cursor = index.cursor();
+            TestRecord key = index.newKeyRecord();
+            key.z(SpaceImpl.Z_MIN);
+            cursor.goTo(key);
+            for (TestRecord record : expected) {
+                assertEquals(record, cursor.next());
+            }
+            assertNull(cursor.next());
+            // Start at a random key, which may be in the sorted records, the buffer, both, or neither.
+            long z = z(random.nextInt(DISTINCT_Z));
+            key.z(z);
+            cursor.goTo(key);
+            for (TestRecord record : expected) {
+                if (record.z() >= z) {
+                    assertEquals(record, cursor.next());
+                }
+            }
+            assertNull(cursor.next());
+            // Remove a random record, which may be in the sorted records or the buffer.
+            final TestRecord removed = expected.remove(random.nextInt(expected.size()));
+            assertTrue(index.remove(removed.z(),
+                                    new Record.Filter<TestRecord>()
+                                    {
+                                        @Override
+                                        public boolean select(TestRecord record)
+                                        {
+                                            return record.soid() == removed.soid();
+                                        }
+                                    }));
+        }
+    }
+
+    @Test
+    public void testBulkLoad() throws Exception
+    {
+        Random random = new Random(420);
+        SortedArray<TestRecord> index = (SortedArray<TestRecord>) newIndex();
+        // Z-values spread over many bits, so that few radix sort passes are skipped, with duplicates.
+        long[] distinctZs = new long[BULK_LOAD_DISTINCT_Z];
+        for (int i = 0; i < distinctZs.length; i++) {
+            distinctZs[i] = z(random.nextLong() >>> (Long.SIZE - SpaceImpl.MAX_Z_BITS));
+        }
+        List<TestRecord> records = new ArrayList<>();
+        for (int id = 0; id < BULK_LOAD_SIZE; id++) {
+            TestRecord record = index.newRecord();
+            record.z(distinctZs[random.nextInt(distinctZs.length)]);
+            record.soid(id);
+            records.add(record);
+        }
+        index.addAll(records);
+        Collections.sort(records, TestRecord.COMPARATOR);
+        Cursor<TestRecord> cursor = index.cursor();
+        TestRecord key = index.newKeyRecord();
+        key.z(SpaceImpl.Z_MIN);
+        cursor.goTo(key);
+        for (TestRecord record : records) {
+            TestRecord actual = cursor.next();
+            assertEquals(record.z(), actual.z());
+            assertEquals(record.soid(), actual.soid());
+        }
+        assertNull(cursor.next());
+    }
+
+    private static final int BATCHES = 200;
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final int DISTINCT_Z = 500;
+    private static final int BULK_LOAD_SIZE = 500000;
+    private static final int BULK_LOAD_DISTINCT_Z = 100000;
 }
@@ -7,6 +7,7 @@
 package com.geophile.z.space;
 
 import com.geophile.z.Space;
+import com.geophile.z.SpatialObject;
 import com.geophile.z.SpatialObjectException;
 import com.geophile.z.spatialobject.d2.Box;
 import com.geophile.z.spatialobject.d2.Point;
@@ -17,7 +18,14 @@ import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.LinearRing;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class DecompositionTest
@@ -279,6 +287,216 @@ public class DecompositionTest
         }
     }
 
+    @Test
+    public void testReusedDecomposition()
+    {
+        // Decomposition state is reused across calls, so check that interleaved decompositions of different
+        // objects and different maxZ don't affect one another, and that zs positions beyond maxZ are untouched.
+        final int X_MAX = 100;
+        final int Y_MAX = 100;
+        final int MAX_Z = 8;
+        SpaceImpl space = (SpaceImpl) Space.newSpace(new double[]{0, 0},
+                                                     new double[]{X_MAX, Y_MAX},
+                                                     new int[]{6, 6});
+        Box big = new Box(10, 90, 10, 90);
+        long[][] expectedBig = new long[MAX_Z + 1][];
+        for (int maxZ = 1; maxZ <= MAX_Z; maxZ++) {
+            expectedBig[maxZ] = new long[maxZ];
+            space.decompose(big, expectedBig[maxZ]);
+        }
+        long[] zs = new long[MAX_Z + 1];
+        for (int boxWidth = 1; boxWidth <= 20; boxWidth += 3) {
+            for (int x = 0; x <= X_MAX - boxWidth; x += 7) {
+                for (int y = 0; y <= Y_MAX - boxWidth; y += 7) {
+                    Box box = new Box(x, x + boxWidth, y, y + boxWidth);
+                    for (int maxZ = 1; maxZ <= MAX_Z; maxZ++) {
+                        long[] expected = new long[maxZ];
+                        space.decompose(box, expected);
+                        space.decompose(big, zs, MAX_Z);
+                        zs[maxZ] = 0x123L;
+                        space.decompose(box, zs, maxZ);
+                        for (int i = 0; i < maxZ; i++) {
+                            assertEquals(expected[i], zs[i]);
+                        }
+                        assertEquals(0x123L, zs[maxZ]);
+                        space.decompose(big, zs, maxZ);
+                        for (int i = 0; i < maxZ; i++) {
+                            assertEquals(expectedBig[maxZ][i], zs[i]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAxisAlignedBox()
+    {
+        // Decomposition of an AxisAlignedBox must match the decomposition obtained by Region comparisons.
+        Random random = new Random(SEED);
+        SpaceImpl[] spaces = new SpaceImpl[]{
+            new SpaceImpl(doubles(0, 0), doubles(100, 100), ints(4, 4), null),
+            new SpaceImpl(doubles(0, 0), doubles(1024, 1024), ints(10, 10), null),
+            new SpaceImpl(doubles(-37.5, 0.001), doubles(61.3, 0.002), ints(7, 5), null),
+            new SpaceImpl(doubles(-180, -90), doubles(180, 90), ints(24, 23), null)
+        };
+        for (SpaceImpl space : spaces) {
+            for (int i = 0; i < 20000; i++) {
+                double xa = randomCoordinate(random, space, 0);
+                double xb = randomCoordinate(random, space, 0);
+                double ya = randomCoordinate(random, space, 1);
+                double yb = randomCoordinate(random, space, 1);
+                Box box = new Box(Math.min(xa, xb), Math.max(xa, xb), Math.min(ya, yb), Math.max(ya, yb));
+                int maxZ = 1 + random.nextInt(box.maxZ());
+                long[] expected = new long[maxZ];
+                space.decompose(new RegionWalk(box), expected);
+                long[] actual = new long[maxZ];
+                space.decompose(box, actual);
+                assertArrayEquals(box.toString(), expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testAxisAlignedJTSBoundingBox()
+    {
+        Random random = new Random(SEED);
+        SpaceImpl space = new SpaceImpl(doubles(0, 0), doubles(100, 100), ints(6, 6), null);
+        Coordinate[] coords = new Coordinate[4];
+        for (int i = 0; i < 10000; i++) {
+            // A triangle
+            for (int c = 0; c < 3; c++) {
+                coords[c] = new Coordinate(randomCoordinate(random, space, 0), randomCoordinate(random, space, 1));
+            }
+            coords[3] = coords[0];
+            LinearRing ring = GEOMETRY_FACTORY.createLinearRing(coords);
+            JTSSpatialObject polygon = JTS.spatialObject(space, GEOMETRY_FACTORY.createPolygon(ring, null));
+            int maxZ = 1 + random.nextInt(polygon.maxZ());
+            long[] expected = new long[maxZ];
+            space.decompose(new RegionWalk(polygon), expected);
+            long[] actual = new long[maxZ];
+            space.decompose(polygon, actual);
+            assertArrayEquals(polygon.toString(), expected, actual);
+        }
+    }
+
+    @Test
+    public void testChildComparison()
+    {
+        // Comparisons of both children of a Region at once must match comparisons of each child, and so
+        // decompositions must match those obtained by comparing one Region at a time.
+        Random random = new Random(SEED);
+        SpaceImpl[] spaces = new SpaceImpl[]{
+            new SpaceImpl(doubles(0, 0), doubles(100, 100), ints(6, 6), null),
+            new SpaceImpl(doubles(-37.5, 0.001), doubles(61.3, 0.002), ints(7, 5), null),
+            new HilbertSpace(doubles(0, 0), doubles(100, 100), ints(6, 6))
+        };
+        RegionComparison[] comparisons = new RegionComparison[2];
+        for (SpaceImpl space : spaces) {
+            for (int i = 0; i < 5000; i++) {
+                double xa = randomCoordinate(random, space, 0);
+                double xb = randomCoordinate(random, space, 0);
+                double ya = randomCoordinate(random, space, 1);
+                double yb = randomCoordinate(random, space, 1);
+                Box box = new Box(Math.min(xa, xb), Math.max(xa, xb), Math.min(ya, yb), Math.max(ya, yb));
+                Point point = new Point(xa, ya);
+                JTSSpatialObject jtsPoint =
+                    JTS.spatialObject(space, GEOMETRY_FACTORY.createPoint(new Coordinate(xa, ya)));
+                Region parent = space.newRegion(doubles(xb, yb));
+                int level = random.nextInt(space.zBits);
+                while (parent.level() > level) {
+                    parent.up();
+                }
+                for (ChildComparison spatialObject : new ChildComparison[]{box, point, (ChildComparison) jtsPoint}) {
+                    spatialObject.compareChildren(parent, parent.splitDimension(), comparisons);
+                    boolean lowerChildLeft = parent.lowerChildLeft();
+                    parent.downLeft();
+                    assertEquals(spatialObject.compare(parent), comparisons[lowerChildLeft ? 0 : 1]);
+                    parent.up();
+                    parent.downRight();
+                    assertEquals(spatialObject.compare(parent), comparisons[lowerChildLeft ? 1 : 0]);
+                    parent.up();
+                }
+                int maxZ = 1 + random.nextInt(box.maxZ());
+                long[] expected = new long[maxZ];
+                space.decompose(new RegionWalk(box), expected);
+                long[] actual = new long[maxZ];
+                space.decompose(new ChildWalk(box), actual);
+                assertArrayEquals(box.toString(), expected, actual);
+                space.decompose(box, actual);
+                assertArrayEquals(box.toString(), expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testSpatialPoint()
+    {
+        // The z-value of a SpatialPoint must match the decomposition obtained by Region comparisons.
+        Random random = new Random(SEED);
+        SpaceImpl[] spaces = new SpaceImpl[]{
+            new SpaceImpl(doubles(-37.5, 0.001), doubles(61.3, 0.002), ints(7, 5), null),
+            (SpaceImpl) Space.newSpace(doubles(-180, -90), doubles(180, 90), ints(28, 28)),
+            new HilbertSpace(doubles(0, 0), doubles(100, 100), ints(10, 10))
+        };
+        long[] expected = new long[2];
+        long[] actual = new long[2];
+        for (SpaceImpl space : spaces) {
+            for (int i = 0; i < 20000; i++) {
+                double x = randomCoordinate(random, space, 0);
+                double y = randomCoordinate(random, space, 1);
+                Point point = new Point(x, y);
+                JTSSpatialObject jtsPoint =
+                    JTS.spatialObject(space, GEOMETRY_FACTORY.createPoint(new Coordinate(x, y)));
+                space.decompose(new RegionWalk(point), expected);
+                space.decompose(point, actual);
+                assertArrayEquals(point.toString(), expected, actual);
+                space.decompose(jtsPoint, actual);
+                assertArrayEquals(point.toString(), expected, actual);
+                long pointZ = space.pointZ(point);
+                assertTrue(pointZ == SpaceImpl.Z_NULL || pointZ == expected[0]);
+            }
+        }
+    }
+
+    @Test
+    public void testBatch()
+    {
+        Random random = new Random(SEED);
+        SpaceImpl space = new SpaceImpl(doubles(0, 0), doubles(100, 100), ints(10, 10), null);
+        SpatialObject[] spatialObjects = new SpatialObject[5000];
+        int maxZTotal = 0;
+        for (int i = 0; i < spatialObjects.length; i++) {
+            double x = randomCoordinate(random, space, 0);
+            double y = randomCoordinate(random, space, 1);
+            spatialObjects[i] =
+                i % 3 == 0
+                ? new Point(x, y)
+                : new Box(x, Math.min(x + random.nextInt(20), 100), y, Math.min(y + random.nextInt(20), 100));
+            maxZTotal += spatialObjects[i].maxZ();
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (ForkJoinPool batchPool : new ForkJoinPool[]{null, pool}) {
+                long[] zs = new long[maxZTotal];
+                int[] offsets = new int[spatialObjects.length + 1];
+                int zCount = space.decompose(spatialObjects, zs, offsets, batchPool);
+                assertEquals(zCount, offsets[spatialObjects.length]);
+                for (int i = 0; i < spatialObjects.length; i++) {
+                    long[] expected = new long[spatialObjects[i].maxZ()];
+                    space.decompose(spatialObjects[i], expected);
+                    int n = 0;
+                    while (n < expected.length && expected[n] != SpaceImpl.Z_NULL) {
+                        n++;
+                    }
+                    assertArrayEquals(Arrays.copyOf(expected, n), Arrays.copyOfRange(zs, offsets[i], offsets[i + 1]));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     private void testPoint(int x, int y, long z)
     {
         Point point = new Point(x, y);
@@ -301,6 +519,21 @@ public class DecompositionTest
         assertEquals(-1L, zs[3]);
     }
 
+    // A coordinate, often on a grid line or at the edge of the space, where rounding matters.
+    private static double randomCoordinate(Random random, SpaceImpl space, int d)
+    {
+        switch (random.nextInt(4)) {
+            case 0:
+                return space.lo(d);
+            case 1:
+                return space.hi(d);
+            case 2:
+                return space.gridLine(d, random.nextInt((int) space.gHi[d] + 2));
+            default:
+                return space.lo(d) + random.nextDouble() * (space.hi(d) - space.lo(d));
+        }
+    }
+
     private static int[] ints(int... ints)
     {
         return ints;
@@ -311,7 +544,77 @@ public class DecompositionTest
         return doubles;
     }
 
+    private static final int SEED = 419;
     private static final double EPSILON = 0.00001;
     private static final SpaceImpl SPACE = new SpaceImpl(doubles(0, 0), doubles(1024, 1024), ints(10, 10), null);
     private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    // Hides the AxisAlignedBox interface of a spatial object, so that it is decomposed by Region comparisons.
+    private static class RegionWalk implements SpatialObject
+    {
+        @Override
+        public double[] arbitraryPoint()
+        {
+            return spatialObject.arbitraryPoint();
+        }
+
+        @Override
+        public int maxZ()
+        {
+            return spatialObject.maxZ();
+        }
+
+        @Override
+        public boolean containedBy(Space space)
+        {
+            return spatialObject.containedBy(space);
+        }
+
+        @Override
+        public boolean containedBy(Region region)
+        {
+            return spatialObject.containedBy(region);
+        }
+
+        @Override
+        public RegionComparison compare(Region region)
+        {
+            return spatialObject.compare(region);
+        }
+
+        @Override
+        public void readFrom(ByteBuffer buffer)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void writeTo(ByteBuffer buffer)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        RegionWalk(SpatialObject spatialObject)
+        {
+            this.spatialObject = spatialObject;
+        }
+
+        final SpatialObject spatialObject;
+    }
+
+    // Hides the AxisAlignedBox interface of a spatial object, so that it is decomposed by comparing both children
+    // of a Region at once.
+    private static class ChildWalk extends RegionWalk implements ChildComparison
+    {
+        @Override
+        public void compareChildren(Region parent, int splitDimension, RegionComparison[] comparisons)
+        {
+            ((ChildComparison) spatialObject).compareChildren(parent, splitDimension, comparisons);
+        }
+
+        ChildWalk(ChildComparison spatialObject)
+        {
+            super(spatialObject);
+        }
+    }
 }
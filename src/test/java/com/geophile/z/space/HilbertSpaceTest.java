@@ -0,0 +1,199 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.space;
+
+import com.geophile.z.Space;
+import com.geophile.z.SpatialIndex;
+import com.geophile.z.SpatialJoin;
+import com.geophile.z.TestIndex;
+import com.geophile.z.TestRecord;
+import com.geophile.z.spatialobject.d2.Box;
+import com.geophile.z.spatialobject.d2.Point;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HilbertSpaceTest
+{
+    @Test
+    public void testUnequalBits()
+    {
+        try {
+            Space.newHilbertSpace(doubles(0, 0), doubles(1, 1), ints(5, 6));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCurveIsContinuous()
+    {
+        // Consecutive cells along a Hilbert curve are adjacent.
+        checkContinuity(new HilbertSpace(doubles(0, 0), doubles(1, 1), ints(5, 5)));
+        checkContinuity(new HilbertSpace(doubles(0, 0, 0), doubles(1, 1, 1), ints(3, 3, 3)));
+        checkContinuity(new HilbertSpace(doubles(0, 0, 0, 0), doubles(1, 1, 1, 1), ints(2, 2, 2, 2)));
+    }
+
+    @Test
+    public void testRegionWalk()
+    {
+        // A Region's z-value matches that of its cells, and moving up undoes moving down.
+        Random random = new Random(SEED);
+        HilbertSpace space = new HilbertSpace(doubles(0, 0, 0), doubles(1, 1, 1), ints(4, 4, 4));
+        Region region = space.newRegion(doubles(0, 0, 0));
+        while (region.level() > 0) {
+            region.up();
+        }
+        long[] cell = new long[space.dimensions];
+        long[] loCells = new long[space.dimensions];
+        long[] hiCells = new long[space.dimensions];
+        for (int walk = 0; walk < 1000; walk++) {
+            int depth = random.nextInt(space.zBits + 1);
+            long[] zs = new long[depth + 1];
+            zs[0] = region.z();
+            for (int level = 1; level <= depth; level++) {
+                if (random.nextBoolean()) {
+                    region.downLeft();
+                } else {
+                    region.downRight();
+                }
+                zs[level] = region.z();
+                assertTrue(SpaceImpl.contains(zs[level - 1], zs[level]));
+                assertEquals(zs[level], space.shuffle(regionLo(region, cell), level));
+                // The Region can be reconstructed from its z-value.
+                space.cellBounds(zs[level], loCells, hiCells);
+                for (int d = 0; d < space.dimensions; d++) {
+                    assertEquals(region.loCell(d), loCells[d]);
+                    assertEquals(region.hiCell(d), hiCells[d]);
+                }
+                space.unshuffle(zs[level], cell);
+                assertArrayEquals(loCells, cell);
+                // Every cell of the Region is contained by the Region's z-value.
+                for (int i = 0; i < 10; i++) {
+                    for (int d = 0; d < space.dimensions; d++) {
+                        long lo = region.loCell(d);
+                        cell[d] = lo + random.nextInt((int) (region.hiCell(d) - lo + 1));
+                    }
+                    assertTrue(SpaceImpl.contains(zs[level], space.shuffle(cell)));
+                }
+            }
+            for (int level = depth; level > 0; level--) {
+                assertEquals(zs[level], region.z());
+                region.up();
+            }
+            assertEquals(zs[0], region.z());
+        }
+    }
+
+    @Test
+    public void testSpatialJoin() throws Exception
+    {
+        Random random = new Random(SEED);
+        Space space = Space.newHilbertSpace(doubles(0, 0), doubles(1000, 1000), ints(10, 10));
+        SpatialIndex<TestRecord> points = SpatialIndex.newSpatialIndex(space, new TestIndex());
+        TestRecord.Factory recordFactory = new TestRecord.Factory();
+        List<Point> pointList = new ArrayList<>();
+        for (int id = 0; id < 2000; id++) {
+            Point point = new Point(random.nextInt(1000), random.nextInt(1000));
+            pointList.add(point);
+            points.add(point, recordFactory.setup(point, id));
+        }
+        SpatialJoin spatialJoin = SpatialJoin.newSpatialJoin(SpatialJoin.Duplicates.EXCLUDE, FILTER);
+        for (int q = 0; q < 200; q++) {
+            int xLo = random.nextInt(900);
+            int yLo = random.nextInt(900);
+            Box box = new Box(xLo, xLo + random.nextInt(100), yLo, yLo + random.nextInt(100));
+            int expected = 0;
+            for (Point point : pointList) {
+                if (contains(box, point)) {
+                    expected++;
+                }
+            }
+            int actual = 0;
+            Iterator<TestRecord> iterator = spatialJoin.iterator(box, points);
+            while (iterator.hasNext()) {
+                assertTrue(contains(box, (Point) iterator.next().spatialObject()));
+                actual++;
+            }
+            assertEquals(expected, actual);
+        }
+    }
+
+    private void checkContinuity(HilbertSpace space)
+    {
+        int n = space.dimensions;
+        int bits = space.gBits[0];
+        int cells = 1 << space.zBits;
+        long[][] cellByKey = new long[cells][];
+        long[] cell = new long[n];
+        for (int c = 0; c < cells; c++) {
+            for (int d = 0; d < n; d++) {
+                cell[d] = (c >>> (d * bits)) & ((1 << bits) - 1);
+            }
+            long z = space.shuffle(cell);
+            long[] unshuffled = new long[n];
+            space.unshuffle(z, unshuffled);
+            assertArrayEquals(cell, unshuffled);
+            int key = (int) (z >>> (63 - space.zBits));
+            assertEquals(null, cellByKey[key]);
+            cellByKey[key] = Arrays.copyOf(cell, n);
+        }
+        for (int key = 1; key < cells; key++) {
+            long distance = 0;
+            for (int d = 0; d < n; d++) {
+                distance += Math.abs(cellByKey[key][d] - cellByKey[key - 1][d]);
+            }
+            assertEquals(1, distance);
+        }
+    }
+
+    private static long[] regionLo(Region region, long[] cell)
+    {
+        for (int d = 0; d < cell.length; d++) {
+            cell[d] = region.loCell(d);
+        }
+        return cell;
+    }
+
+    private static boolean contains(Box box, Point point)
+    {
+        return
+            box.xLo() <= point.x() && point.x() <= box.xHi() &&
+            box.yLo() <= point.y() && point.y() <= box.yHi();
+    }
+
+    private static double[] doubles(double... x)
+    {
+        return x;
+    }
+
+    private static int[] ints(int... x)
+    {
+        return x;
+    }
+
+    private static final int SEED = 419;
+    private static final SpatialJoin.Filter<Box, TestRecord> FILTER =
+        new SpatialJoin.Filter<Box, TestRecord>()
+        {
+            @Override
+            public boolean overlap(Box box, TestRecord record)
+            {
+                return contains(box, (Point) record.spatialObject());
+            }
+        };
+}
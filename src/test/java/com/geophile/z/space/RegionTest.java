@@ -9,6 +9,11 @@ package com.geophile.z.space;
 import com.geophile.z.Space;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class RegionTest
@@ -305,6 +310,55 @@ public class RegionTest
         assertTrue(lowerLeft.hiGE(1, 64.0));
     }
 
+    // Integer comparisons
+
+    @Test
+    public void gridCoordinates()
+    {
+        checkGridCoordinates(SPACE);
+        checkGridCoordinates((SpaceImpl) Space.newSpace(doubles(-1.7, 100), doubles(13.3, 1000.1), ints(5, 4)));
+    }
+
+    private static void checkGridCoordinates(SpaceImpl space)
+    {
+        Random random = new Random(419);
+        for (int i = 0; i < 200; i++) {
+            double[] point = new double[space.dimensions];
+            for (int d = 0; d < space.dimensions; d++) {
+                point[d] = space.lo(d) + random.nextDouble() * (space.hi(d) - space.lo(d));
+            }
+            Region region = space.newRegion(point);
+            int level = random.nextInt(space.zBits + 1);
+            while (region.level() > level) {
+                region.up();
+            }
+            for (int d = 0; d < space.dimensions; d++) {
+                // Grid lines, coordinates adjacent to them, and arbitrary coordinates
+                List<Double> coords = new ArrayList<>();
+                for (long c = 0; c <= space.gHi[d] + 1; c++) {
+                    double gridLine = space.gridLine(d, c);
+                    coords.add(gridLine);
+                    coords.add(Math.nextAfter(gridLine, Double.NEGATIVE_INFINITY));
+                    coords.add(Math.nextAfter(gridLine, Double.POSITIVE_INFINITY));
+                    coords.add(space.lo(d) + random.nextDouble() * (space.hi(d) - space.lo(d)));
+                }
+                coords.add(space.lo(d));
+                coords.add(space.hi(d));
+                for (double coord : coords) {
+                    GridCoordinate gridCoord = space.gridCoordinate(d, coord);
+                    assertEquals(region.loLT(d, coord), region.loLT(d, gridCoord));
+                    assertEquals(region.loLE(d, coord), region.loLE(d, gridCoord));
+                    assertEquals(region.loGT(d, coord), region.loGT(d, gridCoord));
+                    assertEquals(region.loGE(d, coord), region.loGE(d, gridCoord));
+                    assertEquals(region.hiLT(d, coord), region.hiLT(d, gridCoord));
+                    assertEquals(region.hiLE(d, coord), region.hiLE(d, gridCoord));
+                    assertEquals(region.hiGT(d, coord), region.hiGT(d, gridCoord));
+                    assertEquals(region.hiGE(d, coord), region.hiGE(d, gridCoord));
+                }
+            }
+        }
+    }
+
     private static Region region(double x, double y, int level)
     {
         Region region = new Region(SPACE, doubles(x, y));
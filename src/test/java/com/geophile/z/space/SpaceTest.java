@@ -10,6 +10,9 @@ import com.geophile.z.Space;
 import com.geophile.z.spatialobject.d2.Box;
 import org.junit.Test;
 
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -136,6 +139,64 @@ public class SpaceTest
         check(space, 0xd40d40d400000000L, longs(0x333, 0x222, 0x111));
     }
 
+    @Test
+    public void testUnshuffle()
+    {
+        Random random = new Random(SEED);
+        checkUnshuffle(random, new SpaceImpl(doubles(0), doubles(1000), ints(10), null));
+        checkUnshuffle(random, new SpaceImpl(doubles(0, 0), doubles(4000, 4000), ints(10, 12), null));
+        checkUnshuffle(random, new SpaceImpl(doubles(0, 0), doubles(1000, 1000), ints(28, 29), null));
+        checkUnshuffle(random, new SpaceImpl(doubles(0, 0, 0), doubles(1000, 1000, 1000), ints(3, 9, 6),
+                                             ints(1, 1, 2, 1, 0, 2, 1, 2, 1, 0, 2, 1, 1, 2, 0, 1, 2, 1)));
+    }
+
+    @Test
+    public void testSpecializedSpaces()
+    {
+        Random random = new Random(SEED);
+        assertTrue(Space.newSpace(doubles(0, 0), doubles(1, 1), ints(20, 20)) instanceof SpaceImpl2D);
+        assertTrue(Space.newSpace(doubles(0, 0, 0), doubles(1, 1, 1), ints(10, 10, 10)) instanceof SpaceImpl3D);
+        assertEquals(SpaceImpl.class, Space.newSpace(doubles(0, 0), doubles(1, 1), ints(20, 21)).getClass());
+        assertEquals(SpaceImpl.class,
+                     Space.newSpace(doubles(0, 0), doubles(1, 1), ints(2, 2), ints(1, 0, 1, 0)).getClass());
+        for (int bits = 1; bits <= 28; bits++) {
+            checkSpecializedSpace(random, doubles(0, 0), doubles(1000, 1000), ints(bits, bits));
+        }
+        for (int bits = 1; bits <= 19; bits++) {
+            checkSpecializedSpace(random, doubles(0, 0, 0), doubles(1000, 1000, 1000), ints(bits, bits, bits));
+        }
+    }
+
+    @Test
+    public void testRegionOfZ()
+    {
+        Random random = new Random(SEED);
+        SpaceImpl space = new SpaceImpl(doubles(-100, 0, 50), doubles(100, 1000, 60), ints(6, 5, 4), null);
+        long[] x = new long[space.dimensions];
+        long[] loCells = new long[space.dimensions];
+        long[] hiCells = new long[space.dimensions];
+        double[] lo = new double[space.dimensions];
+        double[] hi = new double[space.dimensions];
+        for (int i = 0; i < 1000; i++) {
+            for (int d = 0; d < space.dimensions; d++) {
+                x[d] = random.nextInt((int) space.gHi[d] + 1);
+            }
+            long z = truncate(space.shuffle(x), random.nextInt(space.zBits + 1));
+            Region region = space.region(z);
+            assertEquals(z, region.z());
+            assertEquals(SpaceImpl.length(z), region.level());
+            space.cellBounds(z, loCells, hiCells);
+            space.bounds(z, lo, hi);
+            for (int d = 0; d < space.dimensions; d++) {
+                assertEquals(region.loCell(d), loCells[d]);
+                assertEquals(region.hiCell(d), hiCells[d]);
+                assertTrue(region.loGE(d, lo[d]) && region.loLE(d, lo[d]));
+                assertTrue(region.hiLE(d, hi[d]));
+                assertFalse(region.hiLE(d, Math.nextAfter(hi[d], Double.NEGATIVE_INFINITY)));
+            }
+        }
+    }
+
     @Test
     public void testSiblings()
     {
@@ -261,6 +322,12 @@ public class SpaceTest
         return x & ~(~0L >>> bits);
     }
 
+    // The z-value of length bits containing z.
+    private static long truncate(long z, int length)
+    {
+        return prefix(z, length + 1) | length;
+    }
+
     private static long mask(int position)
     {
         return 1L << (63 - position);
@@ -269,5 +336,64 @@ public class SpaceTest
     private void check(SpaceImpl space, long expected, long[] x)
     {
         assertEquals(SpaceImpl.z(expected, space.zBits()), space.shuffle(x));
+        long[] unshuffled = new long[space.dimensions];
+        space.unshuffle(space.shuffle(x), unshuffled);
+        assertArrayEquals(x, unshuffled);
     }
+
+    private void checkSpecializedSpace(Random random, double[] lo, double[] hi, int[] gridBits)
+    {
+        SpaceImpl specialized = (SpaceImpl) Space.newSpace(lo, hi, gridBits);
+        SpaceImpl general = new SpaceImpl(lo, hi, gridBits, null);
+        assertTrue(specialized.getClass() != SpaceImpl.class);
+        assertEquals(general, specialized);
+        assertEquals(specialized, general);
+        if (gridBits.length == 2) {
+            assertFalse(new HilbertSpace(lo, hi, gridBits).equals(specialized));
+        }
+        long[] x = new long[general.dimensions];
+        long[] unshuffled = new long[general.dimensions];
+        long[] generalUnshuffled = new long[general.dimensions];
+        for (int i = 0; i < 1000; i++) {
+            for (int d = 0; d < general.dimensions; d++) {
+                x[d] = random.nextLong() & general.gHi[d];
+            }
+            long z = general.shuffle(x);
+            assertEquals(z, specialized.shuffle(x));
+            z = truncate(z, random.nextInt(general.zBits + 1));
+            specialized.unshuffle(z, unshuffled);
+            general.unshuffle(z, generalUnshuffled);
+            assertArrayEquals(generalUnshuffled, unshuffled);
+        }
+        checkUnshuffle(random, specialized);
+    }
+
+    private void checkUnshuffle(Random random, SpaceImpl space)
+    {
+        long[] x = new long[space.dimensions];
+        long[] unshuffled = new long[space.dimensions];
+        for (int i = 0; i < 1000; i++) {
+            for (int d = 0; d < space.dimensions; d++) {
+                x[d] = random.nextLong() & space.gHi[d];
+            }
+            int length = random.nextInt(space.zBits + 1);
+            long z = truncate(space.shuffle(x), length);
+            space.unshuffle(z, unshuffled);
+            // Reshuffling the lower corner of z's Region yields z.
+            assertEquals(z, space.shuffle(unshuffled, length));
+            if (length == space.zBits) {
+                assertArrayEquals(x, unshuffled);
+            } else {
+                long[] loCells = new long[space.dimensions];
+                long[] hiCells = new long[space.dimensions];
+                space.cellBounds(z, loCells, hiCells);
+                assertArrayEquals(unshuffled, loCells);
+                for (int d = 0; d < space.dimensions; d++) {
+                    assertTrue(loCells[d] <= x[d] && x[d] <= hiCells[d]);
+                }
+            }
+        }
+    }
+
+    private static final int SEED = 419;
 }
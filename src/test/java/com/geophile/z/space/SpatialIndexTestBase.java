@@ -217,6 +217,100 @@ public abstract class SpatialIndexTestBase
         commitTransaction();
     }
 
+    @Test
+    public void testZLengths() throws Exception
+    {
+        Index<TestRecord> index = newIndex();
+        SpatialIndexImpl<TestRecord> spatialIndex = new SpatialIndexImpl<>(SPACE, index, SpatialIndex.Options.DEFAULT);
+        assertEquals(0L, spatialIndex.zLengths());
+        // Points are all decomposed to z-values of maximum length.
+        int id = 0;
+        for (long x = 0; x < X_MAX; x += 100) {
+            for (long y = 0; y < Y_MAX; y += 100) {
+                Point point = new Point(x, y);
+                spatialIndex.add(point, RECORD_FACTORY.setup(point, id++));
+            }
+        }
+        long pointLengths = 1L << SPACE.zBits();
+        assertEquals(pointLengths, spatialIndex.zLengths());
+        // A box adds shorter z-values
+        Box box = new Box(250, 750, 250, 750);
+        spatialIndex.add(box, RECORD_FACTORY.setup(box, id));
+        long boxLengths = 0L;
+        long[] zs = new long[box.maxZ()];
+        SPACE.decompose(box, zs);
+        for (int i = 0; i < zs.length && zs[i] != SpaceImpl.Z_NULL; i++) {
+            boxLengths |= 1L << SpaceImpl.length(zs[i]);
+        }
+        assertEquals(pointLengths | boxLengths, spatialIndex.zLengths());
+        // Removing the box removes its lengths
+        RemovalFilter removalFilter = new RemovalFilter();
+        removalFilter.spatialObject(box);
+        assertTrue(spatialIndex.remove(box, removalFilter));
+        assertEquals(pointLengths, spatialIndex.zLengths());
+        commitTransaction();
+        // Another SpatialIndex containing the same index knows its lengths.
+        SpatialIndexImpl<TestRecord> reopened = new SpatialIndexImpl<>(SPACE, index, SpatialIndex.Options.DEFAULT);
+        assertEquals(pointLengths, reopened.zLengths());
+        // The lengths of the records in an index that isn't empty initially are found by scanning it.
+        Index<TestRecord> loaded = newIndex();
+        Point point = new Point(0, 0);
+        TestRecord record = RECORD_FACTORY.setup(point, 0).newRecord();
+        record.z(SPACE.shuffle(new long[]{0, 0}));
+        loaded.add(record);
+        commitTransaction();
+        SpatialIndexImpl<TestRecord> loadedSpatialIndex =
+            new SpatialIndexImpl<>(SPACE, loaded, SpatialIndex.Options.DEFAULT);
+        assertEquals(pointLengths, loadedSpatialIndex.zLengths());
+        // After which additions are counted.
+        loadedSpatialIndex.add(box, RECORD_FACTORY.setup(box, 1));
+        commitTransaction();
+        assertEquals(pointLengths | boxLengths, loadedSpatialIndex.zLengths());
+    }
+
+    @Test
+    public void testZLengthsOfSharedIndex() throws Exception
+    {
+        Index<TestRecord> index = newIndex();
+        SpatialIndexImpl<TestRecord> pointIndex = new SpatialIndexImpl<>(SPACE, index, SpatialIndex.Options.DEFAULT);
+        SpatialIndexImpl<TestRecord> boxIndex = new SpatialIndexImpl<>(SPACE, index, SpatialIndex.Options.DEFAULT);
+        int id = 0;
+        for (long x = 0; x < X_MAX; x += 100) {
+            for (long y = 0; y < Y_MAX; y += 100) {
+                Point point = new Point(x, y);
+                pointIndex.add(point, RECORD_FACTORY.setup(point, id++));
+            }
+        }
+        Box box = new Box(250, 750, 250, 750);
+        boxIndex.add(box, RECORD_FACTORY.setup(box, id));
+        commitTransaction();
+        // Each SpatialIndex reports the lengths of records added through the other.
+        long lengths = 1L << SPACE.zBits();
+        long[] zs = new long[box.maxZ()];
+        SPACE.decompose(box, zs);
+        for (int i = 0; i < zs.length && zs[i] != SpaceImpl.Z_NULL; i++) {
+            lengths |= 1L << SpaceImpl.length(zs[i]);
+        }
+        assertEquals(lengths, pointIndex.zLengths());
+        assertEquals(lengths, boxIndex.zLengths());
+        // So a spatial join using either one finds the box.
+        Box query = new Box(500, 510, 500, 510);
+        int found = 0;
+        Iterator<TestRecord> iterator =
+            SpatialJoin.newSpatialJoin(SpatialJoin.Duplicates.EXCLUDE).iterator(query, pointIndex);
+        while (iterator.hasNext()) {
+            if (iterator.next().spatialObject().equals(box)) {
+                found++;
+            }
+        }
+        assertEquals(1, found);
+        // Removing the box through the SpatialIndex that didn't add it removes its lengths.
+        RemovalFilter removalFilter = new RemovalFilter();
+        removalFilter.spatialObject(box);
+        assertTrue(pointIndex.remove(box, removalFilter));
+        assertEquals(1L << SPACE.zBits(), boxIndex.zLengths());
+    }
+
     public abstract Index<TestRecord> newIndex() throws Exception;
 
     public void commitTransaction() throws Exception
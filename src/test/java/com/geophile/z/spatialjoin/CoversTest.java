@@ -0,0 +1,111 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.spatialjoin;
+
+import com.geophile.z.Record;
+import com.geophile.z.Space;
+import com.geophile.z.TestRecord;
+import com.geophile.z.space.Region;
+import com.geophile.z.space.RegionComparison;
+import com.geophile.z.space.SpaceImpl;
+import com.geophile.z.spatialobject.d2.Box;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// A spatial object is decomposed once to find its cover, however many of its records are found, until the join
+// passes the end of the cover.
+
+public class CoversTest
+{
+    @Test
+    public void testCover()
+    {
+        Covers covers = new Covers(SPACE);
+        CountingNotABox notABox = new CountingNotABox(new Box(100, 200, 300, 400));
+        TestRecord.Factory recordFactory = new TestRecord.Factory();
+        long[] zs = new long[notABox.maxZ()];
+        SPACE.decompose(notABox.box(), zs);
+        long[] cover = new long[1];
+        SPACE.decompose(notABox.box(), cover);
+        // Every record of the spatial object has the same cover, and the spatial object is decomposed once.
+        for (int i = 0; i < zs.length && zs[i] != SpaceImpl.Z_NULL; i++) {
+            TestRecord record = recordFactory.setup(notABox, 0).newRecord();
+            record.z(zs[i]);
+            assertEquals(cover[0], covers.cover(record));
+        }
+        int comparisons = notABox.comparisons;
+        assertTrue(comparisons > 0);
+        assertEquals(1, covers.size());
+        // Still remembered at the end of the cover
+        covers.advance(SpaceImpl.zHi(cover[0]));
+        assertEquals(1, covers.size());
+        // Forgotten after the end of the cover, after which the spatial object is decomposed again if needed.
+        long after = SpaceImpl.zHi(cover[0]) + (1L << SpaceImpl.LENGTH_BITS);
+        covers.advance(after);
+        assertEquals(0, covers.size());
+        TestRecord record = recordFactory.setup(notABox, 0).newRecord();
+        record.z(zs[0]);
+        assertEquals(cover[0], covers.cover(record));
+        assertEquals(2 * comparisons, notABox.comparisons);
+    }
+
+    @Test
+    public void testNoSpatialObject()
+    {
+        Covers covers = new Covers(SPACE);
+        assertEquals(SpaceImpl.Z_NULL, covers.cover(new Record()
+        {
+            @Override
+            public long z()
+            {
+                return SpaceImpl.Z_MIN;
+            }
+
+            @Override
+            public void z(long z)
+            {
+            }
+
+            @Override
+            public void copyTo(Record record)
+            {
+            }
+        }));
+        assertEquals(SpaceImpl.Z_MAX, Covers.lastZ(SpaceImpl.Z_NULL));
+        assertEquals(0, covers.size());
+    }
+
+    private static final SpaceImpl SPACE =
+        (SpaceImpl) Space.newSpace(new double[]{0, 0}, new double[]{1000, 1000}, new int[]{10, 10});
+
+    // Counts the comparisons with regions made while decomposing it.
+    private static class CountingNotABox extends NotABox
+    {
+        @Override
+        public boolean containedBy(Region region)
+        {
+            comparisons++;
+            return super.containedBy(region);
+        }
+
+        @Override
+        public RegionComparison compare(Region region)
+        {
+            comparisons++;
+            return super.compare(region);
+        }
+
+        CountingNotABox(Box box)
+        {
+            super(box);
+        }
+
+        int comparisons = 0;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.spatialjoin;
+
+import com.geophile.z.DecompositionCache;
+import com.geophile.z.Space;
+import com.geophile.z.SpatialIndex;
+import com.geophile.z.SpatialJoin;
+import com.geophile.z.TestIndex;
+import com.geophile.z.TestRecord;
+import com.geophile.z.spatialobject.d2.Box;
+import com.geophile.z.spatialobject.d2.Point;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class DecompositionCacheTest
+{
+    @Test
+    public void testBadCapacity()
+    {
+        try {
+            new DecompositionCache(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDecompose()
+    {
+        DecompositionCache cache = new DecompositionCache(10);
+        Box box = new Box(100, 350, 200, 220);
+        long[] zs = cache.decompose(SPACE, box, box.maxZ());
+        long[] expected = new long[box.maxZ()];
+        SPACE.decompose(box, expected);
+        for (int i = 0; i < expected.length; i++) {
+            if (i < zs.length) {
+                assertEquals(expected[i], zs[i]);
+            } else {
+                assertEquals(Space.Z_NULL, expected[i]);
+            }
+        }
+        assertEquals(0, cache.hits());
+        assertEquals(1, cache.misses());
+        // An equal object finds the cached decomposition.
+        assertSame(zs, cache.decompose(SPACE, new Box(100, 350, 200, 220), box.maxZ()));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+        // So does an equal space.
+        Space equalSpace = Space.newSpace(new double[]{0, 0}, new double[]{1000, 1000}, new int[]{10, 10});
+        assertSame(zs, cache.decompose(equalSpace, box, box.maxZ()));
+        assertEquals(2, cache.hits());
+        // A different maxZ or space does not.
+        long[] singleZ = new long[1];
+        SPACE.decompose(box, singleZ);
+        assertArrayEquals(singleZ, cache.decompose(SPACE, box, 1));
+        Space hilbertSpace = Space.newHilbertSpace(new double[]{0, 0}, new double[]{1000, 1000}, new int[]{10, 10});
+        cache.decompose(hilbertSpace, box, box.maxZ());
+        assertEquals(2, cache.hits());
+        assertEquals(3, cache.misses());
+        assertEquals(3, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.hits());
+        assertEquals(3, cache.misses());
+    }
+
+    @Test
+    public void testEviction()
+    {
+        DecompositionCache cache = new DecompositionCache(2);
+        Box a = new Box(0, 10, 0, 10);
+        Box b = new Box(20, 30, 20, 30);
+        Box c = new Box(40, 50, 40, 50);
+        cache.decompose(SPACE, a, a.maxZ());
+        cache.decompose(SPACE, b, b.maxZ());
+        // Using a makes b the least recently used decomposition, so adding c evicts b.
+        cache.decompose(SPACE, a, a.maxZ());
+        cache.decompose(SPACE, c, c.maxZ());
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.hits());
+        assertEquals(3, cache.misses());
+        cache.decompose(SPACE, a, a.maxZ());
+        cache.decompose(SPACE, c, c.maxZ());
+        assertEquals(3, cache.hits());
+        cache.decompose(SPACE, b, b.maxZ());
+        assertEquals(4, cache.misses());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testSpatialJoin() throws Exception
+    {
+        Random random = new Random(SEED);
+        SpatialIndex<TestRecord> points = SpatialIndex.newSpatialIndex(SPACE, new TestIndex());
+        TestRecord.Factory recordFactory = new TestRecord.Factory();
+        for (int id = 0; id < 2000; id++) {
+            Point point = new Point(random.nextInt(1000), random.nextInt(1000));
+            points.add(point, recordFactory.setup(point, id));
+        }
+        List<Box> queries = new ArrayList<>();
+        for (int q = 0; q < 20; q++) {
+            int xLo = random.nextInt(900);
+            int yLo = random.nextInt(900);
+            queries.add(new Box(xLo, xLo + random.nextInt(100), yLo, yLo + random.nextInt(100)));
+        }
+        DecompositionCache cache = new DecompositionCache(100);
+        SpatialJoin uncached = SpatialJoin.newSpatialJoin(SpatialJoin.Duplicates.EXCLUDE, FILTER);
+        SpatialJoin cached = SpatialJoin.newSpatialJoin(SpatialJoin.Duplicates.EXCLUDE, FILTER, cache);
+        for (int repeat = 0; repeat < 5; repeat++) {
+            for (Box query : queries) {
+                assertEquals(ids(uncached.iterator(query, points)), ids(cached.iterator(query, points)));
+            }
+        }
+        assertEquals(queries.size(), cache.misses());
+        assertEquals(4 * queries.size(), cache.hits());
+    }
+
+    private static List<Integer> ids(Iterator<TestRecord> iterator)
+    {
+        List<Integer> ids = new ArrayList<>();
+        while (iterator.hasNext()) {
+            ids.add(iterator.next().soid());
+        }
+        return ids;
+    }
+
+    private static final int SEED = 419;
+    private static final Space SPACE =
+        Space.newSpace(new double[]{0, 0}, new double[]{1000, 1000}, new int[]{10, 10});
+    private static final SpatialJoin.Filter<Box, TestRecord> FILTER =
+        new SpatialJoin.Filter<Box, TestRecord>()
+        {
+            @Override
+            public boolean overlap(Box box, TestRecord record)
+            {
+                Point point = (Point) record.spatialObject();
+                return
+                    box.xLo() <= point.x() && point.x() <= box.xHi() &&
+                    box.yLo() <= point.y() && point.y() <= box.yHi();
+            }
+        };
+}
@@ -0,0 +1,87 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.spatialjoin;
+
+import com.geophile.z.Space;
+import com.geophile.z.SpatialObject;
+import com.geophile.z.space.Region;
+import com.geophile.z.space.RegionComparison;
+import com.geophile.z.spatialobject.d2.Box;
+
+import java.nio.ByteBuffer;
+
+// A Box that isn't an AxisAlignedBox, so that duplicates of its spatial join output can't be avoided using
+// reference points.
+
+class NotABox implements SpatialObject
+{
+    @Override
+    public int hashCode()
+    {
+        return box.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        return obj instanceof NotABox && ((NotABox) obj).box.equals(box);
+    }
+
+    @Override
+    public double[] arbitraryPoint()
+    {
+        return box.arbitraryPoint();
+    }
+
+    @Override
+    public int maxZ()
+    {
+        return box.maxZ();
+    }
+
+    @Override
+    public boolean containedBy(Space space)
+    {
+        return box.containedBy(space);
+    }
+
+    @Override
+    public boolean containedBy(Region region)
+    {
+        return box.containedBy(region);
+    }
+
+    @Override
+    public RegionComparison compare(Region region)
+    {
+        return box.compare(region);
+    }
+
+    @Override
+    public void readFrom(ByteBuffer buffer)
+    {
+        box.readFrom(buffer);
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer)
+    {
+        box.writeTo(buffer);
+    }
+
+    public Box box()
+    {
+        return box;
+    }
+
+    NotABox(Box box)
+    {
+        this.box = box;
+    }
+
+    private final Box box;
+}
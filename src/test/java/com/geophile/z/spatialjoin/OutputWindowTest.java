@@ -0,0 +1,123 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.spatialjoin;
+
+import com.geophile.z.Pair;
+import com.geophile.z.Space;
+import com.geophile.z.SpatialIndex;
+import com.geophile.z.SpatialJoin;
+import com.geophile.z.SpatialObject;
+import com.geophile.z.TestIndex;
+import com.geophile.z.TestRecord;
+import com.geophile.z.spatialobject.d2.Box;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Output of a spatial join excluding duplicates, for spatial objects that aren't boxes, (so that duplicates can't be
+// avoided using reference points), is remembered only while the join can find it again.
+
+public class OutputWindowTest
+{
+    @Test
+    public void testIterator() throws Exception
+    {
+        Random random = new Random(SEED);
+        SpatialIndex<TestRecord> left = spatialIndex(random, 0);
+        SpatialIndex<TestRecord> right = spatialIndex(random, N);
+        Set<Pair<TestRecord, TestRecord>> expected =
+            distinct(SpatialJoin.newSpatialJoin(SpatialJoin.Duplicates.INCLUDE).iterator(left, right));
+        SpatialJoinIterator<Pair<TestRecord, TestRecord>> iterator =
+            (SpatialJoinIterator<Pair<TestRecord, TestRecord>>)
+                SpatialJoin.newSpatialJoin(SpatialJoin.Duplicates.EXCLUDE).iterator(left, right);
+        Set<Pair<TestRecord, TestRecord>> actual = new HashSet<>();
+        int maxRemembered = 0;
+        while (iterator.hasNext()) {
+            assertTrue(actual.add(iterator.next()));
+            maxRemembered = Math.max(maxRemembered, iterator.remembered());
+        }
+        assertEquals(expected, actual);
+        assertTrue(maxRemembered < expected.size() / 4);
+    }
+
+    @Test
+    public void testForEach() throws Exception
+    {
+        Random random = new Random(SEED);
+        SpatialIndex<TestRecord> left = spatialIndex(random, 0);
+        SpatialIndex<TestRecord> right = spatialIndex(random, N);
+        Set<Pair<TestRecord, TestRecord>> expected =
+            distinct(SpatialJoin.newSpatialJoin(SpatialJoin.Duplicates.INCLUDE).iterator(left, right));
+        final Set<Pair<TestRecord, TestRecord>> actual = new HashSet<>();
+        SpatialJoin.newSpatialJoin(SpatialJoin.Duplicates.EXCLUDE).forEach(
+            left,
+            right,
+            new SpatialJoin.PairConsumer<TestRecord, TestRecord>()
+            {
+                @Override
+                public void accept(TestRecord left, TestRecord right)
+                {
+                    assertTrue(actual.add(new Pair<>(left, right)));
+                }
+            });
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testQuery() throws Exception
+    {
+        Random random = new Random(SEED);
+        SpatialIndex<TestRecord> data = spatialIndex(random, 0);
+        for (int q = 0; q < 20; q++) {
+            int xLo = random.nextInt(600);
+            int yLo = random.nextInt(600);
+            SpatialObject query = new NotABox(new Box(xLo, xLo + random.nextInt(400), yLo, yLo + random.nextInt(400)));
+            Set<TestRecord> expected =
+                distinct(SpatialJoin.newSpatialJoin(SpatialJoin.Duplicates.INCLUDE).iterator(query, data));
+            Iterator<TestRecord> iterator =
+                SpatialJoin.newSpatialJoin(SpatialJoin.Duplicates.EXCLUDE).iterator(query, data);
+            Set<TestRecord> actual = new HashSet<>();
+            while (iterator.hasNext()) {
+                assertTrue(actual.add(iterator.next()));
+            }
+            assertEquals(expected, actual);
+        }
+    }
+
+    private SpatialIndex<TestRecord> spatialIndex(Random random, int firstId) throws Exception
+    {
+        SpatialIndex<TestRecord> spatialIndex = SpatialIndex.newSpatialIndex(SPACE, new TestIndex());
+        TestRecord.Factory recordFactory = new TestRecord.Factory();
+        for (int id = firstId; id < firstId + N; id++) {
+            int xLo = random.nextInt(950);
+            int yLo = random.nextInt(950);
+            NotABox notABox = new NotABox(new Box(xLo, xLo + random.nextInt(50), yLo, yLo + random.nextInt(50)));
+            spatialIndex.add(notABox, recordFactory.setup(notABox, id));
+        }
+        return spatialIndex;
+    }
+
+    private static <T> Set<T> distinct(Iterator<T> iterator)
+    {
+        Set<T> distinct = new HashSet<>();
+        while (iterator.hasNext()) {
+            distinct.add(iterator.next());
+        }
+        return distinct;
+    }
+
+    private static final int SEED = 419;
+    private static final int N = 2000;
+    private static final Space SPACE =
+        Space.newSpace(new double[]{0, 0}, new double[]{1000, 1000}, new int[]{10, 10});
+}
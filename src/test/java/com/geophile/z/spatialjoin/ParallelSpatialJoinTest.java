@@ -0,0 +1,160 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.spatialjoin;
+
+import com.geophile.z.Pair;
+import com.geophile.z.Space;
+import com.geophile.z.SpatialIndex;
+import com.geophile.z.SpatialJoin;
+import com.geophile.z.SpatialObject;
+import com.geophile.z.TestIndex;
+import com.geophile.z.TestRecord;
+import com.geophile.z.spatialobject.d2.Box;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// A parallel spatial join returns exactly the pairs of a serial spatial join, including duplicates, so records
+// spanning partition boundaries are neither missed nor joined more than once.
+
+public class ParallelSpatialJoinTest
+{
+    @Test
+    public void testSmallBoxes() throws Exception
+    {
+        check(2000, 20, 0, true, true);
+    }
+
+    @Test
+    public void testManyPairs() throws Exception
+    {
+        // Each partition's output is larger than the queue passing it to the Iterator.
+        check(2000, 150, 0, true, true);
+    }
+
+    @Test
+    public void testMixedBoxes() throws Exception
+    {
+        // Large boxes have short z-values, which contain the starts of many partitions.
+        check(2000, 50, 20, true, true);
+        check(2000, 50, 20, false, true);
+    }
+
+    @Test
+    public void testNotBoxes() throws Exception
+    {
+        // Duplicates can't be avoided using reference points, and large spatial objects are in many partitions.
+        check(2000, 50, 20, true, false);
+    }
+
+    @Test
+    public void testFewRecords() throws Exception
+    {
+        check(0, 50, 0, true, true);
+        check(1, 50, 0, true, true);
+        check(1, 50, 1, true, true);
+    }
+
+    @Test
+    public void testClose() throws Exception
+    {
+        // Abandon the Iterator while the threads are waiting to pass it output. Closing it stops the threads.
+        Random random = new Random(SEED);
+        SpatialIndex<TestRecord> left = spatialIndex(random, 2000, 150, 0, 0, true, true);
+        SpatialIndex<TestRecord> right = spatialIndex(random, 2000, 150, 0, 2000, true, true);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        SpatialJoin.CloseableIterator<Pair<TestRecord, TestRecord>> iterator =
+            SpatialJoin.newSpatialJoin(SpatialJoin.Duplicates.INCLUDE, FILTER).iterator(left, right, pool);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(iterator.hasNext());
+            iterator.next();
+        }
+        iterator.close();
+        assertFalse(iterator.hasNext());
+        assertTrue(pool.awaitQuiescence(10, TimeUnit.SECONDS));
+        pool.shutdown();
+    }
+
+    private void check(int n, int maxSize, int nLarge, boolean stableRecords, boolean boxes) throws Exception
+    {
+        Random random = new Random(SEED);
+        SpatialIndex<TestRecord> left = spatialIndex(random, n, maxSize, nLarge, 0, stableRecords, boxes);
+        SpatialIndex<TestRecord> right = spatialIndex(random, n, maxSize, nLarge, n + nLarge, stableRecords, boxes);
+        for (SpatialJoin.Duplicates duplicates : SpatialJoin.Duplicates.values()) {
+            SpatialJoin spatialJoin = SpatialJoin.newSpatialJoin(duplicates, FILTER);
+            Map<Pair<TestRecord, TestRecord>, Integer> expected = counts(spatialJoin.iterator(left, right));
+            Map<Pair<TestRecord, TestRecord>, Integer> actual = counts(spatialJoin.iterator(left, right, POOL));
+            assertEquals(expected, actual);
+        }
+    }
+
+    private SpatialIndex<TestRecord> spatialIndex(Random random,
+                                                  int n,
+                                                  int maxSize,
+                                                  int nLarge,
+                                                  int firstId,
+                                                  boolean stableRecords,
+                                                  boolean boxes) throws Exception
+    {
+        SpatialIndex<TestRecord> spatialIndex = SpatialIndex.newSpatialIndex(SPACE, new TestIndex(stableRecords));
+        TestRecord.Factory recordFactory = new TestRecord.Factory();
+        int id = firstId;
+        for (int i = 0; i < n + nLarge; i++) {
+            int size = i < n ? 1 + random.nextInt(maxSize) : 200 + random.nextInt(600);
+            int xLo = random.nextInt(1000 - size);
+            int yLo = random.nextInt(1000 - size);
+            Box box = new Box(xLo, xLo + size, yLo, yLo + size);
+            SpatialObject spatialObject = boxes ? box : new NotABox(box);
+            spatialIndex.add(spatialObject, recordFactory.setup(spatialObject, id++));
+        }
+        return spatialIndex;
+    }
+
+    private static Map<Pair<TestRecord, TestRecord>, Integer> counts(Iterator<Pair<TestRecord, TestRecord>> iterator)
+    {
+        Map<Pair<TestRecord, TestRecord>, Integer> counts = new HashMap<>();
+        while (iterator.hasNext()) {
+            Pair<TestRecord, TestRecord> pair = iterator.next();
+            Integer count = counts.get(pair);
+            counts.put(pair, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    private static Box box(TestRecord record)
+    {
+        SpatialObject spatialObject = record.spatialObject();
+        return spatialObject instanceof NotABox ? ((NotABox) spatialObject).box() : (Box) spatialObject;
+    }
+
+    private static final int SEED = 419;
+    private static final Space SPACE =
+        Space.newSpace(new double[]{0, 0}, new double[]{1000, 1000}, new int[]{10, 10});
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+    private static final SpatialJoin.Filter<TestRecord, TestRecord> FILTER =
+        new SpatialJoin.Filter<TestRecord, TestRecord>()
+        {
+            @Override
+            public boolean overlap(TestRecord r, TestRecord s)
+            {
+                Box b = box(r);
+                Box c = box(s);
+                return
+                    b.xLo() <= c.xHi() && c.xLo() <= b.xHi() &&
+                    b.yLo() <= c.yHi() && c.yLo() <= b.yHi();
+            }
+        };
+}
@@ -0,0 +1,98 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.spatialjoin;
+
+import com.geophile.z.Pair;
+import com.geophile.z.Space;
+import com.geophile.z.SpatialIndex;
+import com.geophile.z.SpatialJoin;
+import com.geophile.z.TestIndex;
+import com.geophile.z.TestRecord;
+import com.geophile.z.spatialobject.d2.Box;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Duplicates of pairs of boxes are avoided using reference points. Excluding duplicates must return each pair
+// returned when duplicates are included exactly once, including pairs of boxes that touch along grid lines,
+// and pairs that don't intersect, (false positives, which are not filtered here).
+
+public class ReferencePointTest
+{
+    @Test
+    public void testZOrder() throws Exception
+    {
+        check(Space.newSpace(new double[]{0, 0}, new double[]{1024, 1024}, new int[]{10, 10}));
+    }
+
+    @Test
+    public void testHilbert() throws Exception
+    {
+        check(Space.newHilbertSpace(new double[]{0, 0}, new double[]{1024, 1024}, new int[]{10, 10}));
+    }
+
+    @Test
+    public void testUnalignedGrid() throws Exception
+    {
+        check(Space.newSpace(new double[]{0, 0}, new double[]{1000, 1000}, new int[]{10, 10}));
+    }
+
+    private void check(Space space) throws Exception
+    {
+        Random random = new Random(SEED);
+        // Coordinates are multiples of 8, so many boxes touch, and box boundaries are grid lines of an aligned grid.
+        SpatialIndex<TestRecord> left = spatialIndex(space, random, 0);
+        SpatialIndex<TestRecord> right = spatialIndex(space, random, N);
+        Set<Pair<TestRecord, TestRecord>> expected =
+            new HashSet<>(pairs(SpatialJoin.newSpatialJoin(SpatialJoin.Duplicates.INCLUDE).iterator(left, right),
+                                null));
+        Set<Pair<TestRecord, TestRecord>> actual = new HashSet<>();
+        int n = pairs(SpatialJoin.newSpatialJoin(SpatialJoin.Duplicates.EXCLUDE).iterator(left, right), actual).size();
+        assertEquals(expected, actual);
+        assertEquals(expected.size(), n);
+        assertTrue(expected.size() > N);
+    }
+
+    private SpatialIndex<TestRecord> spatialIndex(Space space, Random random, int firstId) throws Exception
+    {
+        SpatialIndex<TestRecord> spatialIndex = SpatialIndex.newSpatialIndex(space, new TestIndex());
+        TestRecord.Factory recordFactory = new TestRecord.Factory();
+        for (int id = firstId; id < firstId + N; id++) {
+            int xLo = 8 * random.nextInt(120);
+            int yLo = 8 * random.nextInt(120);
+            Box box = new Box(xLo, xLo + 8 * random.nextInt(5), yLo, yLo + 8 * random.nextInt(5));
+            spatialIndex.add(box, recordFactory.setup(box, id));
+        }
+        return spatialIndex;
+    }
+
+    // Returns the pairs from iterator, adding them to distinct, (if not null), and checking that none is repeated.
+    private static List<Pair<TestRecord, TestRecord>> pairs(Iterator<Pair<TestRecord, TestRecord>> iterator,
+                                                           Set<Pair<TestRecord, TestRecord>> distinct)
+    {
+        List<Pair<TestRecord, TestRecord>> pairs = new ArrayList<>();
+        while (iterator.hasNext()) {
+            Pair<TestRecord, TestRecord> pair = iterator.next();
+            pairs.add(pair);
+            if (distinct != null) {
+                assertTrue(distinct.add(pair));
+            }
+        }
+        return pairs;
+    }
+
+    private static final int SEED = 419;
+    private static final int N = 2000;
+}
@@ -0,0 +1,185 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.spatialjoin;
+
+import com.geophile.z.Pair;
+import com.geophile.z.Space;
+import com.geophile.z.SpatialIndex;
+import com.geophile.z.SpatialJoin;
+import com.geophile.z.TestIndex;
+import com.geophile.z.TestRecord;
+import com.geophile.z.spatialobject.d2.Box;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// When duplicates are excluded, the filter is applied once to each distinct pair found by the spatial join,
+// whether the filter accepts the pair or not. Pairs of boxes that don't intersect have no reference point,
+// (see ReferencePoint), so the duplicates of those pairs are skipped using the pairs already refined.
+
+public class RefinementTest
+{
+    @Test
+    public void testIterator() throws Exception
+    {
+        Random random = new Random(SEED);
+        SpatialIndex<TestRecord> left = spatialIndex(random, 0);
+        SpatialIndex<TestRecord> right = spatialIndex(random, N);
+        Set<Pair<TestRecord, TestRecord>> candidates =
+            distinct(SpatialJoin.newSpatialJoin(SpatialJoin.Duplicates.INCLUDE).iterator(left, right));
+        CountingFilter<TestRecord> filter = new CountingFilter<>();
+        Set<Pair<TestRecord, TestRecord>> actual = new HashSet<>();
+        Iterator<Pair<TestRecord, TestRecord>> iterator =
+            SpatialJoin.newSpatialJoin(SpatialJoin.Duplicates.EXCLUDE, filter).iterator(left, right);
+        while (iterator.hasNext()) {
+            assertTrue(actual.add(iterator.next()));
+        }
+        check(candidates, filter, actual);
+    }
+
+    @Test
+    public void testForEach() throws Exception
+    {
+        Random random = new Random(SEED);
+        SpatialIndex<TestRecord> left = spatialIndex(random, 0);
+        SpatialIndex<TestRecord> right = spatialIndex(random, N);
+        Set<Pair<TestRecord, TestRecord>> candidates =
+            distinct(SpatialJoin.newSpatialJoin(SpatialJoin.Duplicates.INCLUDE).iterator(left, right));
+        CountingFilter<TestRecord> filter = new CountingFilter<>();
+        final Set<Pair<TestRecord, TestRecord>> actual = new HashSet<>();
+        SpatialJoin.newSpatialJoin(SpatialJoin.Duplicates.EXCLUDE, filter).forEach(
+            left,
+            right,
+            new SpatialJoin.PairConsumer<TestRecord, TestRecord>()
+            {
+                @Override
+                public void accept(TestRecord left, TestRecord right)
+                {
+                    assertTrue(actual.add(new Pair<>(left, right)));
+                }
+            });
+        check(candidates, filter, actual);
+    }
+
+    @Test
+    public void testQuery() throws Exception
+    {
+        Random random = new Random(SEED);
+        SpatialIndex<TestRecord> data = spatialIndex(random, 0);
+        for (int q = 0; q < 20; q++) {
+            int xLo = random.nextInt(600);
+            int yLo = random.nextInt(600);
+            Box query = new Box(xLo, xLo + random.nextInt(400), yLo, yLo + random.nextInt(400));
+            Set<TestRecord> candidates =
+                distinct(SpatialJoin.newSpatialJoin(SpatialJoin.Duplicates.INCLUDE).iterator(query, data));
+            final Map<TestRecord, Integer> refinements = new HashMap<>();
+            SpatialJoin.Filter<Box, TestRecord> filter =
+                new SpatialJoin.Filter<Box, TestRecord>()
+                {
+                    @Override
+                    public boolean overlap(Box query, TestRecord record)
+                    {
+                        Integer count = refinements.get(record);
+                        refinements.put(record, count == null ? 1 : count + 1);
+                        return record.soid() % 2 == 0;
+                    }
+                };
+            Iterator<TestRecord> iterator =
+                SpatialJoin.newSpatialJoin(SpatialJoin.Duplicates.EXCLUDE, filter).iterator(query, data);
+            Set<TestRecord> actual = new HashSet<>();
+            while (iterator.hasNext()) {
+                TestRecord record = iterator.next();
+                assertTrue(record.soid() % 2 == 0);
+                assertTrue(actual.add(record));
+            }
+            assertEquals(candidates, refinements.keySet());
+            for (Integer count : refinements.values()) {
+                assertEquals(1, count.intValue());
+            }
+            for (TestRecord record : candidates) {
+                assertEquals(record.soid() % 2 == 0, actual.contains(record));
+            }
+        }
+    }
+
+    private void check(Set<Pair<TestRecord, TestRecord>> candidates,
+                       CountingFilter<TestRecord> filter,
+                       Set<Pair<TestRecord, TestRecord>> actual)
+    {
+        assertEquals(candidates, filter.refinements.keySet());
+        for (Integer count : filter.refinements.values()) {
+            assertEquals(1, count.intValue());
+        }
+        Set<Pair<TestRecord, TestRecord>> expected = new HashSet<>();
+        for (Pair<TestRecord, TestRecord> pair : candidates) {
+            if (CountingFilter.accept(pair.left(), pair.right())) {
+                expected.add(pair);
+            }
+        }
+        assertEquals(expected, actual);
+    }
+
+    private SpatialIndex<TestRecord> spatialIndex(Random random, int firstId) throws Exception
+    {
+        SpatialIndex<TestRecord> spatialIndex = SpatialIndex.newSpatialIndex(SPACE, new TestIndex());
+        TestRecord.Factory recordFactory = new TestRecord.Factory();
+        for (int id = firstId; id < firstId + N; id++) {
+            int xLo = random.nextInt(950);
+            int yLo = random.nextInt(950);
+            Box box = new Box(xLo, xLo + random.nextInt(50), yLo, yLo + random.nextInt(50));
+            spatialIndex.add(box, recordFactory.setup(box, id));
+        }
+        return spatialIndex;
+    }
+
+    private static <T> Set<T> distinct(Iterator<T> iterator)
+    {
+        Set<T> distinct = new HashSet<>();
+        while (iterator.hasNext()) {
+            distinct.add(iterator.next());
+        }
+        return distinct;
+    }
+
+    private static final int SEED = 419;
+    private static final int N = 2000;
+    private static final Space SPACE =
+        Space.newSpace(new double[]{0, 0}, new double[]{1000, 1000}, new int[]{10, 10});
+
+    // Counts the refinements of each pair, and accepts some of the pairs of intersecting boxes.
+    private static class CountingFilter<RECORD extends TestRecord> implements SpatialJoin.Filter<RECORD, RECORD>
+    {
+        @Override
+        public boolean overlap(RECORD left, RECORD right)
+        {
+            Pair<TestRecord, TestRecord> pair = new Pair<TestRecord, TestRecord>(left, right);
+            Integer count = refinements.get(pair);
+            refinements.put(pair, count == null ? 1 : count + 1);
+            return accept(left, right);
+        }
+
+        static boolean accept(TestRecord left, TestRecord right)
+        {
+            Box b = (Box) left.spatialObject();
+            Box c = (Box) right.spatialObject();
+            return
+                (left.soid() + right.soid()) % 2 == 0 &&
+                b.xLo() <= c.xHi() && c.xLo() <= b.xHi() &&
+                b.yLo() <= c.yHi() && c.yLo() <= b.yHi();
+        }
+
+        final Map<Pair<TestRecord, TestRecord>, Integer> refinements = new HashMap<>();
+    }
+}
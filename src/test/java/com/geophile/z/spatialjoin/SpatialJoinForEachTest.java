@@ -0,0 +1,118 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package com.geophile.z.spatialjoin;
+
+import com.geophile.z.Pair;
+import com.geophile.z.Space;
+import com.geophile.z.SpatialIndex;
+import com.geophile.z.SpatialJoin;
+import com.geophile.z.TestIndex;
+import com.geophile.z.TestRecord;
+import com.geophile.z.spatialobject.d2.Box;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+// SpatialJoin.forEach passes the consumer exactly the pairs returned by a spatial join iterator.
+
+public class SpatialJoinForEachTest
+{
+    @Test
+    public void testForEach() throws Exception
+    {
+        check(2000, 50, 20, true);
+        check(2000, 50, 20, false);
+    }
+
+    @Test
+    public void testFewRecords() throws Exception
+    {
+        check(0, 50, 0, true);
+        check(1, 50, 0, true);
+        check(1, 50, 1, true);
+    }
+
+    private void check(int n, int maxSize, int nLarge, boolean stableRecords) throws Exception
+    {
+        Random random = new Random(SEED);
+        SpatialIndex<TestRecord> left = spatialIndex(random, n, maxSize, nLarge, 0, stableRecords);
+        SpatialIndex<TestRecord> right = spatialIndex(random, n, maxSize, nLarge, n + nLarge, stableRecords);
+        for (SpatialJoin.Duplicates duplicates : SpatialJoin.Duplicates.values()) {
+            SpatialJoin spatialJoin = SpatialJoin.newSpatialJoin(duplicates, FILTER);
+            Map<Pair<TestRecord, TestRecord>, Integer> expected = counts(spatialJoin.iterator(left, right));
+            final Map<Pair<TestRecord, TestRecord>, Integer> actual = new HashMap<>();
+            spatialJoin.forEach(left,
+                                right,
+                                new SpatialJoin.PairConsumer<TestRecord, TestRecord>()
+                                {
+                                    @Override
+                                    public void accept(TestRecord r, TestRecord s)
+                                    {
+                                        count(actual, new Pair<>(r, s));
+                                    }
+                                });
+            assertEquals(expected, actual);
+        }
+    }
+
+    private SpatialIndex<TestRecord> spatialIndex(Random random,
+                                                  int n,
+                                                  int maxSize,
+                                                  int nLarge,
+                                                  int firstId,
+                                                  boolean stableRecords) throws Exception
+    {
+        SpatialIndex<TestRecord> spatialIndex = SpatialIndex.newSpatialIndex(SPACE, new TestIndex(stableRecords));
+        TestRecord.Factory recordFactory = new TestRecord.Factory();
+        int id = firstId;
+        for (int i = 0; i < n + nLarge; i++) {
+            int size = i < n ? 1 + random.nextInt(maxSize) : 200 + random.nextInt(600);
+            int xLo = random.nextInt(1000 - size);
+            int yLo = random.nextInt(1000 - size);
+            Box box = new Box(xLo, xLo + size, yLo, yLo + size);
+            spatialIndex.add(box, recordFactory.setup(box, id++));
+        }
+        return spatialIndex;
+    }
+
+    private static Map<Pair<TestRecord, TestRecord>, Integer> counts(Iterator<Pair<TestRecord, TestRecord>> iterator)
+    {
+        Map<Pair<TestRecord, TestRecord>, Integer> counts = new HashMap<>();
+        while (iterator.hasNext()) {
+            count(counts, iterator.next());
+        }
+        return counts;
+    }
+
+    private static void count(Map<Pair<TestRecord, TestRecord>, Integer> counts, Pair<TestRecord, TestRecord> pair)
+    {
+        Integer count = counts.get(pair);
+        counts.put(pair, count == null ? 1 : count + 1);
+    }
+
+    private static final int SEED = 419;
+    private static final Space SPACE =
+        Space.newSpace(new double[]{0, 0}, new double[]{1000, 1000}, new int[]{10, 10});
+    private static final SpatialJoin.Filter<TestRecord, TestRecord> FILTER =
+        new SpatialJoin.Filter<TestRecord, TestRecord>()
+        {
+            @Override
+            public boolean overlap(TestRecord r, TestRecord s)
+            {
+                Box b = (Box) r.spatialObject();
+                Box c = (Box) s.spatialObject();
+                return
+                    b.xLo() <= c.xHi() && c.xLo() <= b.xHi() &&
+                    b.yLo() <= c.yHi() && c.yLo() <= b.yHi();
+            }
+        };
+}